@@ -1,12 +1,17 @@
 package com.uid2.client;
 
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 
 public class BidstreamClient {
     private final TokenHelper tokenHelper;
 
     public BidstreamClient(String baseUrl, String clientApiKey, String base64SecretKey) {
-        tokenHelper = new TokenHelper(baseUrl, clientApiKey, base64SecretKey);
+        this(baseUrl, clientApiKey, base64SecretKey, Uid2TransportConfig.defaultConfig());
+    }
+
+    public BidstreamClient(String baseUrl, String clientApiKey, String base64SecretKey, Uid2TransportConfig transportConfig) {
+        tokenHelper = new TokenHelper(baseUrl, clientApiKey, base64SecretKey, transportConfig);
     }
 
     public DecryptionResponse decryptTokenIntoRawUid(String token, String domainOrAppNameFromBidRequest) {
@@ -21,6 +26,25 @@ public class BidstreamClient {
         return tokenHelper.refresh("/v2/key/bidstream");
     }
 
+    /**
+     * Asynchronous version of {@link #refresh()}. The request is sent without blocking the calling thread.
+     * @return a CompletableFuture which completes with the RefreshResponse. It does not complete exceptionally; failures are reported through {@link RefreshResponse#getReason()}.
+     */
+    public CompletableFuture<RefreshResponse> refreshAsync() {
+        return tokenHelper.refreshAsync("/v2/key/bidstream");
+    }
+
+    /**
+     * @return the state of the keys used for decryption and of recent refreshes, for health checks. See {@link KeyHealth#getFreshness()}.
+     */
+    public KeyHealth getKeyHealth() {
+        return tokenHelper.getKeyHealth(Instant.now());
+    }
+
+    KeyHealth getKeyHealth(Instant now) {
+        return tokenHelper.getKeyHealth(now);
+    }
+
     RefreshResponse refreshJson(String json) {
         return tokenHelper.refreshJson(json);
     }
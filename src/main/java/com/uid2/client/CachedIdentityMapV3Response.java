@@ -0,0 +1,38 @@
+package com.uid2.client;
+
+import java.util.List;
+
+/**
+ * The result of {@link CachingIdentityMapV3Client#generateIdentityMap}, holding both identities answered from the store and identities mapped by the operator.
+ */
+public class CachedIdentityMapV3Response extends IdentityMapV3Response {
+    CachedIdentityMapV3Response() {}
+
+    void addCacheHit(List<String> rawDiis, MappedIdentity mappedIdentity) {
+        for (String rawDii : rawDiis) {
+            addMapped(rawDii, mappedIdentity);
+        }
+        cacheHitCount++;
+    }
+
+    void setCacheMissCount(int cacheMissCount) {
+        this.cacheMissCount = cacheMissCount;
+    }
+
+    /**
+     * @return the number of distinct hashed DIIs answered from the store without contacting the operator
+     */
+    public int getCacheHitCount() {
+        return cacheHitCount;
+    }
+
+    /**
+     * @return the number of distinct hashed DIIs which were unknown to the store or due for refresh, and so were sent to the operator
+     */
+    public int getCacheMissCount() {
+        return cacheMissCount;
+    }
+
+    private int cacheHitCount;
+    private int cacheMissCount;
+}
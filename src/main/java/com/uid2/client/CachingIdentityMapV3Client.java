@@ -0,0 +1,91 @@
+package com.uid2.client;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Maps emails and phone numbers like {@link IdentityMapV3Client}, but answers identities whose
+ * {@link IdentityMapV3Response.MappedIdentity#getRefreshFrom refresh time} has not yet been reached from an {@link IdentityMapV3Store}.
+ * Only unknown identities, and those due for refresh, are sent to the operator.
+ */
+public class CachingIdentityMapV3Client {
+    /**
+     * @param identityMapClient the client used to map identities which are not answered from the store
+     * @param store             where mapped identities are kept between calls, for example an {@link InMemoryIdentityMapV3Store} or a {@link FileIdentityMapV3Store}
+     */
+    public CachingIdentityMapV3Client(IdentityMapV3Client identityMapClient, IdentityMapV3Store store) {
+        this.identityMapClient = identityMapClient;
+        this.store = store;
+    }
+
+    /**
+     * @param identityMapInput  represents the input required for <a href="https://unifiedid.com/docs/endpoints/post-identity-map">/identity/map</a>
+     * @return                  a CachedIdentityMapV3Response instance holding a result for every DII in identityMapInput
+     * @throws Uid2Exception    in the same cases where {@link IdentityMapV3Client#generateIdentityMap(IdentityMapV3Input)} throws. No request is made if every DII is answered from the store.
+     */
+    public CachedIdentityMapV3Response generateIdentityMap(IdentityMapV3Input identityMapInput) {
+        return generateIdentityMap(identityMapInput, Instant.now());
+    }
+
+    /**
+     * Asynchronous version of {@link #generateIdentityMap}. The store is updated on the executor configured in {@link Uid2TransportConfig#withExecutor}.
+     * @param identityMapInput  represents the input required for <a href="https://unifiedid.com/docs/endpoints/post-identity-map">/identity/map</a>
+     * @return                  a CompletableFuture which completes with a CachedIdentityMapV3Response instance
+     */
+    public CompletableFuture<CachedIdentityMapV3Response> generateIdentityMapAsync(IdentityMapV3Input identityMapInput) {
+        Lookup lookup = new Lookup(identityMapInput, Instant.now());
+        if (lookup.misses.size() == 0) {
+            return CompletableFuture.completedFuture(lookup.result);
+        }
+        return identityMapClient.generateIdentityMapAsync(lookup.misses).thenApply(lookup::complete);
+    }
+
+    CachedIdentityMapV3Response generateIdentityMap(IdentityMapV3Input identityMapInput, Instant now) {
+        Lookup lookup = new Lookup(identityMapInput, now);
+        if (lookup.misses.size() == 0) {
+            return lookup.result;
+        }
+        return lookup.complete(identityMapClient.generateIdentityMap(lookup.misses));
+    }
+
+    //splits an input into identities answered from the store and an input holding the rest, then merges in and stores the operator's results for the rest
+    private class Lookup {
+        Lookup(IdentityMapV3Input identityMapInput, Instant now) {
+            for (IdentityType identityType : IdentityType.values()) {
+                for (String hashedDii : identityMapInput.getHashedDiis(identityType)) {
+                    List<String> rawDiis = identityMapInput.getRawDiis(identityType, hashedDii);
+                    IdentityMapV3Response.MappedIdentity cached = store.get(identityType, hashedDii);
+                    if (cached != null && cached.getRefreshFrom() != null && cached.getRefreshFrom().isAfter(now)) {
+                        result.addCacheHit(rawDiis, cached);
+                    } else {
+                        misses.withHashedDii(identityType, hashedDii, rawDiis);
+                    }
+                }
+            }
+            result.setCacheMissCount(misses.size());
+        }
+
+        CachedIdentityMapV3Response complete(IdentityMapV3Response response) {
+            for (IdentityType identityType : IdentityType.values()) {
+                for (String hashedDii : misses.getHashedDiis(identityType)) {
+                    String rawDii = misses.getRawDiis(identityType, hashedDii).get(0);
+                    IdentityMapV3Response.MappedIdentity mappedIdentity = response.getMappedIdentity(rawDii);
+                    if (mappedIdentity != null) {
+                        store.put(identityType, hashedDii, mappedIdentity);
+                    } else if (response.getUnmappedIdentity(rawDii) != null) {
+                        store.remove(identityType, hashedDii);
+                    }
+                }
+            }
+            result.addAll(response);
+            return result;
+        }
+
+        final IdentityMapV3Input misses = new IdentityMapV3Input();
+        final CachedIdentityMapV3Response result = new CachedIdentityMapV3Response();
+    }
+
+    private final IdentityMapV3Client identityMapClient;
+    private final IdentityMapV3Store store;
+}
@@ -0,0 +1,208 @@
+package com.uid2.client;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generates tokens like {@link PublisherUid2Client#generateTokenResponse}, but keeps the identity generated for each user and returns it again
+ * while it is still {@link IdentityTokens#isRefreshable refreshable}, so that a user starting several sessions causes one /token/generate call.
+ * Once the kept identity is {@link IdentityTokens#isDueForRefresh due for refresh} it is refreshed with /token/refresh rather than regenerated.
+ * <p>
+ * Identities are keyed by the hash of the normalized email or phone number; raw DIIs are never kept. Identities are dropped once their refresh
+ * token expires or the user opts out, and the least recently used identities are dropped once there are more than {@link #withMaxSize}.
+ * Concurrent calls for the same user share one request.
+ */
+public class CachingPublisherUid2Client {
+    /**
+     * @param publisherClient the client used to generate and refresh tokens which are not answered from the cache
+     */
+    public CachingPublisherUid2Client(PublisherUid2Client publisherClient) {
+        this.publisherClient = publisherClient;
+    }
+
+    /**
+     * @param maxSize the maximum number of identities kept. Defaults to 100,000.
+     * @return this CachingPublisherUid2Client instance
+     */
+    public CachingPublisherUid2Client withMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        synchronized (entries) {
+            this.maxSize = maxSize;
+        }
+        return this;
+    }
+
+    /**
+     * @param tokenGenerateInput represents the input required for <a href="https://unifiedid.com/docs/endpoints/post-token-generate#unencrypted-json-body-parameters">/token/generate</a>
+     * @return a TokenGenerateResponse instance, which will contain an IdentityTokens instance, if successful. The identity may have been generated for an earlier call.
+     * @throws Uid2Exception in the same cases where {@link PublisherUid2Client#generateTokenResponse} throws. No request is made if the identity is answered from the cache.
+     * @throws IllegalArgumentException if the email address is invalid or the phone number is not normalized
+     */
+    public TokenGenerateResponse generateTokenResponse(TokenGenerateInput tokenGenerateInput) {
+        try {
+            return generateTokenResponseAsync(tokenGenerateInput).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #generateTokenResponse}.
+     * @param tokenGenerateInput represents the input required for <a href="https://unifiedid.com/docs/endpoints/post-token-generate#unencrypted-json-body-parameters">/token/generate</a>
+     * @return a CompletableFuture which completes with a TokenGenerateResponse instance, or completes exceptionally with a Uid2Exception in the same cases where {@link #generateTokenResponse} throws
+     * @throws IllegalArgumentException if the email address is invalid or the phone number is not normalized
+     */
+    public CompletableFuture<TokenGenerateResponse> generateTokenResponseAsync(TokenGenerateInput tokenGenerateInput) {
+        return generateTokenResponseAsync(tokenGenerateInput, Instant.now());
+    }
+
+    /**
+     * Drops the identity kept for a user, for example when the user logs out or withdraws consent.
+     * @param tokenGenerateInput the input the identity was generated with
+     */
+    public void invalidate(TokenGenerateInput tokenGenerateInput) {
+        String key = getKey(tokenGenerateInput);
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * @return the number of identities kept
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    CompletableFuture<TokenGenerateResponse> generateTokenResponseAsync(TokenGenerateInput tokenGenerateInput, Instant now) {
+        String key = getKey(tokenGenerateInput);
+        String tcString = tokenGenerateInput.getTransparencyAndConsentString();
+        IdentityTokens cached = get(key, tcString, now);
+        if (cached != null && !cached.isDueForRefreshImpl(now)) {
+            return CompletableFuture.completedFuture(new TokenGenerateResponse("success", cached));
+        }
+
+        //only callers with the same consent string share a request, so that nobody gets an identity generated under another caller's consent
+        String flightKey = tcString == null ? key : key + "\t" + tcString;
+        CompletableFuture<TokenGenerateResponse> flight = new CompletableFuture<>();
+        CompletableFuture<TokenGenerateResponse> existing = flights.putIfAbsent(flightKey, flight);
+        if (existing != null) {
+            return existing.thenApply(response -> response); //a copy, so that one caller cancelling does not affect the others
+        }
+        CompletableFuture<TokenGenerateResponse> request = cached == null
+                ? publisherClient.generateTokenResponseAsync(tokenGenerateInput)
+                : refreshOrGenerate(cached, tokenGenerateInput);
+        request.whenComplete((response, ex) -> {
+            if (ex == null) {
+                if (response.isSuccess()) {
+                    put(key, tcString, response.getIdentity(), Instant.now());
+                } else if (response.isOptout()) {
+                    remove(key);
+                }
+            }
+            flights.remove(flightKey, flight);
+            if (ex != null) {
+                flight.completeExceptionally(ex);
+            } else {
+                flight.complete(response);
+            }
+        });
+        return flight.thenApply(response -> response);
+    }
+
+    //a failed refresh, for example because the refresh token was already used elsewhere, falls back to generating a new identity
+    private CompletableFuture<TokenGenerateResponse> refreshOrGenerate(IdentityTokens cached, TokenGenerateInput tokenGenerateInput) {
+        return publisherClient.refreshTokenAsync(cached).handle((response, ex) -> ex == null
+                        ? CompletableFuture.completedFuture(new TokenGenerateResponse(response.isOptout() ? "optout" : "success", response.getIdentity()))
+                        : publisherClient.generateTokenResponseAsync(tokenGenerateInput))
+                .thenCompose(response -> response);
+    }
+
+    private static String getKey(TokenGenerateInput tokenGenerateInput) {
+        return tokenGenerateInput.getIdentityType() + ":" + tokenGenerateInput.getHashedDii();
+    }
+
+    //returns null, dropping the entry, if the kept identity can no longer be refreshed. An identity generated with a different consent string is not returned.
+    private IdentityTokens get(String key, String tcString, Instant now) {
+        CachedIdentity entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.refreshExpiresMillis <= now.toEpochMilli()) {
+                entries.remove(key);
+                return null;
+            }
+        }
+        if (!Objects.equals(entry.tcString, tcString)) {
+            return null;
+        }
+        IdentityTokens identity = IdentityTokens.fromBytes(entry.identity);
+        return identity.isRefreshableImpl(now) ? identity : null;
+    }
+
+    private void put(String key, String tcString, IdentityTokens identity, Instant now) {
+        CachedIdentity entry = new CachedIdentity(identity.toBytes(), tcString, identity.getRefreshExpires().toEpochMilli());
+        synchronized (entries) {
+            entries.put(key, entry);
+            if (now.toEpochMilli() >= nextSweepMillis) {
+                removeExpired(now.toEpochMilli());
+                nextSweepMillis = now.toEpochMilli() + SWEEP_INTERVAL_MILLIS;
+            }
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    private void removeExpired(long nowMillis) {
+        Iterator<CachedIdentity> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().refreshExpiresMillis <= nowMillis) {
+                iterator.remove();
+            }
+        }
+    }
+
+    //identities are kept in their binary encoding, which is a fraction of the size of the JSON and is read without decoding the tokens
+    private static class CachedIdentity {
+        CachedIdentity(byte[] identity, String tcString, long refreshExpiresMillis) {
+            this.identity = identity;
+            this.tcString = tcString;
+            this.refreshExpiresMillis = refreshExpiresMillis;
+        }
+
+        final byte[] identity;
+        final String tcString;
+        final long refreshExpiresMillis;
+    }
+
+    private static final long SWEEP_INTERVAL_MILLIS = 60 * 1000;
+    private final PublisherUid2Client publisherClient;
+    private final ConcurrentHashMap<String, CompletableFuture<TokenGenerateResponse>> flights = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, CachedIdentity> entries = new LinkedHashMap<String, CachedIdentity>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedIdentity> eldest) {
+            return size() > maxSize;
+        }
+    };
+    private int maxSize = 100_000;
+    private long nextSweepMillis;
+}
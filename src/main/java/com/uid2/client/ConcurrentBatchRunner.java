@@ -0,0 +1,100 @@
+package com.uid2.client;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+//sends batches through an asynchronous function with at most maxConcurrent in flight, without blocking any thread while waiting for a free slot.
+//Results are passed to the listener one at a time, in completion order. The first failure cancels the batches still in flight.
+class ConcurrentBatchRunner<I, R> {
+    static <I, R> CompletableFuture<Void> run(Iterator<I> batches, int maxConcurrent, Function<I, CompletableFuture<R>> function, BiConsumer<I, R> listener) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be at least 1");
+        }
+        ConcurrentBatchRunner<I, R> runner = new ConcurrentBatchRunner<>(batches, maxConcurrent, function, listener);
+        runner.launch();
+        return runner.result;
+    }
+
+    private ConcurrentBatchRunner(Iterator<I> batches, int maxConcurrent, Function<I, CompletableFuture<R>> function, BiConsumer<I, R> listener) {
+        this.batches = batches;
+        this.maxConcurrent = maxConcurrent;
+        this.function = function;
+        this.listener = listener;
+        result.whenComplete((value, ex) -> {
+            if (result.isCancelled()) {
+                cancelRunning();
+            }
+        });
+    }
+
+    private void launch() {
+        synchronized (this) {
+            if (launching) {
+                return; //a batch completed synchronously while being started; the loop below picks up the free slot
+            }
+            launching = true;
+            try {
+                while (!result.isDone() && inFlight < maxConcurrent && batches.hasNext()) {
+                    I batch = batches.next();
+                    inFlight++;
+                    CompletableFuture<R> future = function.apply(batch);
+                    running.add(future);
+                    future.whenComplete((value, ex) -> onComplete(batch, future, value, ex));
+                }
+                if (inFlight == 0 && !batches.hasNext()) {
+                    result.complete(null);
+                }
+            } catch (RuntimeException e) {
+                fail(e);
+            } finally {
+                launching = false;
+            }
+        }
+    }
+
+    private void onComplete(I batch, CompletableFuture<R> future, R value, Throwable ex) {
+        synchronized (this) {
+            inFlight--;
+            running.remove(future);
+            if (result.isDone()) {
+                return;
+            }
+            if (ex != null) {
+                fail(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                return;
+            }
+            try {
+                listener.accept(batch, value);
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+        }
+        launch();
+    }
+
+    private void fail(Throwable ex) {
+        result.completeExceptionally(ex);
+        cancelRunning();
+    }
+
+    private synchronized void cancelRunning() {
+        for (CompletableFuture<R> future : new HashSet<>(running)) {
+            future.cancel(true);
+        }
+    }
+
+    private final Iterator<I> batches;
+    private final int maxConcurrent;
+    private final Function<I, CompletableFuture<R>> function;
+    private final BiConsumer<I, R> listener;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final Set<CompletableFuture<R>> running = new HashSet<>();
+    private int inFlight;
+    private boolean launching;
+}
@@ -0,0 +1,294 @@
+package com.uid2.client;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Normalizes and hashes a file of emails or phone numbers, one per line, so that later stages of a pipeline never see the raw DIIs.
+ * The file is memory-mapped rather than read into the heap, and split at line boundaries across worker threads; hashes are written in input order.
+ * Rows which are not a valid email address or normalized phone number are left out of the output and written to a reject file as
+ * {@code <line number>\t<reason>\t<row>}. Blank lines are skipped.
+ */
+public class DiiFileHasher {
+    /**
+     * @return a DiiFileHasher for files of normalized or unnormalized email addresses
+     */
+    public static DiiFileHasher forEmails() {
+        return new DiiFileHasher(true);
+    }
+
+    /**
+     * @return a DiiFileHasher for files of <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> phone numbers
+     */
+    public static DiiFileHasher forPhones() {
+        return new DiiFileHasher(false);
+    }
+
+    /**
+     * @param format whether hashes are written as Base64 lines or packed 32 byte values. Defaults to {@link HashedDiiFormat#BASE64}.
+     * @return this DiiFileHasher instance
+     */
+    public DiiFileHasher withOutputFormat(HashedDiiFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * @param threads the number of worker threads. Defaults to the number of available processors.
+     * @return this DiiFileHasher instance
+     */
+    public DiiFileHasher withThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    DiiFileHasher withChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @param input   a UTF-8 file with one DII per line; lines may end with \n or \r\n
+     * @param output  the file to write the hashes to. It is replaced if it exists.
+     * @param rejects the file to write invalid rows to. It is replaced if it exists.
+     * @return the number of lines read, hashed and rejected
+     * @throws Uid2Exception if a file could not be read or written
+     */
+    public Result hash(Path input, Path output, Path rejects) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "uid2-dii-file-hasher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel inputChannel = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel outputChannel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             BufferedWriter rejectWriter = Files.newBufferedWriter(rejects, StandardCharsets.UTF_8)) {
+            final long size = inputChannel.size();
+            Result result = new Result();
+            //workers may run ahead of the writer by a few chunks, which bounds the memory held in unwritten output
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            long nextChunkStart = 0;
+            while (nextChunkStart < size || !pending.isEmpty()) {
+                while (nextChunkStart < size && pending.size() < threads * 2) {
+                    final long start = nextChunkStart;
+                    final long end = Math.min(size, start + chunkSize);
+                    pending.add(executor.submit(() -> hashChunk(inputChannel, size, start, end)));
+                    nextChunkStart = end;
+                }
+                write(getChunk(pending.remove()), outputChannel, rejectWriter, result);
+            }
+            return result;
+        } catch (IOException e) {
+            throw new Uid2Exception("Unable to hash " + input, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Chunk getChunk(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Uid2Exception("Interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new Uid2Exception("Unable to hash", e);
+        }
+    }
+
+    private static void write(Chunk chunk, FileChannel outputChannel, BufferedWriter rejectWriter, Result result) throws IOException {
+        ByteBuffer output = ByteBuffer.wrap(chunk.output, 0, chunk.outputLength);
+        while (output.hasRemaining()) {
+            outputChannel.write(output);
+        }
+        for (Reject reject : chunk.rejects) {
+            rejectWriter.write(Long.toString(result.lineCount + reject.lineInChunk + 1));
+            rejectWriter.write('\t');
+            rejectWriter.write(reject.reason);
+            rejectWriter.write('\t');
+            rejectWriter.write(reject.row);
+            rejectWriter.newLine();
+        }
+        result.lineCount += chunk.lineCount;
+        result.hashedCount += chunk.hashedCount;
+        result.rejectedCount += chunk.rejects.size();
+    }
+
+    //hashes the lines which start in [start, end). The line running into start belongs to the previous chunk, and the last line may run past end.
+    private Chunk hashChunk(FileChannel channel, long size, long start, long end) throws IOException {
+        final long mapStart = start == 0 ? 0 : start - 1;
+        final long mapEnd = Math.min(size, end + MAX_LINE_LENGTH);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+        final int mapLength = buffer.limit();
+        final int lineStartLimit = (int) (end - mapStart);
+
+        int pos = 0;
+        if (start != 0) {
+            //buffer starts at the byte before start, so a line beginning exactly at start is preceded by the '\n' found here
+            while (pos < mapLength && buffer.get(pos) != '\n') {
+                ++pos;
+            }
+            ++pos;
+        }
+
+        Chunk chunk = new Chunk(format == HashedDiiFormat.BINARY ? HASH_LENGTH : BASE64_LINE_LENGTH);
+        byte[] line = new byte[256];
+        byte[] digest = new byte[HASH_LENGTH];
+        while (pos < lineStartLimit) {
+            int lineEnd = pos;
+            while (lineEnd < mapLength && buffer.get(lineEnd) != '\n') {
+                ++lineEnd;
+            }
+            final int lineInChunk = chunk.lineCount++;
+            if (lineEnd - pos > MAX_LINE_LENGTH) {
+                chunk.rejects.add(new Reject(lineInChunk, "line is longer than " + MAX_LINE_LENGTH + " bytes", ""));
+                if (lineEnd == mapLength && mapEnd < size) {
+                    break; //the line runs past the mapping, so the next line starts beyond end and belongs to a later chunk
+                }
+                pos = lineEnd + 1;
+                continue;
+            }
+
+            int length = lineEnd - pos;
+            if (length > 0 && buffer.get(lineEnd - 1) == '\r') {
+                --length;
+            }
+            if (length > 0) {
+                if (line.length < length) {
+                    line = new byte[Math.max(length, line.length * 2)];
+                }
+                for (int i = 0; i < length; ++i) {
+                    line[i] = buffer.get(pos + i);
+                }
+                hashRow(new String(line, 0, length, StandardCharsets.UTF_8), lineInChunk, digest, chunk);
+            }
+            pos = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    private void hashRow(String row, int lineInChunk, byte[] digest, Chunk chunk) {
+        if (isEmail) {
+            if (!InputUtil.normalizeAndHashEmail(row, digest, 0)) {
+                chunk.rejects.add(new Reject(lineInChunk, "invalid email address", row));
+                return;
+            }
+        } else {
+            if (!InputUtil.isPhoneNumberNormalized(row)) {
+                chunk.rejects.add(new Reject(lineInChunk, "phone number is not normalized", row));
+                return;
+            }
+            InputUtil.getSha256(row, digest, 0);
+        }
+
+        byte[] output = chunk.reserve();
+        if (format == HashedDiiFormat.BINARY) {
+            System.arraycopy(digest, 0, output, chunk.outputLength, HASH_LENGTH);
+            chunk.outputLength += HASH_LENGTH;
+        } else {
+            chunk.outputLength = InputUtil.writeBase64(digest, 0, HASH_LENGTH, output, chunk.outputLength);
+            output[chunk.outputLength++] = '\n';
+        }
+        ++chunk.hashedCount;
+    }
+
+    /**
+     * The counts from {@link #hash}.
+     */
+    public static class Result {
+        /**
+         * @return the number of lines in the input, including blank and rejected lines
+         */
+        public long getLineCount() {
+            return lineCount;
+        }
+
+        /**
+         * @return the number of hashes written to the output
+         */
+        public long getHashedCount() {
+            return hashedCount;
+        }
+
+        /**
+         * @return the number of rows written to the reject file
+         */
+        public long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        private long lineCount;
+        private long hashedCount;
+        private long rejectedCount;
+    }
+
+    //the output of one worker, held until every earlier chunk has been written
+    private static class Chunk {
+        Chunk(int rowLength) {
+            this.rowLength = rowLength;
+        }
+
+        //makes room for one more output row
+        byte[] reserve() {
+            if (output.length - outputLength < rowLength) {
+                output = Arrays.copyOf(output, Math.max(output.length * 2, 64 * 1024));
+            }
+            return output;
+        }
+
+        private final int rowLength;
+        byte[] output = new byte[0];
+        int outputLength;
+        int lineCount;
+        int hashedCount;
+        final List<Reject> rejects = new ArrayList<>();
+    }
+
+    private static class Reject {
+        Reject(int lineInChunk, String reason, String row) {
+            this.lineInChunk = lineInChunk;
+            this.reason = reason;
+            this.row = row;
+        }
+
+        final int lineInChunk;
+        final String reason;
+        final String row;
+    }
+
+    private DiiFileHasher(boolean isEmail) {
+        this.isEmail = isEmail;
+    }
+
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int HASH_LENGTH = 32;
+    private static final int BASE64_LINE_LENGTH = 45;
+    private final boolean isEmail;
+    private HashedDiiFormat format = HashedDiiFormat.BASE64;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = 8 * 1024 * 1024;
+}
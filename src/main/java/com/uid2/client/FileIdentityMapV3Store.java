@@ -0,0 +1,142 @@
+package com.uid2.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * An {@link IdentityMapV3Store} which keeps mapped identities in memory and records every change in a file, so they survive restarts.
+ * Changes are appended to the file; call {@link #compact} from time to time to rewrite it with only the current entries.
+ * Changes are buffered, and are guaranteed to be in the file only after {@link #flush} or {@link #close}. Entries lost in a crash are simply mapped again.
+ */
+public class FileIdentityMapV3Store extends InMemoryIdentityMapV3Store implements Closeable {
+    /**
+     * @param file the file to load mapped identities from, if it exists, and to record changes in
+     * @throws Uid2Exception if the file could not be read or opened for writing
+     */
+    public FileIdentityMapV3Store(Path file) {
+        this.file = file;
+        try {
+            if (Files.exists(file)) {
+                load();
+            }
+            writer = openWriter(StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new Uid2Exception("Unable to open identity map store " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void put(IdentityType identityType, String hashedDii, IdentityMapV3Response.MappedIdentity mappedIdentity) {
+        super.put(identityType, hashedDii, mappedIdentity);
+        write(identityType, hashedDii, mappedIdentity);
+    }
+
+    @Override
+    public synchronized void remove(IdentityType identityType, String hashedDii) {
+        super.remove(identityType, hashedDii);
+        write(identityType, hashedDii, null);
+    }
+
+    /**
+     * Writes any buffered changes to the file.
+     * @throws Uid2Exception if the file could not be written
+     */
+    public synchronized void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new Uid2Exception("Unable to write identity map store " + file, e);
+        }
+    }
+
+    /**
+     * Rewrites the file so that it holds one line per stored identity, dropping replaced and removed entries.
+     * @throws Uid2Exception if the file could not be written
+     */
+    public synchronized void compact() {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (Writer compacted = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (IdentityType identityType : IdentityType.values()) {
+                    for (Map.Entry<String, IdentityMapV3Response.MappedIdentity> entry : getEntries(identityType)) {
+                        compacted.write(toLine(identityType, entry.getKey(), entry.getValue()));
+                    }
+                }
+            }
+            try {
+                writer.close();
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                writer = openWriter(StandardOpenOption.CREATE, StandardOpenOption.APPEND); //if the move failed, changes keep being appended to the old file
+            }
+        } catch (IOException e) {
+            throw new Uid2Exception("Unable to compact identity map store " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new Uid2Exception("Unable to write identity map store " + file, e);
+        }
+    }
+
+    //each line is "<identity type>\t<hashed DII>" for a removal, or additionally "\t<current raw UID>\t<previous raw UID>\t<refresh from epoch second>" for a put
+    private void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                try {
+                    IdentityType identityType = IdentityType.fromValue(Integer.parseInt(fields[0]));
+                    if (fields.length == 2) {
+                        super.remove(identityType, fields[1]);
+                    } else if (fields.length == 5) {
+                        super.put(identityType, fields[1], new IdentityMapV3Response.MappedIdentity(fields[2], emptyToNull(fields[3]),
+                                fields[4].isEmpty() ? null : Instant.ofEpochSecond(Long.parseLong(fields[4]))));
+                    }
+                } catch (IllegalArgumentException e) {
+                    //a line only partially written before a crash; the identity will be mapped again
+                }
+            }
+        }
+    }
+
+    private void write(IdentityType identityType, String hashedDii, IdentityMapV3Response.MappedIdentity mappedIdentity) {
+        try {
+            writer.write(mappedIdentity == null ? identityType.value + "\t" + hashedDii + "\n" : toLine(identityType, hashedDii, mappedIdentity));
+        } catch (IOException e) {
+            throw new Uid2Exception("Unable to write identity map store " + file, e);
+        }
+    }
+
+    private BufferedWriter openWriter(StandardOpenOption... options) throws IOException {
+        return Files.newBufferedWriter(file, StandardCharsets.UTF_8, options);
+    }
+
+    private static String toLine(IdentityType identityType, String hashedDii, IdentityMapV3Response.MappedIdentity mappedIdentity) {
+        String previousRawUid = mappedIdentity.getPreviousRawUid();
+        Instant refreshFrom = mappedIdentity.getRefreshFrom();
+        return identityType.value + "\t" + hashedDii + "\t" + mappedIdentity.getCurrentRawUid() + "\t" + (previousRawUid == null ? "" : previousRawUid)
+                + "\t" + (refreshFrom == null ? "" : refreshFrom.getEpochSecond()) + "\n";
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private final Path file;
+    private BufferedWriter writer;
+}
@@ -0,0 +1,11 @@
+package com.uid2.client;
+
+/**
+ * The output format of {@link DiiFileHasher}.
+ */
+public enum HashedDiiFormat {
+    /** One Base64 encoded hash per line, as accepted by {@link IdentityMapV3Input#fromHashedEmails(java.util.List)} and {@link IdentityMapV3Input#fromHashedPhones(java.util.List)}. */
+    BASE64,
+    /** 32 byte hashes back to back with no separator, as accepted by {@link IdentityMapV3Input#fromHashedEmails(byte[], int)} and {@link IdentityMapV3Input#fromHashedPhones(byte[], int)}. */
+    BINARY
+}
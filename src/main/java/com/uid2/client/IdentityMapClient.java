@@ -1,14 +1,26 @@
 package com.uid2.client;
 
+import java.util.concurrent.CompletableFuture;
+
 public class IdentityMapClient {
     /**
-     * @param uid2BaseUrl       The <a href="https://unifiedid.com/docs/getting-started/gs-environments">UID2 Base URL</a>
+     * @param uid2BaseUrl       The <a href="https://unifiedid.com/docs/getting-started/gs-environments">UID2 Base URL</a>, or several separated by commas to fail over between operators
      * @param clientApiKey      Your client API key
      * @param base64SecretKey   Your client secret key
      */
     public IdentityMapClient(String uid2BaseUrl, String clientApiKey, String base64SecretKey) {
+        this(uid2BaseUrl, clientApiKey, base64SecretKey, Uid2TransportConfig.defaultConfig());
+    }
+
+    /**
+     * @param uid2BaseUrl       The <a href="https://unifiedid.com/docs/getting-started/gs-environments">UID2 Base URL</a>, or several separated by commas to fail over between operators
+     * @param clientApiKey      Your client API key
+     * @param base64SecretKey   Your client secret key
+     * @param transportConfig   HTTP transport settings. Clients constructed with the same instance share a connection pool.
+     */
+    public IdentityMapClient(String uid2BaseUrl, String clientApiKey, String base64SecretKey, Uid2TransportConfig transportConfig) {
         identityMapHelper = new IdentityMapHelper(base64SecretKey);
-        uid2ClientHelper = new Uid2ClientHelper(uid2BaseUrl, clientApiKey);
+        uid2ClientHelper = new Uid2ClientHelper(uid2BaseUrl, clientApiKey, transportConfig);
     }
 
     /**
@@ -17,10 +29,29 @@ public class IdentityMapClient {
      * @throws Uid2Exception    if the response did not contain a "success" status, or the response code was not 200, or there was an error communicating with the provided UID2 Base URL
      */
     public IdentityMapResponse generateIdentityMap(IdentityMapInput identityMapInput) {
-        EnvelopeV2 envelope = identityMapHelper.createEnvelopeForIdentityMapRequest(identityMapInput);
+        return uid2ClientHelper.executeHedgeable("/v2/identity/map", () -> {
+            EnvelopeV2 envelope = identityMapHelper.createEnvelopeForIdentityMapRequest(identityMapInput);
+
+            return uid2ClientHelper.makeRequest("/v2/identity/map", envelope, responseReader(envelope, identityMapInput));
+        }, () -> generateIdentityMapAttemptAsync(identityMapInput));
+    }
+
+    /**
+     * Asynchronous version of {@link #generateIdentityMap}. Envelope encryption and response decryption run on the executor configured in {@link Uid2TransportConfig#withExecutor}.
+     * @param identityMapInput  represents the input required for <a href="https://unifiedid.com/docs/endpoints/post-identity-map">/identity/map</a>
+     * @return                  a CompletableFuture which completes with an IdentityMapResponse instance, or completes exceptionally with a Uid2Exception in the same cases where {@link #generateIdentityMap} throws
+     */
+    public CompletableFuture<IdentityMapResponse> generateIdentityMapAsync(IdentityMapInput identityMapInput) {
+        return uid2ClientHelper.executeAsync("/v2/identity/map", true, () -> generateIdentityMapAttemptAsync(identityMapInput));
+    }
+
+    private CompletableFuture<IdentityMapResponse> generateIdentityMapAttemptAsync(IdentityMapInput identityMapInput) {
+        return uid2ClientHelper.makeRequestAsync(() -> identityMapHelper.createEnvelopeForIdentityMapRequest(identityMapInput),
+                envelope -> uid2ClientHelper.makeRequestAsync("/v2/identity/map", envelope, responseReader(envelope, identityMapInput)));
+    }
 
-        String responseString = uid2ClientHelper.makeRequest("/v2/identity/map", envelope).getAsString();
-        return identityMapHelper.createIdentityMapResponse(responseString, envelope, identityMapInput);
+    private Uid2ClientHelper.ResponseReader<IdentityMapResponse> responseReader(EnvelopeV2 envelope, IdentityMapInput identityMapInput) {
+        return (body, isBinary) -> identityMapHelper.createIdentityMapResponse(body.byteStream(), body.contentLength(), isBinary, envelope, identityMapInput);
     }
 
     private final IdentityMapHelper identityMapHelper;
@@ -1,7 +1,8 @@
 package com.uid2.client;
 
-import com.google.gson.Gson;
-
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 
 public class IdentityMapHelper {
@@ -15,8 +16,7 @@ public class IdentityMapHelper {
      * @return an EnvelopeV2 instance to use in the POST body of <a href="https://unifiedid.com/docs/endpoints/post-identity-map">/identity/map</a>
      */
     public EnvelopeV2 createEnvelopeForIdentityMapRequest(IdentityMapInput identityMapInput) {
-        byte[] jsonBytes = new Gson().toJson(identityMapInput).getBytes(StandardCharsets.UTF_8);
-        return uid2Helper.createEnvelopeV2(jsonBytes);
+        return uid2Helper.createEnvelopeV2(identityMapInput.createPayloadWriter());
     }
 
 
@@ -31,5 +31,10 @@ public class IdentityMapHelper {
         return new IdentityMapResponse(decryptedResponseString, identityMapInput);
     }
 
+    IdentityMapResponse createIdentityMapResponse(InputStream responseBody, long contentLength, boolean isBinary, EnvelopeV2 envelope, IdentityMapInput identityMapInput) throws IOException {
+        InputStream decryptedResponse = uid2Helper.decryptResponse(responseBody, contentLength, isBinary, envelope.getNonce());
+        return new IdentityMapResponse(new InputStreamReader(decryptedResponse, StandardCharsets.UTF_8), identityMapInput);
+    }
+
     Uid2Helper uid2Helper;
 }
@@ -4,7 +4,9 @@ import com.google.gson.annotations.SerializedName;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class IdentityMapInput {
     /**
@@ -23,6 +25,26 @@ public class IdentityMapInput {
         return new IdentityMapInput(IdentityType.Phone, phones, false);
     }
 
+    /**
+     * Like {@link #fromEmails(Iterable)}, but normalizes and hashes the emails in parallel on pool. Useful for inputs with many thousands of emails.
+     * @param emails a list of normalized or unnormalized email addresses
+     * @param pool   the pool to normalize and hash on, for example {@link ForkJoinPool#commonPool()}
+     * @return an IdentityMapInput instance, holding the emails in the same order as the list
+     */
+    public static IdentityMapInput fromEmails(List<String> emails, ForkJoinPool pool) {
+        return new IdentityMapInput(IdentityType.Email, emails, pool);
+    }
+
+    /**
+     * Like {@link #fromPhones(Iterable)}, but hashes the phone numbers in parallel on pool. Useful for inputs with many thousands of phone numbers.
+     * @param phones a list of <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> phone numbers
+     * @param pool   the pool to hash on, for example {@link ForkJoinPool#commonPool()}
+     * @return an IdentityMapInput instance, holding the phone numbers in the same order as the list
+     */
+    public static IdentityMapInput fromPhones(List<String> phones, ForkJoinPool pool) {
+        return new IdentityMapInput(IdentityType.Phone, phones, pool);
+    }
+
     /**
      * @param hashedEmails a <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-hash-encoding">hashed</a> email address
      * @return an IdentityMapInput instance
@@ -69,11 +91,37 @@ public class IdentityMapInput {
         }
     }
 
+    private IdentityMapInput(IdentityType identityType, List<String> emailsOrPhones, ForkJoinPool pool) {
+        List<String> hashedDiis = new ArrayList<>(InputUtil.normalizeAndHashAll(emailsOrPhones, identityType == IdentityType.Email, pool));
+        Iterator<String> rawDiis = emailsOrPhones.iterator();
+        for (String hashedDii : hashedDiis) {
+            addHashedToRawDiiMapping(hashedDii, rawDiis.next());
+        }
+        if (identityType == IdentityType.Email) {
+            hashedNormalizedEmails = hashedDiis;
+        } else {
+            hashedNormalizedPhones = hashedDiis;
+        }
+    }
+
     private void addHashedToRawDiiMapping(String hashedDii, String rawDii) {
         hashedDiiToRawDiis.computeIfAbsent(hashedDii, k -> new ArrayList<>()).add(rawDii);
     }
 
 
+    //JSON equivalent to what Gson would produce from the serialized fields, written without reflection or intermediate copies. It is not byte for
+    //byte the same: Gson writes characters such as '=' and '<' as unicode escapes to make the JSON HTML-safe, and this writes them as they are
+    Uid2Helper.PayloadWriter createPayloadWriter() {
+        JsonArraysPayloadWriter writer = new JsonArraysPayloadWriter();
+        if (hashedNormalizedEmails != null) {
+            writer.withArray("email_hash", hashedNormalizedEmails);
+        }
+        if (hashedNormalizedPhones != null) {
+            writer.withArray("phone_hash", hashedNormalizedPhones);
+        }
+        return writer;
+    }
+
     List<String> getRawDiis(String identifier) {
         final boolean wasInputAlreadyHashed = hashedDiiToRawDiis.isEmpty();
         if (wasInputAlreadyHashed)
@@ -1,64 +1,35 @@
 package com.uid2.client;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.google.gson.annotations.SerializedName;
 
-import java.util.Collections;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.HashMap;
-import java.util.List;
 
 public class IdentityMapResponse {
     IdentityMapResponse(String response, IdentityMapInput identityMapInput) {
-        JsonObject responseJson = new Gson().fromJson(response, JsonObject.class);
-        status = responseJson.get("status").getAsString();
-
-        if (!isSuccess()) {
-            throw new Uid2Exception("Got unexpected identity map status: " + status);
-        }
-
-        Gson gson = new Gson();
-        JsonObject body = getBodyAsJson(responseJson);
-
-        Iterable<JsonElement> mapped = getJsonArray(body, "mapped");
-        for (JsonElement identity : mapped) {
-            List<String> rawDiis = getRawDiis(identity, identityMapInput);
-            MappedIdentity mappedIdentity = gson.fromJson(identity, MappedIdentity.class);
-            for (String rawDii : rawDiis) {
-                mappedIdentities.put(rawDii, mappedIdentity);
-            }
-        }
+        this(new StringReader(response), identityMapInput);
+    }
 
-        Iterable<JsonElement> unmapped = getJsonArray(body, "unmapped");
-        for (JsonElement identity : unmapped) {
-            List<String> rawDiis = getRawDiis(identity, identityMapInput);
-            UnmappedIdentity unmappedIdentity = gson.fromJson(identity, UnmappedIdentity.class);
-            for (String rawDii : rawDiis) {
-                unmappedIdentities.put(rawDii, unmappedIdentity);
+    IdentityMapResponse(Reader response, IdentityMapInput identityMapInput) {
+        status = JsonCodecs.readIdentityMapResponse(response, (identifier, mappedIdentity, unmappedIdentity) -> {
+            for (String rawDii : identityMapInput.getRawDiis(identifier)) {
+                if (mappedIdentity != null) {
+                    mappedIdentities.put(rawDii, mappedIdentity);
+                } else {
+                    unmappedIdentities.put(rawDii, unmappedIdentity);
+                }
             }
-        }
-    }
+        });
 
-    private static Iterable<JsonElement> getJsonArray(JsonObject body, String header) {
-        JsonElement jsonElement = body.get(header);
-        if (jsonElement == null) {
-            return Collections.emptyList();
+        if (!isSuccess()) {
+            throw new Uid2Exception("Got unexpected identity map status: " + status);
         }
-        return jsonElement.getAsJsonArray();
-    }
-
-    private List<String> getRawDiis(JsonElement identity, IdentityMapInput identityMapInput) {
-        String identifier = identity.getAsJsonObject().get("identifier").getAsString();
-        return identityMapInput.getRawDiis(identifier);
     }
 
     public boolean isSuccess() {
         return "success".equals(status);
     }
-    static JsonObject getBodyAsJson(JsonObject jsonResponse) {
-        return jsonResponse.get("body").getAsJsonObject();
-    }
 
     static public class MappedIdentity {
         public MappedIdentity(String rawUid, String bucketId) {
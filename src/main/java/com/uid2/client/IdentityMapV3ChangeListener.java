@@ -0,0 +1,30 @@
+package com.uid2.client;
+
+/**
+ * Receives the changes found by {@link IdentityMapV3RefreshScheduler} as it remaps identities. Calls come from the thread running the scheduler.
+ */
+public interface IdentityMapV3ChangeListener {
+    /**
+     * Called when a remapped identity has a different current raw UID than the one in the store, for example after a salt rotation.
+     * @param identityType whether hashedDii is a hashed email or a hashed phone number
+     * @param hashedDii    the normalized and hashed email or phone number
+     * @param previous     the mapped identity which was in the store
+     * @param current      the new mapped identity, which has replaced previous in the store
+     */
+    void onRotated(IdentityType identityType, String hashedDii, IdentityMapV3Response.MappedIdentity previous, IdentityMapV3Response.MappedIdentity current);
+
+    /**
+     * Called when the operator no longer maps an identity. The identity has been removed from the store and is no longer tracked.
+     * @param identityType     whether hashedDii is a hashed email or a hashed phone number
+     * @param hashedDii        the normalized and hashed email or phone number
+     * @param unmappedIdentity the reason, which is {@link UnmappedIdentityReason#OPTOUT} if the user opted out
+     */
+    void onUnmapped(IdentityType identityType, String hashedDii, IdentityMapV3Response.UnmappedIdentity unmappedIdentity);
+
+    /**
+     * Called when a batch could not be remapped, in which case its identities are retried on the next run. Also called when {@link #onRotated} or
+     * {@link #onUnmapped} threw; the change they were called for has still been applied to the store.
+     * @param e the error from {@link IdentityMapV3Client#generateIdentityMap(IdentityMapV3Input)}, or a Uid2Exception wrapping an exception thrown by the store or this listener
+     */
+    default void onError(Uid2Exception e) {}
+}
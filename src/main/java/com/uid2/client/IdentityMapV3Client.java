@@ -1,14 +1,34 @@
 package com.uid2.client;
 
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
 public class IdentityMapV3Client {
     /**
-     * @param uid2BaseUrl       The <a href="https://unifiedid.com/docs/getting-started/gs-environments">UID2 Base URL</a>
+     * The number of DIIs per request recommended for <a href="https://unifiedid.com/docs/endpoints/post-identity-map">/identity/map</a>
+     */
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+
+    /**
+     * @param uid2BaseUrl       The <a href="https://unifiedid.com/docs/getting-started/gs-environments">UID2 Base URL</a>, or several separated by commas to fail over between operators
      * @param clientApiKey      Your client API key
      * @param base64SecretKey   Your client secret key
      */
     public IdentityMapV3Client(String uid2BaseUrl, String clientApiKey, String base64SecretKey) {
+        this(uid2BaseUrl, clientApiKey, base64SecretKey, Uid2TransportConfig.defaultConfig());
+    }
+
+    /**
+     * @param uid2BaseUrl       The <a href="https://unifiedid.com/docs/getting-started/gs-environments">UID2 Base URL</a>, or several separated by commas to fail over between operators
+     * @param clientApiKey      Your client API key
+     * @param base64SecretKey   Your client secret key
+     * @param transportConfig   HTTP transport settings. Clients constructed with the same instance share a connection pool.
+     */
+    public IdentityMapV3Client(String uid2BaseUrl, String clientApiKey, String base64SecretKey, Uid2TransportConfig transportConfig) {
         identityMapHelper = new IdentityMapV3Helper(base64SecretKey);
-        uid2ClientHelper = new Uid2ClientHelper(uid2BaseUrl, clientApiKey);
+        uid2ClientHelper = new Uid2ClientHelper(uid2BaseUrl, clientApiKey, transportConfig);
     }
 
     /**
@@ -17,14 +37,199 @@ public class IdentityMapV3Client {
      * @throws Uid2Exception    if the response did not contain a "success" status, or the response code was not 200, or there was an error communicating with the provided UID2 Base URL
      */
     public IdentityMapV3Response generateIdentityMap(IdentityMapV3Input identityMapInput) {
-        EnvelopeV2 envelope = identityMapHelper.createEnvelopeForIdentityMapRequest(identityMapInput);
+        return uid2ClientHelper.executeHedgeable("/v3/identity/map", () -> {
+            EnvelopeV2 envelope = identityMapHelper.createEnvelopeForIdentityMapRequest(identityMapInput);
+
+            return uid2ClientHelper.makeBinaryRequest("/v3/identity/map", envelope, responseReader(envelope, identityMapInput));
+        }, () -> generateIdentityMapAttemptAsync(identityMapInput));
+    }
+
+    /**
+     * Asynchronous version of {@link #generateIdentityMap}. Envelope encryption and response decryption run on the executor configured in {@link Uid2TransportConfig#withExecutor}.
+     * @param identityMapInput  represents the input required for <a href="https://unifiedid.com/docs/endpoints/post-identity-map">/identity/map</a>
+     * @return                  a CompletableFuture which completes with an IdentityMapV3Response instance, or completes exceptionally with a Uid2Exception in the same cases where {@link #generateIdentityMap} throws
+     */
+    public CompletableFuture<IdentityMapV3Response> generateIdentityMapAsync(IdentityMapV3Input identityMapInput) {
+        return uid2ClientHelper.executeAsync("/v3/identity/map", true, () -> generateIdentityMapAttemptAsync(identityMapInput));
+    }
+
+    /**
+     * Like {@link #generateIdentityMap(IdentityMapV3Input)}, but returns results by position in the input instead of keyed by raw DII, which avoids a map entry per identity.
+     * @param identityMapInput  represents the input required for <a href="https://unifiedid.com/docs/endpoints/post-identity-map">/identity/map</a>
+     * @return                  an IdentityMapV3IndexedResponse instance
+     * @throws Uid2Exception    in the same cases where {@link #generateIdentityMap(IdentityMapV3Input)} throws
+     */
+    public IdentityMapV3IndexedResponse generateIdentityMapIndexed(IdentityMapV3Input identityMapInput) {
+        return uid2ClientHelper.executeHedgeable("/v3/identity/map", () -> {
+            EnvelopeV2 envelope = identityMapHelper.createEnvelopeForIdentityMapRequest(identityMapInput);
+
+            return uid2ClientHelper.makeBinaryRequest("/v3/identity/map", envelope, indexedResponseReader(envelope, identityMapInput));
+        }, () -> generateIdentityMapIndexedAttemptAsync(identityMapInput));
+    }
+
+    /**
+     * Asynchronous version of {@link #generateIdentityMapIndexed}.
+     * @param identityMapInput  represents the input required for <a href="https://unifiedid.com/docs/endpoints/post-identity-map">/identity/map</a>
+     * @return                  a CompletableFuture which completes with an IdentityMapV3IndexedResponse instance
+     */
+    public CompletableFuture<IdentityMapV3IndexedResponse> generateIdentityMapIndexedAsync(IdentityMapV3Input identityMapInput) {
+        return uid2ClientHelper.executeAsync("/v3/identity/map", true, () -> generateIdentityMapIndexedAttemptAsync(identityMapInput));
+    }
+
+    /**
+     * Maps an input of any size by splitting it into batches and sending up to maxConcurrentRequests of them at a time over the shared connection pool.
+     * The calling thread waits until every batch has been mapped.
+     * @param identityMapInput       the emails and phone numbers to map
+     * @param batchSize              the maximum number of DIIs sent in each request, for example {@link #DEFAULT_BATCH_SIZE}
+     * @param maxConcurrentRequests  the maximum number of requests in flight at once
+     * @return                       an IdentityMapV3Response instance holding the results of every batch
+     * @throws Uid2Exception         if any batch fails, in the same cases where {@link #generateIdentityMap} throws
+     */
+    public IdentityMapV3Response generateIdentityMapInBatches(IdentityMapV3Input identityMapInput, int batchSize, int maxConcurrentRequests) {
+        try {
+            return generateIdentityMapInBatchesAsync(identityMapInput, batchSize, maxConcurrentRequests).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #generateIdentityMapInBatches}.
+     * @return a CompletableFuture which completes with an IdentityMapV3Response instance holding the results of every batch
+     */
+    public CompletableFuture<IdentityMapV3Response> generateIdentityMapInBatchesAsync(IdentityMapV3Input identityMapInput, int batchSize, int maxConcurrentRequests) {
+        IdentityMapV3Response merged = new IdentityMapV3Response();
+        return generateIdentityMapInBatchesAsync(identityMapInput.split(batchSize), maxConcurrentRequests, (batch, response) -> merged.addAll(response))
+                .thenApply(ignored -> merged);
+    }
+
+    /**
+     * Maps each batch with up to maxConcurrentRequests requests in flight, passing each result to batchListener instead of merging them.
+     * While some batches are waiting on the network, the envelopes for the next ones are encrypted on the executor configured in {@link Uid2TransportConfig#withExecutor}.
+     * @param batches                the batches to map, for example from {@link IdentityMapV3Input#split}. The iterator is only advanced when a request slot is free.
+     * @param maxConcurrentRequests  the maximum number of requests in flight at once. Requests beyond {@link Uid2TransportConfig#withMaxRequestsPerHost} wait in OkHttp's queue.
+     * @param batchListener          called with each batch and its response, in the order in which they complete. Calls are never concurrent.
+     * @return                       a CompletableFuture which completes once every batch has been passed to batchListener, or completes exceptionally when the first batch fails (remaining batches are then cancelled)
+     */
+    public CompletableFuture<Void> generateIdentityMapInBatchesAsync(Iterator<IdentityMapV3Input> batches, int maxConcurrentRequests,
+                                                                     BiConsumer<IdentityMapV3Input, IdentityMapV3Response> batchListener) {
+        return ConcurrentBatchRunner.run(batches, maxConcurrentRequests, this::generateIdentityMapAsync, batchListener);
+    }
+
+    /**
+     * Maps an input of any size in batches like {@link #generateIdentityMapInBatches(IdentityMapV3Input, int, int)}, appending the results to a compact columnar store
+     * instead of building an object per identity. The calling thread waits until every batch has been mapped.
+     * @param identityMapInput       the emails and phone numbers to map
+     * @param batchSize              the maximum number of DIIs sent in each request, for example {@link #DEFAULT_BATCH_SIZE}
+     * @param maxConcurrentRequests  the maximum number of requests in flight at once
+     * @param results                receives one row per distinct hashed DII in identityMapInput; see {@link IdentityMapV3ColumnarResults} for the row order
+     * @return                       the index of the first row added to results
+     * @throws Uid2Exception         if any batch fails, in the same cases where {@link #generateIdentityMap(IdentityMapV3Input)} throws. Rows for batches which did not complete are left empty.
+     */
+    public int generateIdentityMapInBatches(IdentityMapV3Input identityMapInput, int batchSize, int maxConcurrentRequests, IdentityMapV3ColumnarResults results) {
+        try {
+            return generateIdentityMapInBatchesAsync(identityMapInput, batchSize, maxConcurrentRequests, results).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #generateIdentityMapInBatches(IdentityMapV3Input, int, int, IdentityMapV3ColumnarResults)}.
+     * @return a CompletableFuture which completes with the index of the first row added to results once every batch has been mapped
+     */
+    public CompletableFuture<Integer> generateIdentityMapInBatchesAsync(IdentityMapV3Input identityMapInput, int batchSize, int maxConcurrentRequests, IdentityMapV3ColumnarResults results) {
+        int firstRow = results.reserve(identityMapInput.size());
+        Iterator<IdentityMapV3Input> split = identityMapInput.split(batchSize);
+        Iterator<ColumnarBatch> batches = new Iterator<ColumnarBatch>() {
+            @Override
+            public boolean hasNext() {
+                return split.hasNext();
+            }
+
+            @Override
+            public ColumnarBatch next() {
+                IdentityMapV3Input batch = split.next();
+                ColumnarBatch columnarBatch = new ColumnarBatch(batch, nextRow);
+                nextRow += batch.size();
+                return columnarBatch;
+            }
+
+            private int nextRow = firstRow;
+        };
+        //each batch is parsed into its own small columns and copied into results once it has won any hedge, so attempts never write to shared rows
+        return ConcurrentBatchRunner.run(batches, maxConcurrentRequests,
+                batch -> uid2ClientHelper.executeAsync("/v3/identity/map", true, () -> generateIdentityMapColumnarAttemptAsync(batch.input)),
+                (batch, batchResults) -> results.copyFrom(batchResults, batch.firstRow))
+                .thenApply(ignored -> firstRow);
+    }
+
+    /**
+     * Maps emails or phone numbers from an iterator or stream of any length, passing each result to listener as its batch completes.
+     * Only batchSize * maxConcurrentRequests DIIs (see {@link IdentityMapV3StreamInput}) and their results are held in memory at once.
+     * The calling thread waits until every DII has been mapped.
+     * @param input     the emails or phone numbers to map
+     * @param listener  receives the result for each DII
+     * @throws Uid2Exception if any batch fails, in the same cases where {@link #generateIdentityMap(IdentityMapV3Input)} throws. Results for batches completed before the failure will already have been passed to listener.
+     */
+    public void generateIdentityMap(IdentityMapV3StreamInput input, IdentityMapV3Listener listener) {
+        try {
+            generateIdentityMapAsync(input, listener).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #generateIdentityMap(IdentityMapV3StreamInput, IdentityMapV3Listener)}.
+     * @return a CompletableFuture which completes once every result has been passed to listener, or completes exceptionally when the first batch fails
+     */
+    public CompletableFuture<Void> generateIdentityMapAsync(IdentityMapV3StreamInput input, IdentityMapV3Listener listener) {
+        return generateIdentityMapInBatchesAsync(input.batches(), input.getMaxConcurrentRequests(), (batch, response) -> response.forEach(listener));
+    }
+
+    private CompletableFuture<IdentityMapV3Response> generateIdentityMapAttemptAsync(IdentityMapV3Input identityMapInput) {
+        return uid2ClientHelper.makeRequestAsync(() -> identityMapHelper.createEnvelopeForIdentityMapRequest(identityMapInput),
+                envelope -> uid2ClientHelper.makeBinaryRequestAsync("/v3/identity/map", envelope, responseReader(envelope, identityMapInput)));
+    }
 
-        Uid2Response response = uid2ClientHelper.makeBinaryRequest("/v3/identity/map", envelope);
-        if (response.isBinary()) {
-            return identityMapHelper.createIdentityMapResponse(response.getAsBytes(), envelope, identityMapInput);
-        } else {
-            return identityMapHelper.createIdentityMapResponse(response.getAsString(), envelope, identityMapInput);
+    private CompletableFuture<IdentityMapV3IndexedResponse> generateIdentityMapIndexedAttemptAsync(IdentityMapV3Input identityMapInput) {
+        return uid2ClientHelper.makeRequestAsync(() -> identityMapHelper.createEnvelopeForIdentityMapRequest(identityMapInput),
+                envelope -> uid2ClientHelper.makeBinaryRequestAsync("/v3/identity/map", envelope, indexedResponseReader(envelope, identityMapInput)));
+    }
+
+    private CompletableFuture<IdentityMapV3ColumnarResults> generateIdentityMapColumnarAttemptAsync(IdentityMapV3Input identityMapInput) {
+        return uid2ClientHelper.makeRequestAsync(() -> identityMapHelper.createEnvelopeForIdentityMapRequest(identityMapInput),
+                envelope -> uid2ClientHelper.makeBinaryRequestAsync("/v3/identity/map", envelope,
+                        (body, isBinary) -> identityMapHelper.createColumnarIdentityMapResponse(body.byteStream(), body.contentLength(), isBinary, envelope, identityMapInput)));
+    }
+
+    //the response is binary or base64 depending on the Content-Type the operator chose, and is decrypted as it is read
+    private Uid2ClientHelper.ResponseReader<IdentityMapV3Response> responseReader(EnvelopeV2 envelope, IdentityMapV3Input identityMapInput) {
+        return (body, isBinary) -> identityMapHelper.createIdentityMapResponse(body.byteStream(), body.contentLength(), isBinary, envelope, identityMapInput);
+    }
+
+    private Uid2ClientHelper.ResponseReader<IdentityMapV3IndexedResponse> indexedResponseReader(EnvelopeV2 envelope, IdentityMapV3Input identityMapInput) {
+        return (body, isBinary) -> identityMapHelper.createIndexedIdentityMapResponse(body.byteStream(), body.contentLength(), isBinary, envelope, identityMapInput);
+    }
+
+    private static class ColumnarBatch {
+        ColumnarBatch(IdentityMapV3Input input, int firstRow) {
+            this.input = input;
+            this.firstRow = firstRow;
         }
+
+        final IdentityMapV3Input input;
+        final int firstRow;
     }
 
     private final IdentityMapV3Helper identityMapHelper;
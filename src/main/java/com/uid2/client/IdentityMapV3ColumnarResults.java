@@ -0,0 +1,297 @@
+package com.uid2.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds identity map results for very large jobs in compact columns rather than as an object per identity:
+ * raw UIDs as 33-byte records in large byte[] slabs, refresh times in a long[] and the outcome of each row in a byte[].
+ * That is about 75 bytes per row, compared with several hundred for an {@link IdentityMapV3Response}.
+ * <p>
+ * Rows are filled by {@link IdentityMapV3Client#generateIdentityMapInBatches(IdentityMapV3Input, int, int, IdentityMapV3ColumnarResults)}.
+ * Each call appends one row per distinct hashed DII after the rows of earlier calls, in the order they are sent: hashed emails added as Strings, then hashed emails
+ * added as packed bytes, then hashed phone numbers added as Strings, then hashed phone numbers added as packed bytes (see {@link IdentityMapV3Input#getHashedDii}).
+ * With firstRow returned by the call and emailCount = input.{@link IdentityMapV3Input#size(IdentityType) size}(IdentityType.Email), row firstRow + i is for
+ * input.getHashedDii(IdentityType.Email, i) if i &lt; emailCount, and otherwise for input.getHashedDii(IdentityType.Phone, i - emailCount);
+ * {@link IdentityMapV3Input#getRawDiis(IdentityType, int)} gives the emails or phone numbers for that row. Rows exported by {@link #writeTo} are in the same order.
+ * Read results once the call has completed.
+ */
+public class IdentityMapV3ColumnarResults {
+    /**
+     * The length of a raw UID record
+     */
+    public static final int RAW_UID_LENGTH = 33;
+    /**
+     * The length of each row written by {@link #writeTo}: one byte holding {@link #getRowState}, the current raw UID, the previous raw UID
+     * (zeros if there is none) and the refresh time in epoch seconds as a big-endian long
+     */
+    public static final int EXPORT_ROW_LENGTH = 1 + RAW_UID_LENGTH * 2 + 8;
+    /**
+     * {@link #getRowState} for a row with no result yet
+     */
+    public static final byte ROW_EMPTY = 0;
+    /**
+     * {@link #getRowState} for a mapped identity without a previous raw UID
+     */
+    public static final byte ROW_MAPPED = 1;
+    /**
+     * {@link #getRowState} for a mapped identity with a previous raw UID
+     */
+    public static final byte ROW_MAPPED_WITH_PREVIOUS = 2;
+    /**
+     * {@link #getRowState} for an unmapped identity is ROW_UNMAPPED plus the ordinal of its {@link UnmappedIdentityReason}
+     */
+    public static final byte ROW_UNMAPPED = 16;
+
+    public IdentityMapV3ColumnarResults() {
+        this(DEFAULT_ROWS_PER_SLAB);
+    }
+
+    //a single batch is parsed into a results instance with one slab of exactly its size
+    IdentityMapV3ColumnarResults(int rowsPerSlab) {
+        this.rowsPerSlab = rowsPerSlab;
+    }
+
+    static IdentityMapV3ColumnarResults parse(Reader response, IdentityMapV3Input identityMapInput) {
+        int emailCount = identityMapInput.getHashedDiis(IdentityType.Email).size();
+        int rowCount = emailCount + identityMapInput.getHashedDiis(IdentityType.Phone).size();
+        IdentityMapV3ColumnarResults results = new IdentityMapV3ColumnarResults(Math.max(1, rowCount));
+        results.reserve(rowCount);
+        IdentityMapV3ResponseParser.parse(response, (identityType, index, currentUid, previousUid, refreshFromSeconds, error) -> {
+            int row;
+            switch (identityType) {
+                case "email_hash": row = index; break;
+                case "phone_hash": row = emailCount + index; break;
+                default: return;
+            }
+            if (row >= (identityType.equals("email_hash") ? emailCount : rowCount)) {
+                throw new Uid2Exception("Identity map response has more " + identityType + " results than the request had DIIs");
+            }
+            results.set(row, currentUid, previousUid, refreshFromSeconds, error);
+        });
+        return results;
+    }
+
+    /**
+     * @return the number of rows, including rows reserved by a call which has not completed yet
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param row the row index
+     * @return one of {@link #ROW_EMPTY}, {@link #ROW_MAPPED}, {@link #ROW_MAPPED_WITH_PREVIOUS}, or {@link #ROW_UNMAPPED} plus the unmapped reason ordinal
+     */
+    public byte getRowState(int row) {
+        return slab(row).states[row % rowsPerSlab];
+    }
+
+    /**
+     * @param row the row index
+     * @return whether the identity in row was mapped
+     */
+    public boolean isMapped(int row) {
+        byte state = getRowState(row);
+        return state == ROW_MAPPED || state == ROW_MAPPED_WITH_PREVIOUS;
+    }
+
+    /**
+     * @param row the row index
+     * @return the reason the identity in row was not mapped, or null if it was mapped or has no result
+     */
+    public UnmappedIdentityReason getUnmappedReason(int row) {
+        byte state = getRowState(row);
+        return state >= ROW_UNMAPPED ? UNMAPPED_REASONS[state - ROW_UNMAPPED] : null;
+    }
+
+    /**
+     * Copies the current raw UID of a mapped row without allocating.
+     * @param row         the row index
+     * @param destination receives {@link #RAW_UID_LENGTH} bytes
+     * @param offset      where to write in destination
+     */
+    public void copyCurrentRawUid(int row, byte[] destination, int offset) {
+        System.arraycopy(slab(row).rawUids, row % rowsPerSlab * RAW_UID_LENGTH * 2, destination, offset, RAW_UID_LENGTH);
+    }
+
+    /**
+     * Copies the previous raw UID of a mapped row without allocating. The bytes are zero if the row has no previous raw UID.
+     * @param row         the row index
+     * @param destination receives {@link #RAW_UID_LENGTH} bytes
+     * @param offset      where to write in destination
+     */
+    public void copyPreviousRawUid(int row, byte[] destination, int offset) {
+        System.arraycopy(slab(row).rawUids, row % rowsPerSlab * RAW_UID_LENGTH * 2 + RAW_UID_LENGTH, destination, offset, RAW_UID_LENGTH);
+    }
+
+    /**
+     * @param row the row index
+     * @return the Base64 encoded current raw UID, as {@link IdentityMapV3Response.MappedIdentity#getCurrentRawUid} would return, or null if the row is not mapped
+     */
+    public String getCurrentRawUid(int row) {
+        return isMapped(row) ? encodeRawUid(row, 0) : null;
+    }
+
+    /**
+     * @param row the row index
+     * @return the Base64 encoded previous raw UID, or null if the row is not mapped or has no previous raw UID
+     */
+    public String getPreviousRawUid(int row) {
+        return getRowState(row) == ROW_MAPPED_WITH_PREVIOUS ? encodeRawUid(row, RAW_UID_LENGTH) : null;
+    }
+
+    /**
+     * @param row the row index
+     * @return the refresh time of a mapped row in epoch seconds, or 0 if the row is not mapped or the operator returned none
+     */
+    public long getRefreshFromEpochSecond(int row) {
+        return slab(row).refreshFrom[row % rowsPerSlab];
+    }
+
+    /**
+     * @param row the row index
+     * @return the refresh time of a mapped row, or null if the row is not mapped or the operator returned none
+     */
+    public Instant getRefreshFrom(int row) {
+        long refreshFrom = getRefreshFromEpochSecond(row);
+        return refreshFrom == 0 ? null : Instant.ofEpochSecond(refreshFrom);
+    }
+
+    /**
+     * Writes every row to channel in order, as {@link #EXPORT_ROW_LENGTH}-byte records.
+     * @param channel the channel to write to, for example a FileChannel
+     * @throws IOException if channel could not be written
+     */
+    public synchronized void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(EXPORT_ROW_LENGTH * 1024);
+        for (int row = 0; row < size; row++) {
+            if (buffer.remaining() < EXPORT_ROW_LENGTH) {
+                drain(buffer, channel);
+            }
+            Slab slab = slab(row);
+            int index = row % rowsPerSlab;
+            buffer.put(slab.states[index]);
+            buffer.put(slab.rawUids, index * RAW_UID_LENGTH * 2, RAW_UID_LENGTH * 2);
+            buffer.putLong(slab.refreshFrom[index]);
+        }
+        drain(buffer, channel);
+    }
+
+    //adds rowCount empty rows, returning the index of the first
+    synchronized int reserve(int rowCount) {
+        int first = size;
+        size += rowCount;
+        while (slabs.size() * (long) rowsPerSlab < size) {
+            slabs.add(new Slab(rowsPerSlab));
+        }
+        return first;
+    }
+
+    synchronized void copyFrom(IdentityMapV3ColumnarResults batch, int firstRow) {
+        for (int i = 0; i < batch.size; ) {
+            Slab from = batch.slab(i);
+            Slab to = slab(firstRow + i);
+            int fromIndex = i % batch.rowsPerSlab;
+            int toIndex = (firstRow + i) % rowsPerSlab;
+            int count = Math.min(batch.size - i, Math.min(batch.rowsPerSlab - fromIndex, rowsPerSlab - toIndex));
+            System.arraycopy(from.states, fromIndex, to.states, toIndex, count);
+            System.arraycopy(from.refreshFrom, fromIndex, to.refreshFrom, toIndex, count);
+            System.arraycopy(from.rawUids, fromIndex * RAW_UID_LENGTH * 2, to.rawUids, toIndex * RAW_UID_LENGTH * 2, count * RAW_UID_LENGTH * 2);
+            i += count;
+        }
+    }
+
+    private void set(int row, String currentUid, String previousUid, Long refreshFromSeconds, String error) {
+        Slab slab = slab(row);
+        int index = row % rowsPerSlab;
+        if (error != null) {
+            slab.states[index] = (byte) (ROW_UNMAPPED + UnmappedIdentityReason.fromString(error).ordinal());
+            return;
+        }
+        decodeRawUid(currentUid, slab.rawUids, index * RAW_UID_LENGTH * 2);
+        if (previousUid != null) {
+            decodeRawUid(previousUid, slab.rawUids, index * RAW_UID_LENGTH * 2 + RAW_UID_LENGTH);
+        }
+        slab.refreshFrom[index] = refreshFromSeconds == null ? 0 : refreshFromSeconds;
+        slab.states[index] = previousUid == null ? ROW_MAPPED : ROW_MAPPED_WITH_PREVIOUS;
+    }
+
+    private Slab slab(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+        }
+        return slabs.get(row / rowsPerSlab);
+    }
+
+    private String encodeRawUid(int row, int offset) {
+        byte[] rawUid = new byte[RAW_UID_LENGTH];
+        System.arraycopy(slab(row).rawUids, row % rowsPerSlab * RAW_UID_LENGTH * 2 + offset, rawUid, 0, RAW_UID_LENGTH);
+        return InputUtil.byteArrayToBase64(rawUid);
+    }
+
+    //a 33-byte raw UID is 44 Base64 characters with no padding, which decode straight into the slab
+    private static void decodeRawUid(String rawUid, byte[] destination, int offset) {
+        if (rawUid == null || rawUid.length() != 44 || rawUid.charAt(43) == '=') {
+            throw new Uid2Exception("Unexpected raw UID in identity map response");
+        }
+        for (int i = 0; i < 44; i += 4) {
+            int bits = 0;
+            for (int j = 0; j < 4; j++) {
+                char c = rawUid.charAt(i + j);
+                int value = c < 128 ? BASE64_VALUES[c] : -1;
+                if (value < 0) {
+                    throw new Uid2Exception("Unexpected raw UID in identity map response");
+                }
+                bits = bits << 6 | value;
+            }
+            destination[offset++] = (byte) (bits >> 16);
+            destination[offset++] = (byte) (bits >> 8);
+            destination[offset++] = (byte) bits;
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static int[] base64Values() {
+        int[] values = new int[128];
+        Arrays.fill(values, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            values[alphabet.charAt(i)] = i;
+        }
+        return values;
+    }
+
+    private static class Slab {
+        Slab(int rows) {
+            states = new byte[rows];
+            refreshFrom = new long[rows];
+            rawUids = new byte[rows * RAW_UID_LENGTH * 2];
+        }
+
+        final byte[] states;
+        final long[] refreshFrom;
+        final byte[] rawUids; //current then previous raw UID for each row
+    }
+
+    private static final int DEFAULT_ROWS_PER_SLAB = 1 << 16;
+    private static final UnmappedIdentityReason[] UNMAPPED_REASONS = UnmappedIdentityReason.values();
+    private static final int[] BASE64_VALUES = base64Values();
+
+    private final int rowsPerSlab;
+    private final List<Slab> slabs = new ArrayList<>();
+    private int size;
+}
@@ -1,7 +1,8 @@
 package com.uid2.client;
 
-import com.google.gson.Gson;
-
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 
 public class IdentityMapV3Helper {
@@ -15,8 +16,7 @@ public class IdentityMapV3Helper {
      * @return an EnvelopeV2 instance to use in the POST body of <a href="https://unifiedid.com/docs/endpoints/post-identity-map">/identity/map</a>
      */
     public EnvelopeV2 createEnvelopeForIdentityMapRequest(IdentityMapV3Input identityMapInput) {
-        byte[] jsonBytes = new Gson().toJson(identityMapInput).getBytes(StandardCharsets.UTF_8);
-        return uid2Helper.createEnvelopeV2(jsonBytes);
+        return uid2Helper.createEnvelopeV2(identityMapInput.createPayloadWriter());
     }
 
 
@@ -36,5 +36,20 @@ public class IdentityMapV3Helper {
         return new IdentityMapV3Response(decryptedResponseString, identityMapInput);
     }
 
+    IdentityMapV3Response createIdentityMapResponse(InputStream responseBody, long contentLength, boolean isBinary, EnvelopeV2 envelope, IdentityMapV3Input identityMapInput) throws IOException {
+        InputStream decryptedResponse = uid2Helper.decryptResponse(responseBody, contentLength, isBinary, envelope.getNonce());
+        return new IdentityMapV3Response(new InputStreamReader(decryptedResponse, StandardCharsets.UTF_8), identityMapInput);
+    }
+
+    IdentityMapV3IndexedResponse createIndexedIdentityMapResponse(InputStream responseBody, long contentLength, boolean isBinary, EnvelopeV2 envelope, IdentityMapV3Input identityMapInput) throws IOException {
+        InputStream decryptedResponse = uid2Helper.decryptResponse(responseBody, contentLength, isBinary, envelope.getNonce());
+        return new IdentityMapV3IndexedResponse(new InputStreamReader(decryptedResponse, StandardCharsets.UTF_8), identityMapInput);
+    }
+
+    IdentityMapV3ColumnarResults createColumnarIdentityMapResponse(InputStream responseBody, long contentLength, boolean isBinary, EnvelopeV2 envelope, IdentityMapV3Input identityMapInput) throws IOException {
+        InputStream decryptedResponse = uid2Helper.decryptResponse(responseBody, contentLength, isBinary, envelope.getNonce());
+        return IdentityMapV3ColumnarResults.parse(new InputStreamReader(decryptedResponse, StandardCharsets.UTF_8), identityMapInput);
+    }
+
     private final Uid2Helper uid2Helper;
 }
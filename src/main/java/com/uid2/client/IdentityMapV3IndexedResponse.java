@@ -0,0 +1,68 @@
+package com.uid2.client;
+
+import java.io.Reader;
+import java.time.Instant;
+
+/**
+ * The result of {@link IdentityMapV3Client#generateIdentityMapIndexed}, with results looked up by position rather than by raw DII.
+ * The result at index i of an identity type is for {@link IdentityMapV3Input#getHashedDii(IdentityType, int)} at the same index: hashed DIIs added as Strings come first,
+ * in the order they were first added, followed by those added as packed bytes. {@link IdentityMapV3Input#getRawDiis(IdentityType, int)} returns the emails or phone numbers
+ * for a position. No per-identity map entries are kept, and if every DII of a type was added with {@link IdentityMapV3Input#withHashedEmails(byte[], int)} or
+ * {@link IdentityMapV3Input#withHashedPhones(byte[], int)}, positions line up with the caller's own arrays.
+ */
+public class IdentityMapV3IndexedResponse {
+    IdentityMapV3IndexedResponse(Reader response, IdentityMapV3Input identityMapInput) {
+        emailResults = new Object[identityMapInput.getHashedDiis(IdentityType.Email).size()];
+        phoneResults = new Object[identityMapInput.getHashedDiis(IdentityType.Phone).size()];
+        IdentityMapV3ResponseParser.parse(response, (identityType, index, currentUid, previousUid, refreshFromSeconds, error) -> {
+            Object[] results;
+            switch (identityType) {
+                case "email_hash": results = emailResults; break;
+                case "phone_hash": results = phoneResults; break;
+                default: return;
+            }
+            if (index >= results.length) {
+                throw new Uid2Exception("Identity map response has more " + identityType + " results than the request had DIIs");
+            }
+            results[index] = error == null
+                    ? new IdentityMapV3Response.MappedIdentity(currentUid, previousUid, refreshFromSeconds == null ? null : Instant.ofEpochSecond(refreshFromSeconds))
+                    : new IdentityMapV3Response.UnmappedIdentity(error);
+        });
+    }
+
+    /**
+     * @param identityType whether to count hashed emails or hashed phone numbers
+     * @return the number of positions for identityType, which is the number of distinct DIIs of that type in the input
+     */
+    public int size(IdentityType identityType) {
+        return getResults(identityType).length;
+    }
+
+    /**
+     * @param identityType whether index refers to the emails or the phone numbers in the input
+     * @param index        the position of the DII among the DIIs of identityType in the input
+     * @return the mapped identity at index, or null if it was not mapped
+     */
+    public IdentityMapV3Response.MappedIdentity getMappedIdentity(IdentityType identityType, int index) {
+        Object result = getResults(identityType)[index];
+        return result instanceof IdentityMapV3Response.MappedIdentity ? (IdentityMapV3Response.MappedIdentity) result : null;
+    }
+
+    /**
+     * @param identityType whether index refers to the emails or the phone numbers in the input
+     * @param index        the position of the DII among the DIIs of identityType in the input
+     * @return the unmapped identity at index, or null if it was mapped
+     */
+    public IdentityMapV3Response.UnmappedIdentity getUnmappedIdentity(IdentityType identityType, int index) {
+        Object result = getResults(identityType)[index];
+        return result instanceof IdentityMapV3Response.UnmappedIdentity ? (IdentityMapV3Response.UnmappedIdentity) result : null;
+    }
+
+    private Object[] getResults(IdentityType identityType) {
+        return identityType == IdentityType.Email ? emailResults : phoneResults;
+    }
+
+    //each element is a MappedIdentity or an UnmappedIdentity
+    private final Object[] emailResults;
+    private final Object[] phoneResults;
+}
@@ -3,6 +3,7 @@ package com.uid2.client;
 import com.google.gson.annotations.SerializedName;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class IdentityMapV3Input {
     /**
@@ -13,6 +14,16 @@ public class IdentityMapV3Input {
         return new IdentityMapV3Input().withEmails(emails);
     }
 
+    /**
+     * Like {@link #fromEmails(List)}, but normalizes and hashes the emails in parallel on pool. Useful for inputs with many thousands of emails.
+     * @param emails a list of normalized or unnormalized email addresses
+     * @param pool   the pool to normalize and hash on, for example {@link ForkJoinPool#commonPool()}
+     * @return an IdentityMapV3Input instance, holding the emails in the same order as the list
+     */
+    public static IdentityMapV3Input fromEmails(List<String> emails, ForkJoinPool pool) {
+        return new IdentityMapV3Input().withEmails(emails, pool);
+    }
+
     /**
      * @param hashedEmails a <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-hash-encoding">hashed</a> email address
      * @return an IdentityMapV3Input instance
@@ -29,6 +40,16 @@ public class IdentityMapV3Input {
         return new IdentityMapV3Input().withPhones(phones);
     }
 
+    /**
+     * Like {@link #fromPhones(List)}, but hashes the phone numbers in parallel on pool. Useful for inputs with many thousands of phone numbers.
+     * @param phones a list of <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> phone numbers
+     * @param pool   the pool to hash on, for example {@link ForkJoinPool#commonPool()}
+     * @return an IdentityMapV3Input instance, holding the phone numbers in the same order as the list
+     */
+    public static IdentityMapV3Input fromPhones(List<String> phones, ForkJoinPool pool) {
+        return new IdentityMapV3Input().withPhones(phones, pool);
+    }
+
     /**
      * @param hashedPhones a <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-hash-encoding">hashed</a> phone number
      * @return an IdentityMapV3Input instance
@@ -37,8 +58,32 @@ public class IdentityMapV3Input {
         return new IdentityMapV3Input().withHashedPhones(hashedPhones);
     }
 
-    // Transient as this should not be part of the serialized JSON payload we send to UID2 Operator
-    private transient final Map<String, List<String>> hashedDiiToRawDii = new HashMap<>();
+    /**
+     * @param packedHashes the raw 32-byte SHA-256 hashes of <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-hash-encoding">hashed</a> email addresses, stored back to back
+     * @param count        the number of hashes in packedHashes
+     * @return an IdentityMapV3Input instance. See {@link #withHashedEmails(byte[], int)}.
+     */
+    public static IdentityMapV3Input fromHashedEmails(byte[] packedHashes, int count) {
+        return new IdentityMapV3Input().withHashedEmails(packedHashes, count);
+    }
+
+    /**
+     * @param packedHashes the raw 32-byte SHA-256 hashes of <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-hash-encoding">hashed</a> phone numbers, stored back to back
+     * @param count        the number of hashes in packedHashes
+     * @return an IdentityMapV3Input instance. See {@link #withHashedPhones(byte[], int)}.
+     */
+    public static IdentityMapV3Input fromHashedPhones(byte[] packedHashes, int count) {
+        return new IdentityMapV3Input().withHashedPhones(packedHashes, count);
+    }
+
+    // Transient as these should not be part of the serialized JSON payload we send to UID2 Operator.
+    // Each hashed DII is sent once; every raw DII which hashed to it receives its result.
+    private transient final Map<String, List<String>> hashedEmailToRawDiis = new HashMap<>();
+    private transient final Map<String, List<String>> hashedPhoneToRawDiis = new HashMap<>();
+    private transient int duplicateCount;
+    // Hashes added as bytes are kept packed, and are sent after the hashes in the lists above
+    private transient PackedHashes packedHashedEmails = new PackedHashes();
+    private transient PackedHashes packedHashedPhones = new PackedHashes();
 
     @SerializedName("email_hash")
     private final List<String> hashedEmails = new ArrayList<>();
@@ -65,13 +110,26 @@ public class IdentityMapV3Input {
         return this;
     }
 
+    /**
+     * Adds hashed email addresses given as raw SHA-256 bytes. They are copied into a single array of count * 32 bytes and Base64 encoded only when the request is written,
+     * which takes far less memory than adding them as Strings. Results are reported under the Base64 encoding of each hash, as for {@link #withHashedEmail}.
+     * Hashes added this way are not checked for duplicates. One input holds at most 67,108,863 (about 2 GB) packed hashes of each type.
+     * @param packedHashes the raw 32-byte SHA-256 hashes of <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-hash-encoding">hashed</a> email addresses, stored back to back
+     * @param count        the number of hashes in packedHashes
+     * @return this IdentityMapV3Input instance
+     * @throws IllegalArgumentException if packedHashes holds fewer than count hashes, or this input would hold more packed hashes of this type than the limit above
+     */
+    public IdentityMapV3Input withHashedEmails(byte[] packedHashes, int count) {
+        packedHashedEmails.add(packedHashes, count);
+        return this;
+    }
+
     /**
      * @param hashedEmail a <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-hash-encoding">hashed</a> email address
      * @return this IdentityMapV3Input instance
      */
     public IdentityMapV3Input withHashedEmail(String hashedEmail) {
-        this.hashedEmails.add(hashedEmail);
-        addToDiiMappings(hashedEmail, hashedEmail);
+        addDii(hashedEmails, hashedEmailToRawDiis, hashedEmail, hashedEmail);
         return this;
     }
 
@@ -86,13 +144,23 @@ public class IdentityMapV3Input {
         return this;
     }
 
+    /**
+     * Adds hashed phone numbers given as raw SHA-256 bytes. See {@link #withHashedEmails(byte[], int)}.
+     * @param packedHashes the raw 32-byte SHA-256 hashes of <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-hash-encoding">hashed</a> phone numbers, stored back to back
+     * @param count        the number of hashes in packedHashes
+     * @return this IdentityMapV3Input instance
+     */
+    public IdentityMapV3Input withHashedPhones(byte[] packedHashes, int count) {
+        packedHashedPhones.add(packedHashes, count);
+        return this;
+    }
+
     /**
      * @param hashedPhone a <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-hash-encoding">hashed</a> phone number
      * @return this IdentityMapV3Input instance
      */
     public IdentityMapV3Input withHashedPhone(String hashedPhone) {
-        this.hashedPhones.add(hashedPhone);
-        addToDiiMappings(hashedPhone, hashedPhone);
+        addDii(hashedPhones, hashedPhoneToRawDiis, hashedPhone, hashedPhone);
         return this;
     }
 
@@ -107,14 +175,29 @@ public class IdentityMapV3Input {
         return this;
     }
 
+    /**
+     * Like {@link #withEmails(List)}, but normalizes and hashes the emails in parallel on pool.
+     * @param emails a list of normalized or unnormalized email addresses
+     * @param pool   the pool to normalize and hash on, for example {@link ForkJoinPool#commonPool()}
+     * @return this IdentityMapV3Input instance
+     * @throws IllegalArgumentException if any email is invalid, in which case none of the emails are added
+     */
+    public IdentityMapV3Input withEmails(List<String> emails, ForkJoinPool pool) {
+        List<String> hashedEmails = InputUtil.normalizeAndHashAll(emails, true, pool);
+        Iterator<String> rawEmails = emails.iterator();
+        for (String hashedEmail : hashedEmails) {
+            addDii(this.hashedEmails, hashedEmailToRawDiis, hashedEmail, rawEmails.next());
+        }
+        return this;
+    }
+
     /**
      * @param email a normalized or unnormalized email address
      * @return this IdentityMapV3Input instance
      */
     public IdentityMapV3Input withEmail(String email) {
         String hashedEmail = InputUtil.normalizeAndHashEmail(email);
-        this.hashedEmails.add(hashedEmail);
-        addToDiiMappings(hashedEmail, email);
+        addDii(hashedEmails, hashedEmailToRawDiis, hashedEmail, email);
         return this;
     }
 
@@ -129,6 +212,22 @@ public class IdentityMapV3Input {
         return this;
     }
 
+    /**
+     * Like {@link #withPhones(List)}, but hashes the phone numbers in parallel on pool.
+     * @param phones a list of <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> phone numbers
+     * @param pool   the pool to hash on, for example {@link ForkJoinPool#commonPool()}
+     * @return this IdentityMapV3Input instance
+     * @throws IllegalArgumentException if any phone number is not normalized, in which case none of the phone numbers are added
+     */
+    public IdentityMapV3Input withPhones(List<String> phones, ForkJoinPool pool) {
+        List<String> hashedPhones = InputUtil.normalizeAndHashAll(phones, false, pool);
+        Iterator<String> rawPhones = phones.iterator();
+        for (String hashedPhone : hashedPhones) {
+            addDii(this.hashedPhones, hashedPhoneToRawDiis, hashedPhone, rawPhones.next());
+        }
+        return this;
+    }
+
     /**
      * @param phone a <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> phone number
      * @return this IdentityMapV3Input instance
@@ -139,24 +238,170 @@ public class IdentityMapV3Input {
         }
 
         String hashedPhone = InputUtil.getBase64EncodedHash(phone);
-        this.hashedPhones.add(hashedPhone);
-        addToDiiMappings(hashedPhone, phone);
+        addDii(hashedPhones, hashedPhoneToRawDiis, hashedPhone, phone);
         return this;
     }
 
-    List<String> getInputDiis(String identityType, int i) {
-        return hashedDiiToRawDii.get(getHashedDii(identityType, i));
+    /**
+     * @return the number of distinct hashed emails and phone numbers in this input, which is the number of DIIs sent to the operator
+     */
+    public int size() {
+        return hashedEmails.size() + packedHashedEmails.size() + hashedPhones.size() + packedHashedPhones.size();
+    }
+
+    /**
+     * @param identityType whether to count hashed emails or hashed phone numbers
+     * @return the number of distinct hashed DIIs of identityType in this input
+     */
+    public int size(IdentityType identityType) {
+        return identityType == IdentityType.Email ? hashedEmails.size() + packedHashedEmails.size() : hashedPhones.size() + packedHashedPhones.size();
+    }
+
+    /**
+     * The hashed DIIs of each type are sent, and their results reported by position, in this order: first those added as Strings (including emails and phone numbers
+     * which this class normalized and hashed), in the order they were first added; then those added with {@link #withHashedEmails(byte[], int)} or
+     * {@link #withHashedPhones(byte[], int)}, in the order added. An email or phone number which hashes to a DII already in this input does not get a position of its own.
+     * @param identityType whether index refers to the hashed emails or the hashed phone numbers
+     * @param index        a position between 0 and {@link #size(IdentityType)} - 1
+     * @return the Base64 encoded hash at index
+     */
+    public String getHashedDii(IdentityType identityType, int index) {
+        return getHashedDiis(identityType).get(index);
     }
 
-    private void addToDiiMappings(String hashedDii, String rawDii) {
-        hashedDiiToRawDii.computeIfAbsent(hashedDii, k -> new ArrayList<>()).add(rawDii);
+    /**
+     * @param identityType whether index refers to the hashed emails or the hashed phone numbers
+     * @param index        a position between 0 and {@link #size(IdentityType)} - 1, see {@link #getHashedDii}
+     * @return the emails, phone numbers or hashes added to this input which hashed to the DII at index, in the order added. A hash added as bytes is returned Base64 encoded.
+     */
+    public List<String> getRawDiis(IdentityType identityType, int index) {
+        return Collections.unmodifiableList(getInputDiis(identityType == IdentityType.Email ? "email_hash" : "phone_hash", index));
     }
 
-    private String getHashedDii(String identityType, int i) {
+    /**
+     * Emails or phone numbers (other than those added with {@link #withHashedEmails(byte[], int)} or {@link #withHashedPhones(byte[], int)}) which normalize and hash to a DII already in this input, for example "Jane.Doe@gmail.com" and "janedoe+news@gmail.com", are only sent once.
+     * The result for that DII is reported for each of the raw DIIs in {@link IdentityMapV3Response}.
+     * @return the number of emails and phone numbers added to this input which were collapsed into an earlier DII
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Splits this input into consecutive batches, each holding at most maxBatchSize emails and phone numbers. Batches are created as the iterator advances.
+     * @param maxBatchSize the maximum number of DIIs in each batch
+     * @return an iterator over IdentityMapV3Input instances which together hold the same DIIs as this instance
+     */
+    public Iterator<IdentityMapV3Input> split(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        return new Iterator<IdentityMapV3Input>() {
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            //takes DIIs from the email list, packed emails, phone list and packed phones in turn; packed hashes are shared rather than copied
+            @Override
+            public IdentityMapV3Input next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                IdentityMapV3Input batch = new IdentityMapV3Input();
+                int end = Math.min(size(), next + maxBatchSize);
+                int emailsEnd = hashedEmails.size();
+                int packedEmailsEnd = emailsEnd + packedHashedEmails.size();
+                int phonesEnd = packedEmailsEnd + hashedPhones.size();
+                while (next < end) {
+                    if (next < emailsEnd) {
+                        String hashedEmail = hashedEmails.get(next++);
+                        batch.hashedEmails.add(hashedEmail);
+                        batch.hashedEmailToRawDiis.put(hashedEmail, hashedEmailToRawDiis.get(hashedEmail));
+                    } else if (next < packedEmailsEnd) {
+                        int to = Math.min(end, packedEmailsEnd);
+                        batch.packedHashedEmails = packedHashedEmails.slice(next - emailsEnd, to - emailsEnd);
+                        next = to;
+                    } else if (next < phonesEnd) {
+                        String hashedPhone = hashedPhones.get(next++ - packedEmailsEnd);
+                        batch.hashedPhones.add(hashedPhone);
+                        batch.hashedPhoneToRawDiis.put(hashedPhone, hashedPhoneToRawDiis.get(hashedPhone));
+                    } else {
+                        batch.packedHashedPhones = packedHashedPhones.slice(next - phonesEnd, end - phonesEnd);
+                        next = end;
+                    }
+                }
+                return batch;
+            }
+
+            private int next;
+        };
+    }
+
+    //JSON equivalent to what Gson would produce from the serialized fields, written without reflection or intermediate copies. It is not byte for
+    //byte the same: Gson writes characters such as '=' and '<' as unicode escapes to make the JSON HTML-safe, and this writes them as they are
+    Uid2Helper.PayloadWriter createPayloadWriter() {
+        return new JsonArraysPayloadWriter()
+                .withArray("email_hash", hashedEmails, packedHashedEmails)
+                .withArray("phone_hash", hashedPhones, packedHashedPhones)
+                .withArray("email", emails)
+                .withArray("phone", phones);
+    }
+
+    //the hashed DIIs of one type in request order, with packed hashes Base64 encoded as they are read
+    List<String> getHashedDiis(IdentityType identityType) {
+        List<String> hashedDiis = identityType == IdentityType.Email ? hashedEmails : hashedPhones;
+        PackedHashes packed = identityType == IdentityType.Email ? packedHashedEmails : packedHashedPhones;
+        if (packed.isEmpty()) {
+            return hashedDiis;
+        }
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return index < hashedDiis.size() ? hashedDiis.get(index) : packed.get(index - hashedDiis.size());
+            }
+
+            @Override
+            public int size() {
+                return hashedDiis.size() + packed.size();
+            }
+        };
+    }
+
+    //packed hashes have no mapping, and are their own raw DII
+    List<String> getRawDiis(IdentityType identityType, String hashedDii) {
+        List<String> rawDiis = (identityType == IdentityType.Email ? hashedEmailToRawDiis : hashedPhoneToRawDiis).get(hashedDii);
+        return rawDiis != null ? rawDiis : Collections.singletonList(hashedDii);
+    }
+
+    IdentityMapV3Input withHashedDii(IdentityType identityType, String hashedDii, List<String> rawDiis) {
+        for (String rawDii : rawDiis) {
+            if (identityType == IdentityType.Email) {
+                addDii(hashedEmails, hashedEmailToRawDiis, hashedDii, rawDii);
+            } else {
+                addDii(hashedPhones, hashedPhoneToRawDiis, hashedDii, rawDii);
+            }
+        }
+        return this;
+    }
+
+    List<String> getInputDiis(String identityType, int i) {
         switch (identityType) {
-            case "email_hash": return hashedEmails.get(i);
-            case "phone_hash": return hashedPhones.get(i);
+            case "email_hash": return i < hashedEmails.size() ? hashedEmailToRawDiis.get(hashedEmails.get(i)) : Collections.singletonList(packedHashedEmails.get(i - hashedEmails.size()));
+            case "phone_hash": return i < hashedPhones.size() ? hashedPhoneToRawDiis.get(hashedPhones.get(i)) : Collections.singletonList(packedHashedPhones.get(i - hashedPhones.size()));
         }
         throw new Uid2Exception("Unexpected identity type: " + identityType);
     }
+
+    private void addDii(List<String> hashedDiis, Map<String, List<String>> hashedDiiToRawDiis, String hashedDii, String rawDii) {
+        List<String> rawDiis = hashedDiiToRawDiis.get(hashedDii);
+        if (rawDiis == null) {
+            rawDiis = new ArrayList<>(1);
+            hashedDiiToRawDiis.put(hashedDii, rawDiis);
+            hashedDiis.add(hashedDii);
+        } else {
+            duplicateCount++;
+        }
+        rawDiis.add(rawDii);
+    }
 }
@@ -0,0 +1,19 @@
+package com.uid2.client;
+
+/**
+ * Receives results from {@link IdentityMapV3Client#generateIdentityMap(IdentityMapV3StreamInput, IdentityMapV3Listener)} as each batch completes.
+ * Calls are never concurrent, but may come from different threads. Results arrive in batch completion order, which may differ from input order.
+ */
+public interface IdentityMapV3Listener {
+    /**
+     * @param rawDii         the email or phone number as it was provided in the input
+     * @param mappedIdentity the raw UIDs for rawDii
+     */
+    void onMapped(String rawDii, IdentityMapV3Response.MappedIdentity mappedIdentity);
+
+    /**
+     * @param rawDii           the email or phone number as it was provided in the input
+     * @param unmappedIdentity the reason rawDii could not be mapped
+     */
+    void onUnmapped(String rawDii, IdentityMapV3Response.UnmappedIdentity unmappedIdentity);
+}
@@ -0,0 +1,250 @@
+package com.uid2.client;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the raw UIDs in an {@link IdentityMapV3Store} current by remapping each tracked identity once its
+ * {@link IdentityMapV3Response.MappedIdentity#getRefreshFrom refresh time} is reached, rather than remapping a whole audience at once.
+ * Identities come due throughout the day, since the operator staggers refresh times; they are sent in full-size batches,
+ * and at most {@link #withMaxBatchesPerRun} batches are sent per run, so a backlog is worked off gradually.
+ */
+public class IdentityMapV3RefreshScheduler {
+    /**
+     * @param identityMapClient the client used to remap identities
+     * @param store             holds the current mapped identity for each tracked identity, and is updated as they are remapped
+     * @param listener          receives rotations and opt-outs
+     */
+    public IdentityMapV3RefreshScheduler(IdentityMapV3Client identityMapClient, IdentityMapV3Store store, IdentityMapV3ChangeListener listener) {
+        this.identityMapClient = identityMapClient;
+        this.store = store;
+        this.listener = listener;
+        for (IdentityType identityType : IdentityType.values()) {
+            dueTimes.put(identityType, new HashMap<>());
+        }
+    }
+
+    /**
+     * @param batchSize the number of DIIs sent in each request. Defaults to {@link IdentityMapV3Client#DEFAULT_BATCH_SIZE}.
+     * @return this IdentityMapV3RefreshScheduler instance
+     */
+    public IdentityMapV3RefreshScheduler withBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param maxBatchesPerRun the maximum number of requests sent by each call to {@link #runDue}. Identities beyond this stay due until a later run. Defaults to 10.
+     * @return this IdentityMapV3RefreshScheduler instance
+     */
+    public IdentityMapV3RefreshScheduler withMaxBatchesPerRun(int maxBatchesPerRun) {
+        if (maxBatchesPerRun < 1) {
+            throw new IllegalArgumentException("maxBatchesPerRun must be at least 1");
+        }
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        return this;
+    }
+
+    /**
+     * @param maxBatchDelay how long due identities may wait for a batch to fill before a smaller batch is sent. Defaults to 1 hour.
+     * @return this IdentityMapV3RefreshScheduler instance
+     */
+    public IdentityMapV3RefreshScheduler withMaxBatchDelay(Duration maxBatchDelay) {
+        this.maxBatchDelay = maxBatchDelay;
+        return this;
+    }
+
+    /**
+     * Starts tracking an identity. It comes due at the refresh time of its mapped identity in the store, or immediately if the store has none.
+     * @param identityType whether hashedDii is a hashed email or a hashed phone number
+     * @param hashedDii    a normalized and hashed email or phone number
+     */
+    public void track(IdentityType identityType, String hashedDii) {
+        IdentityMapV3Response.MappedIdentity stored = store.get(identityType, hashedDii);
+        synchronized (this) {
+            schedule(identityType, hashedDii, stored == null || stored.getRefreshFrom() == null ? Instant.EPOCH : stored.getRefreshFrom());
+        }
+    }
+
+    /**
+     * Starts tracking every email and phone number in identityMapInput. See {@link #track(IdentityType, String)}.
+     * @param identityMapInput the emails and phone numbers to track
+     */
+    public void track(IdentityMapV3Input identityMapInput) {
+        for (IdentityType identityType : IdentityType.values()) {
+            for (String hashedDii : identityMapInput.getHashedDiis(identityType)) {
+                track(identityType, hashedDii);
+            }
+        }
+    }
+
+    /**
+     * Stops tracking an identity. It is left in the store.
+     * @param identityType whether hashedDii is a hashed email or a hashed phone number
+     * @param hashedDii    a normalized and hashed email or phone number
+     */
+    public synchronized void untrack(IdentityType identityType, String hashedDii) {
+        dueTimes.get(identityType).remove(hashedDii);
+    }
+
+    /**
+     * @return the number of tracked identities
+     */
+    public synchronized int size() {
+        return dueTimes.get(IdentityType.Email).size() + dueTimes.get(IdentityType.Phone).size();
+    }
+
+    /**
+     * Remaps identities which have come due, and reports changes to the listener. Not safe to call from several threads at once.
+     * @return the number of identities remapped
+     */
+    public int runDue() {
+        return runDue(Instant.now());
+    }
+
+    /**
+     * Calls {@link #runDue} on executor every interval, until the returned future is cancelled.
+     * Each run blocks while its batches are mapped; on Java 21 and later a virtual thread executor such as
+     * {@code Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory())} avoids tying up a platform thread.
+     * @param executor the executor to run on
+     * @param interval the time between the end of one run and the start of the next, for example 1 minute
+     * @return a future which can be used to stop the scheduler
+     */
+    public ScheduledFuture<?> start(ScheduledExecutorService executor, Duration interval) {
+        return executor.scheduleWithFixedDelay(this::runDue, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    int runDue(Instant now) {
+        int remapped = 0;
+        for (int batches = 0; batches < maxBatchesPerRun; batches++) {
+            List<Entry> batch = pollBatch(now);
+            if (batch.isEmpty()) {
+                break;
+            }
+            try {
+                remap(batch, now);
+            } catch (RuntimeException e) {
+                //entries already remapped were rescheduled, so their copies here no longer match dueTimes and are dropped when polled again
+                synchronized (this) {
+                    queue.addAll(batch);
+                }
+                reportError(e instanceof Uid2Exception ? (Uid2Exception) e : new Uid2Exception("error updating the identity map store", e));
+                break;
+            }
+            remapped += batch.size();
+        }
+        return remapped;
+    }
+
+    //takes up to batchSize due identities, unless fewer are due and the earliest has waited less than maxBatchDelay
+    private synchronized List<Entry> pollBatch(Instant now) {
+        List<Entry> batch = new ArrayList<>();
+        while (batch.size() < batchSize && !queue.isEmpty() && !queue.peek().due.isAfter(now)) {
+            Entry entry = queue.poll();
+            if (entry.due.equals(dueTimes.get(entry.identityType).get(entry.hashedDii))) {
+                batch.add(entry);
+            }
+        }
+        if (batch.size() < batchSize && !batch.isEmpty() && batch.get(0).due.plus(maxBatchDelay).isAfter(now)) {
+            queue.addAll(batch);
+            return Collections.emptyList();
+        }
+        return batch;
+    }
+
+    private void remap(List<Entry> batch, Instant now) {
+        IdentityMapV3Input input = new IdentityMapV3Input();
+        for (Entry entry : batch) {
+            input.withHashedDii(entry.identityType, entry.hashedDii, Collections.singletonList(entry.hashedDii));
+        }
+        IdentityMapV3Response response = identityMapClient.generateIdentityMap(input);
+
+        for (Entry entry : batch) {
+            IdentityMapV3Response.MappedIdentity current = response.getMappedIdentity(entry.hashedDii);
+            if (current != null) {
+                IdentityMapV3Response.MappedIdentity previous = store.get(entry.identityType, entry.hashedDii);
+                store.put(entry.identityType, entry.hashedDii, current);
+                synchronized (this) {
+                    if (dueTimes.get(entry.identityType).remove(entry.hashedDii, entry.due)) {
+                        schedule(entry.identityType, entry.hashedDii, nextDue(current, now));
+                    }
+                }
+                if (previous != null && !previous.getCurrentRawUid().equals(current.getCurrentRawUid())) {
+                    try {
+                        listener.onRotated(entry.identityType, entry.hashedDii, previous, current);
+                    } catch (RuntimeException e) {
+                        reportError(new Uid2Exception("IdentityMapV3ChangeListener.onRotated threw", e));
+                    }
+                }
+            } else {
+                IdentityMapV3Response.UnmappedIdentity unmapped = response.getUnmappedIdentity(entry.hashedDii);
+                store.remove(entry.identityType, entry.hashedDii);
+                untrack(entry.identityType, entry.hashedDii);
+                if (unmapped != null) {
+                    try {
+                        listener.onUnmapped(entry.identityType, entry.hashedDii, unmapped);
+                    } catch (RuntimeException e) {
+                        reportError(new Uid2Exception("IdentityMapV3ChangeListener.onUnmapped threw", e));
+                    }
+                }
+            }
+        }
+    }
+
+    //an exception from onError itself is dropped, since there is nowhere left to report it and it must not stop the scheduler
+    private void reportError(Uid2Exception e) {
+        try {
+            listener.onError(e);
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    private static Instant nextDue(IdentityMapV3Response.MappedIdentity mappedIdentity, Instant now) {
+        Instant refreshFrom = mappedIdentity.getRefreshFrom();
+        return refreshFrom != null && refreshFrom.isAfter(now) ? refreshFrom : now.plus(DEFAULT_REFRESH_INTERVAL);
+    }
+
+    //an identity may be queued more than once after being rescheduled; only the entry matching dueTimes is live
+    private void schedule(IdentityType identityType, String hashedDii, Instant due) {
+        if (!due.equals(dueTimes.get(identityType).put(hashedDii, due))) {
+            queue.add(new Entry(identityType, hashedDii, due));
+        }
+    }
+
+    private static class Entry {
+        Entry(IdentityType identityType, String hashedDii, Instant due) {
+            this.identityType = identityType;
+            this.hashedDii = hashedDii;
+            this.due = due;
+        }
+
+        final IdentityType identityType;
+        final String hashedDii;
+        final Instant due;
+    }
+
+    //used when the operator does not return a refresh time in the future, so that an identity is not remapped over and over
+    private static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofDays(1);
+
+    private final IdentityMapV3Client identityMapClient;
+    private final IdentityMapV3Store store;
+    private final IdentityMapV3ChangeListener listener;
+    private final Map<IdentityType, Map<String, Instant>> dueTimes = new EnumMap<>(IdentityType.class);
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>((a, b) -> a.due.compareTo(b.due));
+    private int batchSize = IdentityMapV3Client.DEFAULT_BATCH_SIZE;
+    private int maxBatchesPerRun = 10;
+    private Duration maxBatchDelay = Duration.ofHours(1);
+}
@@ -1,41 +1,59 @@
 package com.uid2.client;
 
-import com.google.gson.Gson;
 import com.google.gson.annotations.SerializedName;
 
+import java.io.Reader;
+import java.io.StringReader;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class IdentityMapV3Response {
     IdentityMapV3Response(String response, IdentityMapV3Input identityMapInput) {
-        ApiResponse apiResponse = new Gson().fromJson(response, ApiResponse.class);
-        status = apiResponse.status;
+        this(new StringReader(response), identityMapInput);
+    }
 
-        if (!isSuccess()) {
-            throw new Uid2Exception("Got unexpected identity map status: " + status);
-        }
+    //parses the response directly into the result maps, without building intermediate objects for every identity
+    IdentityMapV3Response(Reader response, IdentityMapV3Input identityMapInput) {
+        status = IdentityMapV3ResponseParser.parse(response, (identityType, index, currentUid, previousUid, refreshFromSeconds, error) ->
+                addResult(identityMapInput.getInputDiis(identityType, index), currentUid, previousUid, refreshFromSeconds, error));
+    }
+
+    //an empty successful response, to merge the responses for several batches into
+    IdentityMapV3Response() {
+        status = "success";
+    }
 
-        populateIdentities(apiResponse.body, identityMapInput);
+    void addAll(IdentityMapV3Response other) {
+        mappedIdentities.putAll(other.mappedIdentities);
+        unmappedIdentities.putAll(other.unmappedIdentities);
     }
 
-    private void populateIdentities(Map<String, List<ApiIdentity>> apiResponse, IdentityMapV3Input identityMapInput) {
-        for (Map.Entry<String, List<ApiIdentity>> identitiesForType : apiResponse.entrySet()) {
-            populateIdentitiesForType(identityMapInput, identitiesForType.getKey(), identitiesForType.getValue());
+    void addMapped(String rawDii, MappedIdentity mappedIdentity) {
+        mappedIdentities.put(rawDii, mappedIdentity);
+    }
+
+    void forEach(IdentityMapV3Listener listener) {
+        for (Map.Entry<String, MappedIdentity> entry : mappedIdentities.entrySet()) {
+            listener.onMapped(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, UnmappedIdentity> entry : unmappedIdentities.entrySet()) {
+            listener.onUnmapped(entry.getKey(), entry.getValue());
         }
     }
 
-    private void populateIdentitiesForType(IdentityMapV3Input identityMapInput, String identityType, List<ApiIdentity> identities) {
-        for (int i = 0; i < identities.size(); i++) {
-            ApiIdentity apiIdentity = identities.get(i);
-            List<String> inputDiis = identityMapInput.getInputDiis(identityType, i);
+    private void addResult(List<String> inputDiis, String currentUid, String previousUid, Long refreshFromSeconds, String error) {
+        if (error == null) {
+            MappedIdentity mappedIdentity = new MappedIdentity(currentUid, previousUid, refreshFromSeconds == null ? null : Instant.ofEpochSecond(refreshFromSeconds));
+            for (String inputDii : inputDiis) {
+                mappedIdentities.put(inputDii, mappedIdentity);
+            }
+        } else {
+            UnmappedIdentity unmappedIdentity = new UnmappedIdentity(error);
             for (String inputDii : inputDiis) {
-                if (apiIdentity.error == null) {
-                    mappedIdentities.put(inputDii, new MappedIdentity(apiIdentity));
-                } else {
-                    unmappedIdentities.put(inputDii, new UnmappedIdentity(apiIdentity.error));
-                }
+                unmappedIdentities.put(inputDii, unmappedIdentity);
             }
         }
     }
@@ -114,15 +132,53 @@ public class IdentityMapV3Response {
         private final String rawReason;
     }
 
+    /**
+     * @return a copy of the mapped identities, keyed by raw DII. Prefer {@link #getMappedIdentitiesView} or {@link #getMappedIdentity} to avoid copying on every call.
+     */
     public HashMap<String, MappedIdentity> getMappedIdentities() {
         return new HashMap<>(mappedIdentities);
     }
 
+    /**
+     * @return a copy of the unmapped identities, keyed by raw DII. Prefer {@link #getUnmappedIdentitiesView} or {@link #getUnmappedIdentity} to avoid copying on every call.
+     */
     public HashMap<String, UnmappedIdentity> getUnmappedIdentities() {
         return new HashMap<>(unmappedIdentities);
     }
 
+    /**
+     * @return a read-only view of the mapped identities, keyed by the email or phone number as it was provided in the input
+     */
+    public Map<String, MappedIdentity> getMappedIdentitiesView() {
+        return mappedIdentitiesView;
+    }
+
+    /**
+     * @return a read-only view of the unmapped identities, keyed by the email or phone number as it was provided in the input
+     */
+    public Map<String, UnmappedIdentity> getUnmappedIdentitiesView() {
+        return unmappedIdentitiesView;
+    }
+
+    /**
+     * @param rawDii an email or phone number as it was provided in the input
+     * @return the mapped identity for rawDii, or null if it was not mapped
+     */
+    public MappedIdentity getMappedIdentity(String rawDii) {
+        return mappedIdentities.get(rawDii);
+    }
+
+    /**
+     * @param rawDii an email or phone number as it was provided in the input
+     * @return the unmapped identity for rawDii, or null if it was mapped
+     */
+    public UnmappedIdentity getUnmappedIdentity(String rawDii) {
+        return unmappedIdentities.get(rawDii);
+    }
+
     private final String status;
     private final HashMap<String, MappedIdentity> mappedIdentities = new HashMap<>();
     private final HashMap<String, UnmappedIdentity> unmappedIdentities = new HashMap<>();
+    private final Map<String, MappedIdentity> mappedIdentitiesView = Collections.unmodifiableMap(mappedIdentities);
+    private final Map<String, UnmappedIdentity> unmappedIdentitiesView = Collections.unmodifiableMap(unmappedIdentities);
 }
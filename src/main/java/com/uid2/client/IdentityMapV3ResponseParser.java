@@ -0,0 +1,94 @@
+package com.uid2.client;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+//reads a decrypted /v3/identity/map response with a JsonReader, passing each result to a handler by identity type and position,
+//so that callers can store results however suits them without intermediate objects
+class IdentityMapV3ResponseParser {
+    interface ResultHandler {
+        /**
+         * @param identityType       the name of the array the result is in, such as "email_hash"
+         * @param index              the position of the result in that array, which matches the position of the DII in the request
+         * @param refreshFromSeconds the refresh time in epoch seconds, or null
+         * @param error              the reason the DII was not mapped, or null if it was mapped
+         */
+        void onResult(String identityType, int index, String currentUid, String previousUid, Long refreshFromSeconds, String error);
+    }
+
+    /**
+     * @return the response status
+     * @throws Uid2Exception if the response could not be parsed, or the status was not "success"
+     */
+    static String parse(Reader response, ResultHandler handler) {
+        String status = null;
+        try {
+            JsonReader reader = new JsonReader(response);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("status") && reader.peek() == JsonToken.STRING) {
+                    status = reader.nextString();
+                } else if (name.equals("body") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readBody(reader, handler);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            throw new Uid2Exception("Unable to parse identity map response", e);
+        }
+
+        if (!"success".equals(status)) {
+            throw new Uid2Exception("Got unexpected identity map status: " + status);
+        }
+        return status;
+    }
+
+    private static void readBody(JsonReader reader, ResultHandler handler) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String identityType = reader.nextName();
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            for (int i = 0; reader.hasNext(); i++) {
+                readIdentity(reader, identityType, i, handler);
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    private static void readIdentity(JsonReader reader, String identityType, int index, ResultHandler handler) throws IOException {
+        String currentUid = null;
+        String previousUid = null;
+        Long refreshFromSeconds = null;
+        String error = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "u": currentUid = reader.nextString(); break;
+                case "p": previousUid = reader.nextString(); break;
+                case "r": refreshFromSeconds = reader.nextLong(); break;
+                case "e": error = reader.nextString(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        handler.onResult(identityType, index, currentUid, previousUid, refreshFromSeconds, error);
+    }
+}
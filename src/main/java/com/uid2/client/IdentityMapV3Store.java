@@ -0,0 +1,28 @@
+package com.uid2.client;
+
+/**
+ * Holds raw UIDs between calls to {@link CachingIdentityMapV3Client}, keyed by identity type and hashed DII.
+ * Implementations must be safe to call from several threads. See {@link InMemoryIdentityMapV3Store} and {@link FileIdentityMapV3Store}.
+ */
+public interface IdentityMapV3Store {
+    /**
+     * @param identityType whether hashedDii is a hashed email or a hashed phone number
+     * @param hashedDii    a normalized and hashed email or phone number
+     * @return the last mapped identity stored for hashedDii, or null if there is none
+     */
+    IdentityMapV3Response.MappedIdentity get(IdentityType identityType, String hashedDii);
+
+    /**
+     * @param identityType   whether hashedDii is a hashed email or a hashed phone number
+     * @param hashedDii      a normalized and hashed email or phone number
+     * @param mappedIdentity the mapped identity the operator returned for hashedDii, replacing any stored one
+     */
+    void put(IdentityType identityType, String hashedDii, IdentityMapV3Response.MappedIdentity mappedIdentity);
+
+    /**
+     * Called when the operator no longer maps hashedDii, for example because the user opted out.
+     * @param identityType whether hashedDii is a hashed email or a hashed phone number
+     * @param hashedDii    a normalized and hashed email or phone number
+     */
+    void remove(IdentityType identityType, String hashedDii);
+}
@@ -0,0 +1,136 @@
+package com.uid2.client;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * A source of emails or phone numbers for {@link IdentityMapV3Client#generateIdentityMap(IdentityMapV3StreamInput, IdentityMapV3Listener)}.
+ * DIIs are pulled from the iterator only as request slots become free, so memory use is proportional to batchSize * maxConcurrentRequests rather than to the number of DIIs.
+ */
+public class IdentityMapV3StreamInput {
+    /**
+     * @param emails normalized or unnormalized email addresses
+     * @return an IdentityMapV3StreamInput instance
+     */
+    public static IdentityMapV3StreamInput fromEmails(Iterator<String> emails) {
+        return new IdentityMapV3StreamInput(emails, IdentityMapV3Input::withEmail);
+    }
+
+    /**
+     * @param emails normalized or unnormalized email addresses. The stream is consumed lazily.
+     * @return an IdentityMapV3StreamInput instance
+     */
+    public static IdentityMapV3StreamInput fromEmails(Stream<String> emails) {
+        return fromEmails(emails.iterator());
+    }
+
+    /**
+     * @param hashedEmails <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-hash-encoding">hashed</a> email addresses
+     * @return an IdentityMapV3StreamInput instance
+     */
+    public static IdentityMapV3StreamInput fromHashedEmails(Iterator<String> hashedEmails) {
+        return new IdentityMapV3StreamInput(hashedEmails, IdentityMapV3Input::withHashedEmail);
+    }
+
+    /**
+     * @param hashedEmails <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#email-address-hash-encoding">hashed</a> email addresses. The stream is consumed lazily.
+     * @return an IdentityMapV3StreamInput instance
+     */
+    public static IdentityMapV3StreamInput fromHashedEmails(Stream<String> hashedEmails) {
+        return fromHashedEmails(hashedEmails.iterator());
+    }
+
+    /**
+     * @param phones <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> phone numbers
+     * @return an IdentityMapV3StreamInput instance
+     */
+    public static IdentityMapV3StreamInput fromPhones(Iterator<String> phones) {
+        return new IdentityMapV3StreamInput(phones, IdentityMapV3Input::withPhone);
+    }
+
+    /**
+     * @param phones <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> phone numbers. The stream is consumed lazily.
+     * @return an IdentityMapV3StreamInput instance
+     */
+    public static IdentityMapV3StreamInput fromPhones(Stream<String> phones) {
+        return fromPhones(phones.iterator());
+    }
+
+    /**
+     * @param hashedPhones <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-hash-encoding">hashed</a> phone numbers
+     * @return an IdentityMapV3StreamInput instance
+     */
+    public static IdentityMapV3StreamInput fromHashedPhones(Iterator<String> hashedPhones) {
+        return new IdentityMapV3StreamInput(hashedPhones, IdentityMapV3Input::withHashedPhone);
+    }
+
+    /**
+     * @param hashedPhones <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-normalization">normalized</a> and <a href="https://unifiedid.com/docs/getting-started/gs-normalization-encoding#phone-number-hash-encoding">hashed</a> phone numbers. The stream is consumed lazily.
+     * @return an IdentityMapV3StreamInput instance
+     */
+    public static IdentityMapV3StreamInput fromHashedPhones(Stream<String> hashedPhones) {
+        return fromHashedPhones(hashedPhones.iterator());
+    }
+
+    /**
+     * @param batchSize the maximum number of DIIs sent in each request. Defaults to {@link IdentityMapV3Client#DEFAULT_BATCH_SIZE}.
+     * @return this IdentityMapV3StreamInput instance
+     */
+    public IdentityMapV3StreamInput withBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param maxConcurrentRequests the maximum number of requests in flight at once. Defaults to 4.
+     * @return this IdentityMapV3StreamInput instance
+     */
+    public IdentityMapV3StreamInput withMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be at least 1");
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
+
+    int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    //each call to next() pulls up to batchSize DIIs from the source
+    Iterator<IdentityMapV3Input> batches() {
+        return new Iterator<IdentityMapV3Input>() {
+            @Override
+            public boolean hasNext() {
+                return diis.hasNext();
+            }
+
+            @Override
+            public IdentityMapV3Input next() {
+                if (!diis.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                IdentityMapV3Input batch = new IdentityMapV3Input();
+                for (int i = 0; i < batchSize && diis.hasNext(); i++) {
+                    adder.accept(batch, diis.next());
+                }
+                return batch;
+            }
+        };
+    }
+
+    private IdentityMapV3StreamInput(Iterator<String> diis, BiConsumer<IdentityMapV3Input, String> adder) {
+        this.diis = diis;
+        this.adder = adder;
+    }
+
+    private final Iterator<String> diis;
+    private final BiConsumer<IdentityMapV3Input, String> adder;
+    private int batchSize = IdentityMapV3Client.DEFAULT_BATCH_SIZE;
+    private int maxConcurrentRequests = 4;
+}
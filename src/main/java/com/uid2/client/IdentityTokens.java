@@ -1,10 +1,7 @@
 package com.uid2.client;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonSyntaxException;
-
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Objects;
 
@@ -17,13 +14,57 @@ public class IdentityTokens {
   static public IdentityTokens fromJsonString(String jsonString) {
     Objects.requireNonNull(jsonString, "jsonString must not be null");
 
-    try {
-      return fromJson(new Gson().fromJson(jsonString, JsonObject.class));
-    } catch (JsonSyntaxException e) {
-      throw new Uid2Exception("invalid json string", e);
-    } catch (NullPointerException e) {
-      throw new Uid2Exception("missing field in json string", e);
+    return JsonCodecs.readIdentity(jsonString);
+  }
+
+  /**
+   * Creates an IdentityTokens instance from the compact binary form returned by {@link #toBytes}. Only the timestamps are read here; the tokens are
+   * decoded when first used, so checking {@link #isDueForRefresh} or {@link #isRefreshable} on a stored session does not allocate any strings.
+   * @param bytes the result of a previous call to {@link #toBytes}. Typically, this is stored in the user's session.
+   * @return an IdentityTokens instance
+   * @throws Uid2Exception if bytes is not a supported encoding
+   */
+  static public IdentityTokens fromBytes(byte[] bytes) {
+    Objects.requireNonNull(bytes, "bytes must not be null");
+    if (bytes.length < BINARY_HEADER_LENGTH + 3 * 2 || bytes[0] != BINARY_VERSION) {
+      throw new Uid2Exception("unsupported identity encoding");
+    }
+    int pos = BINARY_HEADER_LENGTH;
+    for (int i = 0; i < 3; i++) {
+      if (pos + 2 > bytes.length) {
+        throw new Uid2Exception("truncated identity encoding");
+      }
+      int length = getUnsignedShort(bytes, pos);
+      pos += 2 + (length == NULL_STRING_LENGTH ? 0 : length);
     }
+    if (pos != bytes.length) {
+      throw new Uid2Exception("truncated identity encoding");
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    return new IdentityTokens(bytes, buffer.getLong(1), buffer.getLong(9), buffer.getLong(17));
+  }
+
+  /**
+   * Encodes this identity in a compact, versioned binary form, which can be stored in the user's session instead of {@link #getJsonString} and read back
+   * with {@link #fromBytes}. Fields in the JSON which this class does not model are not kept.
+   * @return the encoded identity
+   */
+  public byte[] toBytes() {
+    if (encoded != null) {
+      return encoded.clone();
+    }
+    byte[] advertisingTokenBytes = encodeString(advertisingToken);
+    byte[] refreshTokenBytes = encodeString(refreshToken);
+    byte[] refreshResponseKeyBytes = encodeString(refreshResponseKey);
+    ByteBuffer buffer = ByteBuffer.allocate(BINARY_HEADER_LENGTH + 3 * 2 + length(advertisingTokenBytes) + length(refreshTokenBytes) + length(refreshResponseKeyBytes));
+    buffer.put(BINARY_VERSION);
+    buffer.putLong(identityExpiresMillis);
+    buffer.putLong(refreshExpiresMillis);
+    buffer.putLong(refreshFromMillis);
+    putString(buffer, advertisingTokenBytes);
+    putString(buffer, refreshTokenBytes);
+    putString(buffer, refreshResponseKeyBytes);
+    return buffer.array();
   }
 
   /**
@@ -36,92 +77,155 @@ public class IdentityTokens {
   /**
    * @return the advertising token. This token can be sent to the SSP for bidding.
    */
-  public String getAdvertisingToken() { return advertisingToken; }
+  public String getAdvertisingToken() { decodeStrings(); return advertisingToken; }
 
   /**
    * @return the refresh token. This is used as the POST body in <a href="https://unifiedid.com/docs/endpoints/post-token-refresh">/token/refresh</a>
    */
-  public String getRefreshToken() { return refreshToken; }
+  public String getRefreshToken() { decodeStrings(); return refreshToken; }
 
   /**
    * @return the identity as represented by a JSON string. This should be sent back to the client if using <a href="https://unifiedid.com/docs/guides/publisher-client-side">standard integration</a>,
    * or stored in the user's session if using <a href="https://unifiedid.com/docs/guides/custom-publisher-integration">Server-Only integration.</a>
    */
-  public String getJsonString() {return jsonString;} //this ensures we make newly added fields available, even before this class is updated.
+  public String getJsonString() { //this ensures we make newly added fields available, even before this class is updated.
+    if (jsonString == null) {
+      jsonString = JsonCodecs.writeIdentity(this); //decoded from toBytes(), which only keeps the fields modelled here
+    }
+    return jsonString;
+  }
 
   /**
    * @return whether the identity is refreshable. If false, the refresh token has expired. This means the identity should be removed from the user's session and must no longer be used.
    */
   public boolean isRefreshable() { return isRefreshableImpl(Instant.now()); }
 
-  static IdentityTokens fromJson(JsonObject json) {
-    return new IdentityTokens(getJsonString(json, "advertising_token"), getJsonString(json, "refresh_token"), getRefreshResponseKey(json),
-            getInstant(json, "identity_expires"), getInstant(json, "refresh_expires"), getInstant(json, "refresh_from"), json.toString());
-  }
-
-
   boolean isRefreshableImpl(Instant timestamp) {
-    Instant refreshExpires = getRefreshExpires();
-    if (refreshExpires == null || timestamp.isAfter(refreshExpires)) {
+    if (isAfter(timestamp, refreshExpiresMillis)) {
       return false;
     }
+    if (encoded != null && !stringsDecoded) {
+      //reads the refresh token's length, which follows the advertising token, rather than decoding it
+      int advertisingTokenLength = getUnsignedShort(encoded, BINARY_HEADER_LENGTH);
+      int refreshTokenPos = BINARY_HEADER_LENGTH + 2 + (advertisingTokenLength == NULL_STRING_LENGTH ? 0 : advertisingTokenLength);
+      return getUnsignedShort(encoded, refreshTokenPos) != NULL_STRING_LENGTH;
+    }
     return getRefreshToken() != null;
   }
 
 
   boolean isDueForRefreshImpl(Instant timestamp) {
-    return timestamp.isAfter(getRefreshFrom()) || hasIdentityExpired(timestamp);
+    return isAfter(timestamp, refreshFromMillis) || hasIdentityExpired(timestamp);
   }
 
   boolean hasIdentityExpired(Instant timestamp) {
-    return timestamp.isAfter(getIdentityExpires());
+    return isAfter(timestamp, identityExpiresMillis);
   }
 
-  String getRefreshResponseKey() { return refreshResponseKey; }
+  String getRefreshResponseKey() { decodeStrings(); return refreshResponseKey; }
 
-  Instant getIdentityExpires() { return identityExpires; } //indicates when the advertising token expires
+  Instant getIdentityExpires() { return Instant.ofEpochMilli(identityExpiresMillis); } //indicates when the advertising token expires
 
-  Instant getRefreshExpires() { return refreshExpires; } //indicates when the refresh token expires
+  Instant getRefreshExpires() { return Instant.ofEpochMilli(refreshExpiresMillis); } //indicates when the refresh token expires
 
-  Instant getRefreshFrom() { return refreshFrom; }
+  Instant getRefreshFrom() { return Instant.ofEpochMilli(refreshFromMillis); }
 
 
-  private IdentityTokens(String advertisingToken, String refreshToken, String refreshResponseKey, Instant identityExpires,
-                        Instant refreshExpires, Instant refreshFrom, String jsonString) {
+  IdentityTokens(String advertisingToken, String refreshToken, String refreshResponseKey, long identityExpiresMillis,
+                 long refreshExpiresMillis, long refreshFromMillis, String jsonString) {
     this.advertisingToken = advertisingToken;
     this.refreshToken = refreshToken;
-    this.identityExpires = identityExpires;
-    this.refreshExpires = refreshExpires;
-    this.refreshFrom = refreshFrom;
+    this.identityExpiresMillis = identityExpiresMillis;
+    this.refreshExpiresMillis = refreshExpiresMillis;
+    this.refreshFromMillis = refreshFromMillis;
     this.refreshResponseKey = refreshResponseKey;
     this.jsonString = jsonString;
+    this.encoded = null;
     //note we are intentionally skipping user_token as that is likely to be deprecated
   }
 
-  static private Instant getInstant(JsonObject json, String key) {
-    return Instant.ofEpochMilli(json.get(key).getAsLong());
+  private IdentityTokens(byte[] encoded, long identityExpiresMillis, long refreshExpiresMillis, long refreshFromMillis) {
+    this.encoded = encoded;
+    this.identityExpiresMillis = identityExpiresMillis;
+    this.refreshExpiresMillis = refreshExpiresMillis;
+    this.refreshFromMillis = refreshFromMillis;
   }
-  static private String getJsonString(JsonObject json, String key) {
-    JsonElement keyElem = json.get(key);
-    return keyElem.getAsString();
+
+  //equivalent to timestamp.isAfter(Instant.ofEpochMilli(epochMilli)), without creating the Instant
+  private static boolean isAfter(Instant timestamp, long epochMilli) {
+    long epochSecond = Math.floorDiv(epochMilli, 1000);
+    if (timestamp.getEpochSecond() != epochSecond) {
+      return timestamp.getEpochSecond() > epochSecond;
+    }
+    return timestamp.getNano() > Math.floorMod(epochMilli, 1000) * 1_000_000;
   }
 
-  static private String getRefreshResponseKey(JsonObject json) {
-    JsonElement keyElem = json.get("refresh_response_key");
-    if (keyElem == null) {
-      return null; //temporary to allow saved v1 sessions
+  //the strings of an identity created by fromBytes are decoded on first use; decoding twice on different threads is harmless
+  private void decodeStrings() {
+    if (encoded == null || stringsDecoded) {
+      return;
     }
-    return keyElem.getAsString();
+    ByteBuffer buffer = ByteBuffer.wrap(encoded);
+    buffer.position(BINARY_HEADER_LENGTH);
+    advertisingToken = getString(buffer);
+    refreshToken = getString(buffer);
+    refreshResponseKey = getString(buffer);
+    stringsDecoded = true;
   }
 
+  private static byte[] encodeString(String value) {
+    if (value == null) {
+      return null;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length >= NULL_STRING_LENGTH) {
+      throw new Uid2Exception("token is too long to encode");
+    }
+    return bytes;
+  }
+
+  private static int getUnsignedShort(byte[] bytes, int pos) {
+    return (bytes[pos] & 0xFF) << 8 | (bytes[pos + 1] & 0xFF);
+  }
+
+  private static int length(byte[] bytes) {
+    return bytes == null ? 0 : bytes.length;
+  }
+
+  private static void putString(ByteBuffer buffer, byte[] bytes) {
+    if (bytes == null) {
+      buffer.putShort((short) NULL_STRING_LENGTH);
+    } else {
+      buffer.putShort((short) bytes.length);
+      buffer.put(bytes);
+    }
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    int length = buffer.getShort() & 0xFFFF;
+    if (length == NULL_STRING_LENGTH) {
+      return null;
+    }
+    String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return value;
+  }
 
-  private final String advertisingToken;
-  private final String refreshToken;
-  private final String refreshResponseKey;
-  private final Instant identityExpires;
-  private final Instant refreshExpires;
-  private final Instant refreshFrom;
-  private final String jsonString;
+  //binary form: version, identity_expires, refresh_expires and refresh_from as big-endian epoch millis, then advertising token, refresh token and
+  //refresh response key, each as an unsigned 16-bit length followed by UTF-8 (0xFFFF for null)
+  private static final byte BINARY_VERSION = 1;
+  private static final int BINARY_HEADER_LENGTH = 1 + 3 * 8;
+  private static final int NULL_STRING_LENGTH = 0xFFFF;
+
+  private String advertisingToken;
+  private String refreshToken;
+  private String refreshResponseKey;
+  private final long identityExpiresMillis;
+  private final long refreshExpiresMillis;
+  private final long refreshFromMillis;
+  private String jsonString;
+  private final byte[] encoded; //set when created by fromBytes
+  private volatile boolean stringsDecoded; //written after the strings, so that a thread which sees it set also sees them
 
 }
 
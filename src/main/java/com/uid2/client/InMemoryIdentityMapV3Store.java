@@ -0,0 +1,43 @@
+package com.uid2.client;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An {@link IdentityMapV3Store} which keeps every mapped identity in memory. Its contents are lost when the process exits.
+ */
+public class InMemoryIdentityMapV3Store implements IdentityMapV3Store {
+    @Override
+    public IdentityMapV3Response.MappedIdentity get(IdentityType identityType, String hashedDii) {
+        return getMap(identityType).get(hashedDii);
+    }
+
+    @Override
+    public void put(IdentityType identityType, String hashedDii, IdentityMapV3Response.MappedIdentity mappedIdentity) {
+        getMap(identityType).put(hashedDii, mappedIdentity);
+    }
+
+    @Override
+    public void remove(IdentityType identityType, String hashedDii) {
+        getMap(identityType).remove(hashedDii);
+    }
+
+    /**
+     * @return the number of hashed emails and phone numbers in this store
+     */
+    public int size() {
+        return emails.size() + phones.size();
+    }
+
+    Set<Map.Entry<String, IdentityMapV3Response.MappedIdentity>> getEntries(IdentityType identityType) {
+        return getMap(identityType).entrySet();
+    }
+
+    private ConcurrentHashMap<String, IdentityMapV3Response.MappedIdentity> getMap(IdentityType identityType) {
+        return identityType == IdentityType.Email ? emails : phones;
+    }
+
+    private final ConcurrentHashMap<String, IdentityMapV3Response.MappedIdentity> emails = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, IdentityMapV3Response.MappedIdentity> phones = new ConcurrentHashMap<>();
+}
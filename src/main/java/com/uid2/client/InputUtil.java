@@ -1,7 +1,17 @@
 package com.uid2.client;
 
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class InputUtil { //from https://github.com/IABTechLab/uid2-operator/blob/master/src/main/java/com/uid2/operator/service/InputUtil.java
   /**
@@ -34,11 +44,94 @@ public class InputUtil { //from https://github.com/IABTechLab/uid2-operator/blob
   }
 
   public static String normalizeAndHashEmail(String unnormalizedEmail) {
-    String normalizedEmail = InputUtil.normalizeEmailString(unnormalizedEmail);
-    if (normalizedEmail == null) {
+    String hashedEmail = InputUtil.normalizeAndHashEmailOrNull(unnormalizedEmail);
+    if (hashedEmail == null) {
       throw new IllegalArgumentException("invalid email address: " + unnormalizedEmail);
     }
-    return InputUtil.getBase64EncodedHash(normalizedEmail);
+    return hashedEmail;
+  }
+
+  //single pass equivalent of getBase64EncodedHash(normalizeEmailString(email)), working in per-thread scratch buffers. Returns null for an invalid email.
+  static String normalizeAndHashEmailOrNull(String email) {
+    Scratch scratch = SCRATCH.get();
+    int length = normalizeEmail(email, scratch);
+    return length < 0 ? null : getBase64EncodedHash(scratch, scratch.chars, length);
+  }
+
+  //writes the SHA-256 of the normalized email to digest[offset, offset + 32), returning false without writing if the email is invalid
+  static boolean normalizeAndHashEmail(String email, byte[] digest, int offset) {
+    Scratch scratch = SCRATCH.get();
+    int length = normalizeEmail(email, scratch);
+    if (length < 0) {
+      return false;
+    }
+    getSha256(scratch, scratch.chars, length, digest, offset);
+    return true;
+  }
+
+  //writes the normalized email into scratch.chars, returning its length or -1 if the email is invalid
+  private static int normalizeEmail(String email, Scratch scratch) {
+    char[] chars = scratch.chars(email.length());
+    int length = 0;
+    int localLength = -1; //the position of '@' once it has been seen
+    int pendingSpaces = 0;
+
+    for (int i = 0; i < email.length(); ++i) {
+      char c = email.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        c = (char) (c + 32);
+      }
+
+      if (localLength < 0) {
+        //spaces anywhere before the '@' are dropped
+        if (c == '@') {
+          localLength = length;
+          chars[length++] = '@';
+        } else if (c != ' ') {
+          chars[length++] = c;
+        }
+      } else if (c == '@') {
+        return -1;
+      } else if (c == ' ') {
+        ++pendingSpaces; //spaces inside the domain are kept, trailing ones are dropped
+      } else {
+        for (; pendingSpaces > 0; --pendingSpaces) {
+          chars[length++] = ' ';
+        }
+        chars[length++] = c;
+      }
+    }
+
+    int domainLength = length - localLength - 1;
+    if (localLength < 0 || domainLength == 0) {
+      return -1;
+    }
+    if (isGmailDomain(chars, localLength + 1, domainLength)) {
+      //gmail ignores dots, and everything from the first '+'
+      int specializedLength = 0;
+      for (int i = 0; i < localLength && chars[i] != '+'; ++i) {
+        if (chars[i] != '.') {
+          chars[specializedLength++] = chars[i];
+        }
+      }
+      System.arraycopy(chars, localLength, chars, specializedLength, domainLength + 1);
+      length = specializedLength + 1 + domainLength;
+      localLength = specializedLength;
+    }
+    return localLength == 0 ? -1 : length;
+  }
+
+  private static boolean isGmailDomain(char[] chars, int offset, int length) {
+    final String GMAILDOMAIN = "gmail.com";
+    if (length != GMAILDOMAIN.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; ++i) {
+      if (chars[offset + i] != GMAILDOMAIN.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
   }
 
 
@@ -135,18 +228,149 @@ public class InputUtil { //from https://github.com/IABTechLab/uid2-operator/blob
 
 
   static String getBase64EncodedHash(String input) {
-    return byteArrayToBase64(getSha256Bytes(input));
+    Scratch scratch = SCRATCH.get();
+    char[] chars = scratch.chars(input.length());
+    input.getChars(0, input.length(), chars, 0);
+    return getBase64EncodedHash(scratch, chars, input.length());
   }
 
   static byte[] getSha256Bytes(String input) {
+    MessageDigest md = SHA256.get();
+    md.update(input.getBytes(StandardCharsets.UTF_8));
+    return md.digest(); //digest() also resets md for the next caller on this thread
+  }
+
+  //writes the SHA-256 of input's UTF-8 bytes to digest[offset, offset + 32)
+  static void getSha256(String input, byte[] digest, int offset) {
+    Scratch scratch = SCRATCH.get();
+    char[] chars = scratch.chars(input.length());
+    input.getChars(0, input.length(), chars, 0);
+    getSha256(scratch, chars, input.length(), digest, offset);
+  }
+
+  //hashes chars and Base64 encodes the digest within the scratch area; only the returned String is allocated
+  private static String getBase64EncodedHash(Scratch scratch, char[] chars, int length) {
+    getSha256(scratch, chars, length, scratch.digest, 0);
+    byte[] bytes = scratch.bytes(BASE64_SHA256_LENGTH);
+    int encodedLength = writeBase64(scratch.digest, 0, SHA256_LENGTH, bytes, 0);
+    return new String(bytes, 0, encodedLength, StandardCharsets.US_ASCII);
+  }
+
+  //UTF-8 encodes chars into the scratch area and hashes them with this thread's MessageDigest
+  private static void getSha256(Scratch scratch, char[] chars, int length, byte[] digest, int offset) {
+    byte[] bytes = scratch.bytes(length * 3);
+    int byteLength = encodeUtf8(chars, length, bytes);
+    MessageDigest md = SHA256.get();
+    md.update(bytes, 0, byteLength);
     try {
-      MessageDigest md = MessageDigest.getInstance("SHA-256");
-      md.update(input.getBytes());
-      return md.digest();
-    } catch (Exception e) {
+      md.digest(digest, offset, SHA256_LENGTH);
+    } catch (DigestException e) {
       throw new Uid2Exception("Trouble Generating SHA256", e);
     }
   }
-}
 
+  //the same bytes as String.getBytes(UTF_8), which replaces unpaired surrogates with '?'
+  private static int encodeUtf8(char[] chars, int length, byte[] bytes) {
+    int pos = 0;
+    for (int i = 0; i < length; ++i) {
+      char c = chars[i];
+      if (c < 0x80) {
+        bytes[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[pos++] = (byte) (0xC0 | (c >> 6));
+        bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+        int codePoint = Character.toCodePoint(c, chars[++i]);
+        bytes[pos++] = (byte) (0xF0 | (codePoint >> 18));
+        bytes[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        bytes[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        bytes[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        bytes[pos++] = '?';
+      } else {
+        bytes[pos++] = (byte) (0xE0 | (c >> 12));
+        bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return pos;
+  }
+
+  //standard Base64 with padding, written into buffer at pos; returns the position after it
+  static int writeBase64(byte[] source, int offset, int length, byte[] buffer, int pos) {
+    int end = offset + length - length % 3;
+    for (; offset < end; offset += 3) {
+      int bits = (source[offset] & 0xFF) << 16 | (source[offset + 1] & 0xFF) << 8 | (source[offset + 2] & 0xFF);
+      buffer[pos++] = BASE64[bits >>> 18];
+      buffer[pos++] = BASE64[(bits >>> 12) & 0x3F];
+      buffer[pos++] = BASE64[(bits >>> 6) & 0x3F];
+      buffer[pos++] = BASE64[bits & 0x3F];
+    }
+    if (length % 3 != 0) {
+      int bits = (source[offset] & 0xFF) << 16 | (length % 3 == 2 ? (source[offset + 1] & 0xFF) << 8 : 0);
+      buffer[pos++] = BASE64[bits >>> 18];
+      buffer[pos++] = BASE64[(bits >>> 12) & 0x3F];
+      buffer[pos++] = length % 3 == 2 ? BASE64[(bits >>> 6) & 0x3F] : (byte) '=';
+      buffer[pos++] = '=';
+    }
+    return pos;
+  }
+
+  //Normalizes (emails only) and hashes every DII on pool, returning the hashes in input order.
+  //Fails with the same IllegalArgumentException the one-at-a-time builders throw, for the first invalid DII in input order.
+  static List<String> normalizeAndHashAll(Collection<String> diis, boolean isEmail, ForkJoinPool pool) {
+    final List<String> input = diis instanceof RandomAccess && diis instanceof List ? (List<String>) diis : new ArrayList<>(diis);
+    final String[] hashes = new String[input.size()];
+    pool.submit(() -> IntStream.range(0, hashes.length).parallel().forEach(i -> hashes[i] = normalizeAndHashOrNull(input.get(i), isEmail))).join();
+
+    for (int i = 0; i < hashes.length; ++i) {
+      if (hashes[i] == null) {
+        throw new IllegalArgumentException(isEmail ? "invalid email address: " + input.get(i) : "phone number is not normalized: " + input.get(i));
+      }
+    }
+    return Arrays.asList(hashes);
+  }
 
+  private static String normalizeAndHashOrNull(String dii, boolean isEmail) {
+    if (isEmail) {
+      return normalizeAndHashEmailOrNull(dii);
+    }
+    return isPhoneNumberNormalized(dii) ? getBase64EncodedHash(dii) : null;
+  }
+
+  //MessageDigest.getInstance is comparatively expensive and instances are not thread safe, so each thread keeps its own
+  private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new Uid2Exception("Trouble Generating SHA256", e);
+    }
+  });
+
+  //per-thread buffers reused by every normalization and hash on that thread, grown as longer inputs are seen
+  private static class Scratch {
+    char[] chars(int length) {
+      if (chars.length < length) {
+        chars = new char[Math.max(length, chars.length * 2)];
+      }
+      return chars;
+    }
+
+    byte[] bytes(int length) {
+      int needed = Math.max(length, BASE64_SHA256_LENGTH);
+      if (bytes.length < needed) {
+        bytes = new byte[Math.max(needed, bytes.length * 2)];
+      }
+      return bytes;
+    }
+
+    private char[] chars = new char[256];
+    private byte[] bytes = new byte[768];
+    final byte[] digest = new byte[SHA256_LENGTH];
+  }
+
+  private static final int SHA256_LENGTH = 32;
+  private static final int BASE64_SHA256_LENGTH = 44;
+  private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+  private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+}
@@ -0,0 +1,146 @@
+package com.uid2.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//writes a JSON object whose members are all arrays of strings, such as an identity map request, as UTF-8 straight into an envelope buffer.
+//The exact length is computed first, so no intermediate String or byte[] is built. An array may be made of several lists, written one after the other.
+class JsonArraysPayloadWriter implements Uid2Helper.PayloadWriter {
+    @SafeVarargs
+    final JsonArraysPayloadWriter withArray(String name, List<String>... parts) {
+        names.add(name);
+        arrays.add(parts);
+        length = -1;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        if (length < 0) {
+            int total = 2; // {}
+            for (int i = 0; i < names.size(); i++) {
+                total += (i == 0 ? 0 : 1) + stringLength(names.get(i)) + 1 + 2; // ,"name":[]
+                int elements = 0;
+                for (List<String> values : arrays.get(i)) {
+                    elements += values.size();
+                    if (values instanceof PackedHashes) {
+                        total += values.size() * (PackedHashes.BASE64_LENGTH + 2);
+                    } else {
+                        for (String value : values) {
+                            total += stringLength(value);
+                        }
+                    }
+                }
+                total += Math.max(0, elements - 1); // commas
+            }
+            length = total;
+        }
+        return length;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset) {
+        int pos = offset;
+        buffer[pos++] = '{';
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                buffer[pos++] = ',';
+            }
+            pos = writeString(buffer, pos, names.get(i));
+            buffer[pos++] = ':';
+            buffer[pos++] = '[';
+            boolean first = true;
+            for (List<String> values : arrays.get(i)) {
+                for (int j = 0; j < values.size(); j++) {
+                    if (!first) {
+                        buffer[pos++] = ',';
+                    }
+                    first = false;
+                    if (values instanceof PackedHashes) {
+                        buffer[pos++] = '"';
+                        pos = ((PackedHashes) values).writeBase64(j, buffer, pos);
+                        buffer[pos++] = '"';
+                    } else {
+                        pos = writeString(buffer, pos, values.get(j));
+                    }
+                }
+            }
+            buffer[pos++] = ']';
+        }
+        buffer[pos] = '}';
+    }
+
+    //the length of value as a quoted, escaped JSON string in UTF-8. Unpaired surrogates are written as '?', as String.getBytes does
+    private static int stringLength(String value) {
+        int total = 2;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f') {
+                total += 2;
+            } else if (c < 0x20) {
+                total += 6;
+            } else if (c < 0x80) {
+                total += 1;
+            } else if (c < 0x800) {
+                total += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                total += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                total += 1;
+            } else {
+                total += 3;
+            }
+        }
+        return total;
+    }
+
+    private static int writeString(byte[] buffer, int pos, String value) {
+        buffer[pos++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': buffer[pos++] = '\\'; buffer[pos++] = '"'; continue;
+                case '\\': buffer[pos++] = '\\'; buffer[pos++] = '\\'; continue;
+                case '\n': buffer[pos++] = '\\'; buffer[pos++] = 'n'; continue;
+                case '\r': buffer[pos++] = '\\'; buffer[pos++] = 'r'; continue;
+                case '\t': buffer[pos++] = '\\'; buffer[pos++] = 't'; continue;
+                case '\b': buffer[pos++] = '\\'; buffer[pos++] = 'b'; continue;
+                case '\f': buffer[pos++] = '\\'; buffer[pos++] = 'f'; continue;
+            }
+            if (c < 0x20) {
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'u';
+                buffer[pos++] = '0';
+                buffer[pos++] = '0';
+                buffer[pos++] = (byte) HEX[c >> 4];
+                buffer[pos++] = (byte) HEX[c & 0xF];
+            } else if (c < 0x80) {
+                buffer[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[pos++] = (byte) (0xC0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[pos++] = '?';
+            } else {
+                buffer[pos++] = (byte) (0xE0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buffer[pos++] = '"';
+        return pos;
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final List<String> names = new ArrayList<>();
+    private final List<List<String>[]> arrays = new ArrayList<>();
+    private int length = -1;
+}
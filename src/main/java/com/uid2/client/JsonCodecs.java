@@ -0,0 +1,345 @@
+package com.uid2.client;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+//hand-written readers and writers for the JSON sent to and received from the operator. They work on Gson's streaming API directly, so no Gson
+//instance, type reflection or JsonElement tree is created per call. The adapters hold no state and are shared.
+final class JsonCodecs {
+    //reads and writes the JSON form of an identity, as found in the body of a token generate or refresh response and returned by IdentityTokens.getJsonString.
+    //Reading keeps a compact copy of the object, including fields this SDK does not model, as the identity's JSON string.
+    static final TypeAdapter<IdentityTokens> IDENTITY_TOKENS = new TypeAdapter<IdentityTokens>() {
+        @Override
+        public void write(JsonWriter out, IdentityTokens identity) throws IOException {
+            out.beginObject();
+            out.name("advertising_token").value(identity.getAdvertisingToken());
+            out.name("refresh_token").value(identity.getRefreshToken());
+            out.name("identity_expires").value(identity.getIdentityExpires().toEpochMilli());
+            out.name("refresh_expires").value(identity.getRefreshExpires().toEpochMilli());
+            out.name("refresh_from").value(identity.getRefreshFrom().toEpochMilli());
+            if (identity.getRefreshResponseKey() != null) {
+                out.name("refresh_response_key").value(identity.getRefreshResponseKey());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public IdentityTokens read(JsonReader in) throws IOException {
+            return readIdentityFields(in).toIdentity();
+        }
+    };
+
+    //a token generate or refresh response
+    static class TokenResponse {
+        TokenResponse(String status, IdentityTokens identity) {
+            this.status = status;
+            this.identity = identity;
+        }
+
+        final String status;
+        final IdentityTokens identity; //null unless the status is "success"
+    }
+
+    interface IdentityMapResultHandler {
+        //exactly one of mapped and unmapped is non-null
+        void onResult(String identifier, IdentityMapResponse.MappedIdentity mapped, IdentityMapResponse.UnmappedIdentity unmapped);
+    }
+
+    /**
+     * Accepts the same lenient JSON as Gson.fromJson, such as single quoted or unquoted names and strings, since the json comes from the caller and
+     * IdentityTokens.fromJsonString has always accepted it. The identity's JSON string is written out as standard JSON.
+     * @throws Uid2Exception if json is not a valid identity
+     */
+    static IdentityTokens readIdentity(String json) {
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setLenient(true);
+            IdentityTokens identity = IDENTITY_TOKENS.read(reader);
+            endDocument(reader);
+            return identity;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new Uid2Exception("invalid json string", e);
+        }
+    }
+
+    static String writeIdentity(IdentityTokens identity) {
+        StringWriter json = new StringWriter();
+        try {
+            IDENTITY_TOKENS.write(new JsonWriter(json), identity);
+        } catch (IOException e) {
+            throw new Uid2Exception("Unable to write identity", e); //not expected from a StringWriter
+        }
+        return json.toString();
+    }
+
+    /**
+     * @param json a decrypted token generate or refresh response
+     * @throws Uid2Exception if the response could not be parsed, or it has a "success" status without a valid identity in its body
+     */
+    static TokenResponse readTokenResponse(String json) {
+        String status = null;
+        IdentityFields body = null;
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("status") && reader.peek() == JsonToken.STRING) {
+                    status = reader.nextString();
+                } else if (name.equals("body") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    body = readIdentityFields(reader); //only validated for a success response, since the status may come after the body
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            endDocument(reader);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new Uid2Exception("Unable to parse token response", e);
+        }
+
+        if (status == null) {
+            throw new Uid2Exception("missing status in token response");
+        }
+        if (!"success".equals(status)) {
+            return new TokenResponse(status, null);
+        }
+        if (body == null) {
+            throw new Uid2Exception("missing body in token response");
+        }
+        return new TokenResponse(status, body.toIdentity());
+    }
+
+    /**
+     * Reads a /v2/identity/map response, passing each mapped or unmapped identity to handler.
+     * @return the response status
+     * @throws Uid2Exception if the response could not be parsed
+     */
+    static String readIdentityMapResponse(Reader response, IdentityMapResultHandler handler) {
+        String status = null;
+        try {
+            JsonReader reader = new JsonReader(response);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("status") && reader.peek() == JsonToken.STRING) {
+                    status = reader.nextString();
+                } else if (name.equals("body") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String array = reader.nextName();
+                        boolean isMapped = array.equals("mapped");
+                        if ((!isMapped && !array.equals("unmapped")) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            readIdentityMapResult(reader, isMapped, handler);
+                        }
+                        reader.endArray();
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            throw new Uid2Exception("Unable to parse identity map response", e);
+        }
+        return status;
+    }
+
+    static String writeTokenGenerateRequest(String property, String value, String tcString) {
+        StringWriter json = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(json);
+            writer.beginObject();
+            writer.name(property).value(value);
+            if (tcString != null) {
+                writer.name("tcf_consent_string").value(tcString);
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            throw new Uid2Exception("Unable to write token generate request", e); //not expected from a StringWriter
+        }
+        return json.toString();
+    }
+
+    //for error messages; returns json unchanged if it cannot be parsed
+    static String prettyPrint(String json) {
+        StringWriter pretty = new StringWriter();
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            JsonWriter writer = new JsonWriter(pretty);
+            writer.setIndent("  ");
+            copy(reader, writer);
+        } catch (IOException | IllegalStateException e) {
+            return json;
+        }
+        return pretty.toString();
+    }
+
+    private static void readIdentityMapResult(JsonReader reader, boolean isMapped, IdentityMapResultHandler handler) throws IOException {
+        String identifier = null;
+        String rawUid = null;
+        String bucketId = null;
+        String reason = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "identifier":
+                    identifier = reader.nextString();
+                    break;
+                case "advertising_id":
+                    rawUid = reader.nextString();
+                    break;
+                case "bucket_id":
+                    bucketId = reader.nextString();
+                    break;
+                case "reason":
+                    reason = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (isMapped) {
+            handler.onResult(identifier, new IdentityMapResponse.MappedIdentity(rawUid, bucketId), null);
+        } else {
+            handler.onResult(identifier, null, new IdentityMapResponse.UnmappedIdentity(reason));
+        }
+    }
+
+    //reads an identity object, copying it to a compact JSON string as it goes
+    private static IdentityFields readIdentityFields(JsonReader in) throws IOException {
+        IdentityFields fields = new IdentityFields();
+        StringWriter json = new StringWriter();
+        JsonWriter out = new JsonWriter(json);
+        in.beginObject();
+        out.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            out.name(name);
+            JsonToken token = in.peek();
+            if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+                copy(in, out); //a null or an unexpected type is treated as a missing field
+                continue;
+            }
+            String value = in.nextString();
+            if (token == JsonToken.NUMBER) {
+                out.jsonValue(value);
+            } else {
+                out.value(value);
+            }
+            switch (name) {
+                case "advertising_token":
+                    fields.advertisingToken = value;
+                    break;
+                case "refresh_token":
+                    fields.refreshToken = value;
+                    break;
+                case "refresh_response_key":
+                    fields.refreshResponseKey = value;
+                    break;
+                case "identity_expires":
+                    fields.identityExpires = Long.parseLong(value);
+                    break;
+                case "refresh_expires":
+                    fields.refreshExpires = Long.parseLong(value);
+                    break;
+                case "refresh_from":
+                    fields.refreshFrom = Long.parseLong(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        in.endObject();
+        out.endObject();
+        fields.jsonString = json.toString();
+        return fields;
+    }
+
+    private static void copy(JsonReader in, JsonWriter out) throws IOException {
+        switch (in.peek()) {
+            case BEGIN_ARRAY:
+                in.beginArray();
+                out.beginArray();
+                while (in.hasNext()) {
+                    copy(in, out);
+                }
+                in.endArray();
+                out.endArray();
+                break;
+            case BEGIN_OBJECT:
+                in.beginObject();
+                out.beginObject();
+                while (in.hasNext()) {
+                    out.name(in.nextName());
+                    copy(in, out);
+                }
+                in.endObject();
+                out.endObject();
+                break;
+            case STRING:
+                out.value(in.nextString());
+                break;
+            case NUMBER:
+                out.jsonValue(in.nextString());
+                break;
+            case BOOLEAN:
+                out.value(in.nextBoolean());
+                break;
+            case NULL:
+                in.nextNull();
+                out.nullValue();
+                break;
+            default:
+                throw new IllegalStateException("Unexpected " + in.peek() + " at " + in.getPath());
+        }
+    }
+
+    private static void endDocument(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new IllegalStateException("Unexpected content after JSON document at " + reader.getPath());
+        }
+    }
+
+    private static class IdentityFields {
+        IdentityTokens toIdentity() {
+            if (advertisingToken == null || refreshToken == null || identityExpires == null || refreshExpires == null || refreshFrom == null) {
+                throw new Uid2Exception("missing field in json string");
+            }
+            //refresh_response_key may be missing, to allow saved v1 sessions
+            return new IdentityTokens(advertisingToken, refreshToken, refreshResponseKey, identityExpires, refreshExpires, refreshFrom, jsonString);
+        }
+
+        String advertisingToken;
+        String refreshToken;
+        String refreshResponseKey;
+        Long identityExpires;
+        Long refreshExpires;
+        Long refreshFrom;
+        String jsonString;
+    }
+
+    private JsonCodecs() {
+    }
+}
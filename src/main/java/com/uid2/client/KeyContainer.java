@@ -146,4 +146,20 @@ class KeyContainer {
     IdentityScope getIdentityScope() {
         return identityScope;
     }
+
+    Instant getLatestKeyExpiry() {
+        return latestKeyExpiry;
+    }
+
+    int getKeyCount() {
+        return keys.size();
+    }
+
+    int getKeysetCount() {
+        return keysByKeyset.size();
+    }
+
+    int getSiteCount() {
+        return siteIdToSite.size();
+    }
 }
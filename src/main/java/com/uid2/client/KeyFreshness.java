@@ -0,0 +1,15 @@
+package com.uid2.client;
+
+/**
+ * How close a client's keys are to no longer decrypting tokens, from {@link KeyHealth#getFreshness}. Each value is more urgent than the one before it.
+ */
+public enum KeyFreshness {
+    /** The keys were refreshed recently and do not expire soon. */
+    FRESH,
+    /** The keys have not been refreshed recently, but do not expire soon. Refreshes are failing or not being made. */
+    STALE,
+    /** The keys expire soon. Unless a refresh succeeds, decryption will start failing with {@link DecryptionStatus#KEYS_NOT_SYNCED}; a load balancer may drain the instance. */
+    EXPIRING,
+    /** The keys have expired or were never loaded, so decryption fails with {@link DecryptionStatus#KEYS_NOT_SYNCED} or {@link DecryptionStatus#NOT_INITIALIZED}. */
+    EXPIRED
+}
@@ -0,0 +1,149 @@
+package com.uid2.client;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A snapshot of the keys held by a {@link BidstreamClient} or {@link SharingClient} and of its recent refreshes, for health checks and monitoring.
+ * All times are null if the event has not happened.
+ */
+public class KeyHealth {
+    /** The default staleAfter of {@link #getFreshness()}. */
+    public static final Duration DEFAULT_STALE_AFTER = Duration.ofMinutes(30);
+    /** The default expiringWithin of {@link #getFreshness()}. */
+    public static final Duration DEFAULT_EXPIRING_WITHIN = Duration.ofHours(1);
+
+    /**
+     * @return the time the snapshot was taken
+     */
+    public Instant getAsOf() {
+        return asOf;
+    }
+
+    /**
+     * @return whether keys have been loaded
+     */
+    public boolean isInitialized() {
+        return loadedAt != null;
+    }
+
+    /**
+     * @return how long ago the current keys were loaded, or null if no keys have been loaded
+     */
+    public Duration getContainerAge() {
+        return loadedAt == null ? null : Duration.between(loadedAt, asOf);
+    }
+
+    /**
+     * @return the expiry of the latest expiring key, after which decryption fails with {@link DecryptionStatus#KEYS_NOT_SYNCED}, or null if no keys have been loaded
+     */
+    public Instant getLatestKeyExpiry() {
+        return latestKeyExpiry;
+    }
+
+    /**
+     * @return the time left until {@link #getLatestKeyExpiry}, which is negative once it has passed, or null if no keys have been loaded
+     */
+    public Duration getTimeUntilKeysExpire() {
+        return latestKeyExpiry == null ? null : Duration.between(asOf, latestKeyExpiry);
+    }
+
+    /**
+     * @return the number of keys loaded
+     */
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * @return the number of keysets the loaded keys belong to
+     */
+    public int getKeysetCount() {
+        return keysetCount;
+    }
+
+    /**
+     * @return the number of sites with domain or app name data, which {@link BidstreamClient#decryptTokenIntoRawUid} checks tokens against
+     */
+    public int getSiteCount() {
+        return siteCount;
+    }
+
+    /**
+     * @return the time of the last successful refresh
+     */
+    public Instant getLastSuccessfulRefresh() {
+        return lastSuccessfulRefresh;
+    }
+
+    /**
+     * @return the time of the last failed refresh
+     */
+    public Instant getLastFailedRefresh() {
+        return lastFailedRefresh;
+    }
+
+    /**
+     * @return the {@link RefreshResponse#getReason reason} the last failed refresh gave, or null if no refresh has failed
+     */
+    public String getLastFailureReason() {
+        return lastFailureReason;
+    }
+
+    /**
+     * Equivalent to {@code getFreshness(DEFAULT_STALE_AFTER, DEFAULT_EXPIRING_WITHIN)}.
+     * @return how close the keys are to no longer decrypting tokens
+     */
+    public KeyFreshness getFreshness() {
+        return getFreshness(DEFAULT_STALE_AFTER, DEFAULT_EXPIRING_WITHIN);
+    }
+
+    /**
+     * @param staleAfter     the time since the last successful refresh after which the keys are {@link KeyFreshness#STALE}
+     * @param expiringWithin the time before {@link #getLatestKeyExpiry} from which the keys are {@link KeyFreshness#EXPIRING}
+     * @return how close the keys are to no longer decrypting tokens
+     */
+    public KeyFreshness getFreshness(Duration staleAfter, Duration expiringWithin) {
+        if (latestKeyExpiry == null || !asOf.isBefore(latestKeyExpiry)) {
+            return KeyFreshness.EXPIRED;
+        }
+        if (!asOf.plus(expiringWithin).isBefore(latestKeyExpiry)) {
+            return KeyFreshness.EXPIRING;
+        }
+        if (lastSuccessfulRefresh == null || !lastSuccessfulRefresh.plus(staleAfter).isAfter(asOf)) {
+            return KeyFreshness.STALE;
+        }
+        return KeyFreshness.FRESH;
+    }
+
+    //the time of the last refresh attempt, successful or not
+    Instant getLastRefresh() {
+        if (lastFailedRefresh == null) {
+            return lastSuccessfulRefresh;
+        }
+        return lastSuccessfulRefresh == null || lastFailedRefresh.isAfter(lastSuccessfulRefresh) ? lastFailedRefresh : lastSuccessfulRefresh;
+    }
+
+    KeyHealth(Instant asOf, KeyContainer container, Instant loadedAt, Instant lastSuccessfulRefresh, Instant lastFailedRefresh, String lastFailureReason) {
+        this.asOf = asOf;
+        this.loadedAt = container == null ? null : loadedAt;
+        Instant latestKeyExpiry = container == null ? null : container.getLatestKeyExpiry();
+        this.latestKeyExpiry = Instant.MIN.equals(latestKeyExpiry) ? null : latestKeyExpiry; //a legacy container with no keys
+        this.keyCount = container == null ? 0 : container.getKeyCount();
+        this.keysetCount = container == null ? 0 : container.getKeysetCount();
+        this.siteCount = container == null ? 0 : container.getSiteCount();
+        this.lastSuccessfulRefresh = lastSuccessfulRefresh;
+        this.lastFailedRefresh = lastFailedRefresh;
+        this.lastFailureReason = lastFailureReason;
+    }
+
+    private final Instant asOf;
+    private final Instant loadedAt;
+    private final Instant latestKeyExpiry;
+    private final int keyCount;
+    private final int keysetCount;
+    private final int siteCount;
+    private final Instant lastSuccessfulRefresh;
+    private final Instant lastFailedRefresh;
+    private final String lastFailureReason;
+}
@@ -0,0 +1,126 @@
+package com.uid2.client;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the keys of a {@link BidstreamClient} or {@link SharingClient} from expiring, by refreshing them out of band whenever they have not been
+ * refreshed for a while, whether or not the application also refreshes them on its own schedule.
+ * The wait between refresh attempts shrinks as the keys' {@link KeyFreshness} becomes more urgent: it is {@link #withRefreshInterval} while the keys
+ * are {@link KeyFreshness#FRESH}, and a quarter of the previous level's wait for each level after that, down to {@link #withMinRetryInterval}.
+ * At most one refresh started by the watchdog is in flight at a time.
+ */
+public class KeyRefreshWatchdog {
+    /**
+     * @param client the client whose keys are refreshed
+     */
+    public KeyRefreshWatchdog(BidstreamClient client) {
+        this(client::refreshAsync, client::getKeyHealth);
+    }
+
+    /**
+     * @param client the client whose keys are refreshed
+     */
+    public KeyRefreshWatchdog(SharingClient client) {
+        this(client::refreshAsync, client::getKeyHealth);
+    }
+
+    /**
+     * @param refreshInterval the time between refreshes while the keys are {@link KeyFreshness#FRESH}. Defaults to 5 minutes.
+     * @return this KeyRefreshWatchdog instance
+     */
+    public KeyRefreshWatchdog withRefreshInterval(Duration refreshInterval) {
+        this.refreshInterval = refreshInterval;
+        return this;
+    }
+
+    /**
+     * @param minRetryInterval the shortest time between refresh attempts, however urgent. Defaults to 1 second.
+     * @return this KeyRefreshWatchdog instance
+     */
+    public KeyRefreshWatchdog withMinRetryInterval(Duration minRetryInterval) {
+        this.minRetryInterval = minRetryInterval;
+        return this;
+    }
+
+    /**
+     * @param staleAfter the time since the last successful refresh after which the keys are {@link KeyFreshness#STALE}. Defaults to {@link KeyHealth#DEFAULT_STALE_AFTER}.
+     * @return this KeyRefreshWatchdog instance
+     */
+    public KeyRefreshWatchdog withStaleAfter(Duration staleAfter) {
+        this.staleAfter = staleAfter;
+        return this;
+    }
+
+    /**
+     * @param expiringWithin the time before the latest key expiry from which the keys are {@link KeyFreshness#EXPIRING}. Defaults to {@link KeyHealth#DEFAULT_EXPIRING_WITHIN}.
+     * @return this KeyRefreshWatchdog instance
+     */
+    public KeyRefreshWatchdog withExpiringWithin(Duration expiringWithin) {
+        this.expiringWithin = expiringWithin;
+        return this;
+    }
+
+    /**
+     * @return the client's key freshness, using this watchdog's thresholds. A health check can report the instance as unhealthy from {@link KeyFreshness#EXPIRING}, so that it is drained before decryption fails.
+     */
+    public KeyFreshness getFreshness() {
+        return keyHealth.apply(Instant.now()).getFreshness(staleAfter, expiringWithin);
+    }
+
+    /**
+     * Starts a refresh if the keys have gone unrefreshed for longer than their freshness allows. This is normally called by {@link #start}.
+     * @return whether a refresh was started
+     */
+    public boolean runDue() {
+        return runDue(Instant.now());
+    }
+
+    /**
+     * Calls {@link #runDue} on executor every checkInterval, until the returned future is cancelled. Refreshes run asynchronously, so the executor's thread is not held while they are in flight.
+     * @param executor      the executor to run on
+     * @param checkInterval the time between checks, for example 1 second. Refreshes are never closer together than this.
+     * @return a future which can be used to stop the watchdog
+     */
+    public ScheduledFuture<?> start(ScheduledExecutorService executor, Duration checkInterval) {
+        return executor.scheduleWithFixedDelay(this::runDue, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    boolean runDue(Instant now) {
+        KeyHealth health = keyHealth.apply(now);
+        Instant lastRefresh = health.getLastRefresh();
+        if (lastRefresh != null && lastRefresh.plus(getRetryInterval(health.getFreshness(staleAfter, expiringWithin))).isAfter(now)) {
+            return false;
+        }
+        if (!refreshing.compareAndSet(false, true)) {
+            return false;
+        }
+        refresh.get().whenComplete((response, ex) -> refreshing.set(false));
+        return true;
+    }
+
+    Duration getRetryInterval(KeyFreshness freshness) {
+        Duration interval = refreshInterval.dividedBy(1L << (2 * freshness.ordinal()));
+        return interval.compareTo(minRetryInterval) < 0 ? minRetryInterval : interval;
+    }
+
+    private KeyRefreshWatchdog(Supplier<CompletableFuture<RefreshResponse>> refresh, Function<Instant, KeyHealth> keyHealth) {
+        this.refresh = refresh;
+        this.keyHealth = keyHealth;
+    }
+
+    private final Supplier<CompletableFuture<RefreshResponse>> refresh;
+    private final Function<Instant, KeyHealth> keyHealth;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private Duration refreshInterval = Duration.ofMinutes(5);
+    private Duration minRetryInterval = Duration.ofSeconds(1);
+    private Duration staleAfter = KeyHealth.DEFAULT_STALE_AFTER;
+    private Duration expiringWithin = KeyHealth.DEFAULT_EXPIRING_WITHIN;
+}
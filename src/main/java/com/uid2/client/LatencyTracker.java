@@ -0,0 +1,37 @@
+package com.uid2.client;
+
+import java.util.Arrays;
+
+//keeps the most recent request latencies for one API path, across every operator endpoint, to decide when to send a hedged request
+class LatencyTracker {
+    synchronized void record(long latencyMillis) {
+        samples[next] = latencyMillis;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    /**
+     * @return the given percentile (0-100) of the recorded latencies, or -1 if too few latencies have been recorded for it to be meaningful
+     */
+    long getPercentileMillis(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    static final int MIN_SAMPLES = 20;
+    private static final int MAX_SAMPLES = 256;
+
+    private final long[] samples = new long[MAX_SAMPLES];
+    private int next;
+    private int count;
+}
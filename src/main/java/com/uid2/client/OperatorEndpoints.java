@@ -0,0 +1,219 @@
+package com.uid2.client;
+
+import okhttp3.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//the operator base URLs a Uid2ClientHelper can send requests to, with the recent latency and error rate of each, used to pick where each request goes
+class OperatorEndpoints {
+    OperatorEndpoints(List<String> baseUrls, OkHttpClient client, Headers headers, long probeIntervalMillis) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String baseUrl : new LinkedHashSet<>(baseUrls)) {
+            endpoints.add(new Endpoint(baseUrl));
+        }
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("at least one base URL is required");
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.client = client;
+        this.headers = headers;
+        this.probeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(probeIntervalMillis);
+    }
+
+    /**
+     * Splits a comma separated list of base URLs, so that every client accepts several operators through its existing baseUrl parameter.
+     */
+    static List<String> parseBaseUrls(String baseUrls) {
+        List<String> result = new ArrayList<>();
+        for (String baseUrl : baseUrls.split(",")) {
+            String trimmed = baseUrl.trim();
+            if (!trimmed.isEmpty()) {
+                result.add(trimmed);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether a failed request should be sent again straight away to another endpoint: the endpoint could not be reached or failed with a 5xx status.
+     * Either way the request may not have been processed, and another operator may be able to handle it.
+     */
+    static boolean isFailover(Throwable e) {
+        if (Uid2RetryPolicy.findCause(e, IOException.class) != null) {
+            return true;
+        }
+        Uid2HttpStatusException statusException = Uid2RetryPolicy.findCause(e, Uid2HttpStatusException.class);
+        return statusException != null && statusException.getStatusCode() >= 500;
+    }
+
+    List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    Endpoint select() {
+        return select(System.nanoTime());
+    }
+
+    /**
+     * @return the healthy endpoint with the lowest expected latency. Endpoints with no latency data rank after those with data, in configured order.
+     * A healthy endpoint with no new latency data for the probe interval, such as one ranked below an endpoint taking all the traffic, is probed so that
+     * a faster endpoint is found even when the current one is slow but never fails.
+     * An endpoint which failed within the last {@link #FAILOVER_WINDOW_MILLIS} ranks after the other healthy endpoints, so that a request failing over
+     * goes elsewhere, but it stays in rotation. If every endpoint is down, the one which has been down longest is returned, since it is the most likely
+     * to have recovered.
+     */
+    Endpoint select(long nowNanos) {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        Endpoint best = null;
+        double bestScore = Double.POSITIVE_INFINITY;
+        boolean bestFailedRecently = true;
+        Endpoint longestDown = null;
+        for (Endpoint endpoint : endpoints) {
+            synchronized (endpoint) {
+                if (endpoint.down) {
+                    if (nowNanos - endpoint.nextProbeNanos >= 0) {
+                        endpoint.nextProbeNanos = nowNanos + probeIntervalNanos;
+                        probe(endpoint);
+                    }
+                    if (longestDown == null || endpoint.downSinceNanos - longestDown.downSinceNanos < 0) {
+                        longestDown = endpoint;
+                    }
+                    continue;
+                }
+                if (nowNanos - endpoint.lastSampleNanos >= probeIntervalNanos && nowNanos - endpoint.nextProbeNanos >= 0) {
+                    endpoint.nextProbeNanos = nowNanos + probeIntervalNanos;
+                    probe(endpoint);
+                }
+                boolean failedRecently = endpoint.consecutiveFailures > 0 && nowNanos - endpoint.lastFailureNanos < FAILOVER_WINDOW_NANOS;
+                double score = endpoint.getScore();
+                if (best == null || (bestFailedRecently && !failedRecently) || (bestFailedRecently == failedRecently && score < bestScore)) {
+                    best = endpoint;
+                    bestScore = score;
+                    bestFailedRecently = failedRecently;
+                }
+            }
+        }
+        return best != null ? best : longestDown;
+    }
+
+    private void probe(Endpoint endpoint) {
+        Request request = new Request.Builder()
+                .url(endpoint.baseUrl + HEALTHCHECK_PATH)
+                .headers(headers)
+                .get()
+                .build();
+        long start = System.nanoTime();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                endpoint.recordFailure(); //probed again after the probe interval
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (r.isSuccessful()) {
+                        endpoint.recordSuccess(System.nanoTime() - start);
+                    } else {
+                        endpoint.recordFailure();
+                    }
+                }
+            }
+        });
+    }
+
+    class Endpoint {
+        Endpoint(String baseUrl) {
+            this.baseUrl = baseUrl;
+            this.lastSampleNanos = System.nanoTime();
+            this.nextProbeNanos = lastSampleNanos;
+        }
+
+        String getBaseUrl() {
+            return baseUrl;
+        }
+
+        synchronized boolean isDown() {
+            return down;
+        }
+
+        synchronized double getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        synchronized double getErrorRate() {
+            return errorRate;
+        }
+
+        //the endpoint responded; a 5xx response counts as a failure
+        void recordResponse(int statusCode, long elapsedNanos) {
+            if (statusCode >= 500) {
+                recordFailure();
+            } else {
+                recordSuccess(elapsedNanos);
+            }
+        }
+
+        synchronized void recordSuccess(long elapsedNanos) {
+            double millis = elapsedNanos / 1e6;
+            latencyMillis = Double.isNaN(latencyMillis) ? millis : latencyMillis + EWMA_WEIGHT * (millis - latencyMillis);
+            errorRate -= EWMA_WEIGHT * errorRate;
+            consecutiveFailures = 0;
+            lastSampleNanos = System.nanoTime();
+            down = false;
+        }
+
+        void recordFailure() {
+            recordFailure(System.nanoTime());
+        }
+
+        //a single failure only raises the endpoint's score. It is taken out of rotation, and probed until it recovers, once it keeps failing.
+        synchronized void recordFailure(long nowNanos) {
+            errorRate += EWMA_WEIGHT * (1 - errorRate);
+            consecutiveFailures++;
+            lastFailureNanos = nowNanos;
+            lastSampleNanos = nowNanos;
+            if (!down && (consecutiveFailures >= DOWN_AFTER_CONSECUTIVE_FAILURES || errorRate >= DOWN_ERROR_RATE)) {
+                down = true;
+                downSinceNanos = nowNanos;
+                nextProbeNanos = nowNanos + probeIntervalNanos;
+            }
+        }
+
+        //the expected latency, inflated by the recent error rate so that an endpoint which has only just recovered is not immediately preferred
+        private double getScore() {
+            return Double.isNaN(latencyMillis) ? Double.POSITIVE_INFINITY : latencyMillis * (1 + ERROR_PENALTY * errorRate);
+        }
+
+        private final String baseUrl;
+        private double latencyMillis = Double.NaN;
+        private double errorRate;
+        private int consecutiveFailures;
+        private long lastFailureNanos;
+        private long lastSampleNanos;
+        private boolean down;
+        private long downSinceNanos;
+        private long nextProbeNanos;
+    }
+
+    static final long DEFAULT_PROBE_INTERVAL_MILLIS = 10_000;
+    static final String HEALTHCHECK_PATH = "/ops/healthcheck";
+    static final long FAILOVER_WINDOW_MILLIS = 1000;
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final double ERROR_PENALTY = 4;
+    private static final int DOWN_AFTER_CONSECUTIVE_FAILURES = 3;
+    private static final double DOWN_ERROR_RATE = 0.5;
+    private static final long FAILOVER_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(FAILOVER_WINDOW_MILLIS);
+
+    private final List<Endpoint> endpoints;
+    private final OkHttpClient client;
+    private final Headers headers;
+    private final long probeIntervalNanos;
+}
@@ -0,0 +1,82 @@
+package com.uid2.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+
+//SHA-256 hashes stored back to back in one array, so that a million hashed DIIs take about 32 MB rather than a String, list entry and map entry each.
+//Hashes are only Base64 encoded when they are written into a request or a result is reported for them.
+class PackedHashes extends AbstractList<String> {
+    static final int HASH_LENGTH = 32;
+    static final int BASE64_LENGTH = 44;
+    static final int MAX_BYTES = Integer.MAX_VALUE - 8; //the largest array most JVMs can allocate
+    static final int MAX_HASHES = MAX_BYTES / HASH_LENGTH;
+
+    PackedHashes() {
+        this(new byte[0], 0, 0, false);
+    }
+
+    private PackedHashes(byte[] bytes, int start, int count, boolean shared) {
+        this.bytes = bytes;
+        this.start = start;
+        this.count = count;
+        this.shared = shared;
+    }
+
+    void add(byte[] packedHashes, int hashCount) {
+        if (hashCount < 0 || (long) hashCount * HASH_LENGTH > packedHashes.length) {
+            throw new IllegalArgumentException("packedHashes must hold " + hashCount + " hashes of " + HASH_LENGTH + " bytes each");
+        }
+        int used = count * HASH_LENGTH;
+        int needed = getByteLength((long) count + hashCount);
+        if (shared || needed > bytes.length) {
+            //a single call stores its hashes in an array of exactly the right size; later calls grow it. A slice copies its hashes before its first
+            //add, since the array past its end belongs to other slices and to the instance it was sliced from.
+            byte[] grown = new byte[count == 0 ? needed : (int) Math.min(MAX_BYTES, Math.max(needed, used + used / 2L))];
+            System.arraycopy(bytes, start * HASH_LENGTH, grown, 0, used);
+            bytes = grown;
+            start = 0;
+            shared = false;
+        }
+        System.arraycopy(packedHashes, 0, bytes, used, hashCount * HASH_LENGTH);
+        count += hashCount;
+    }
+
+    //the array length needed for hashCount hashes, which must fit in a single array
+    static int getByteLength(long hashCount) {
+        if (hashCount > MAX_HASHES) {
+            throw new IllegalArgumentException("at most " + MAX_HASHES + " packed hashes of each type can be added to one input, but there would be " + hashCount
+                    + "; split the job across several inputs");
+        }
+        return (int) (hashCount * HASH_LENGTH);
+    }
+
+    //a view of hashes [from, to), sharing this instance's array
+    PackedHashes slice(int from, int to) {
+        return new PackedHashes(bytes, start + from, to - from, true);
+    }
+
+    @Override
+    public String get(int index) {
+        byte[] encoded = new byte[BASE64_LENGTH];
+        writeBase64(index, encoded, 0);
+        return new String(encoded, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    //writes the Base64 encoding of hash index into buffer, returning the position after it
+    int writeBase64(int index, byte[] buffer, int pos) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return InputUtil.writeBase64(bytes, (start + index) * HASH_LENGTH, HASH_LENGTH, buffer, pos);
+    }
+
+    private byte[] bytes;
+    private int start;
+    private int count;
+    private boolean shared;
+}
@@ -0,0 +1,15 @@
+package com.uid2.client;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+//defaults which depend on the Java version. The jar is multi-release: src/main/java21 holds a Java 21 version of this class, which replaces this one on Java 21 and later.
+final class Platform {
+    //the executor used for async work when Uid2TransportConfig.withExecutor is not called
+    static Executor defaultExecutor() {
+        return ForkJoinPool.commonPool();
+    }
+
+    private Platform() {
+    }
+}
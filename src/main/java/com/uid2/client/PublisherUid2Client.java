@@ -1,14 +1,26 @@
 package com.uid2.client;
 
+import java.util.concurrent.CompletableFuture;
+
 public class PublisherUid2Client {
     /**
-     * @param uid2BaseUrl     The <a href="https://unifiedid.com/docs/getting-started/gs-environments">UID2 Base URL</a>
+     * @param uid2BaseUrl     The <a href="https://unifiedid.com/docs/getting-started/gs-environments">UID2 Base URL</a>, or several separated by commas to fail over between operators
      * @param clientApiKey    Your client API key
      * @param base64SecretKey Your client secret key
      */
     public PublisherUid2Client(String uid2BaseUrl, String clientApiKey, String base64SecretKey) {
+        this(uid2BaseUrl, clientApiKey, base64SecretKey, Uid2TransportConfig.defaultConfig());
+    }
+
+    /**
+     * @param uid2BaseUrl     The <a href="https://unifiedid.com/docs/getting-started/gs-environments">UID2 Base URL</a>, or several separated by commas to fail over between operators
+     * @param clientApiKey    Your client API key
+     * @param base64SecretKey Your client secret key
+     * @param transportConfig HTTP transport settings. Clients constructed with the same instance share a connection pool.
+     */
+    public PublisherUid2Client(String uid2BaseUrl, String clientApiKey, String base64SecretKey, Uid2TransportConfig transportConfig) {
         publisherUid2Helper = new PublisherUid2Helper(base64SecretKey);
-        uid2ClientHelper = new Uid2ClientHelper(uid2BaseUrl, clientApiKey);
+        uid2ClientHelper = new Uid2ClientHelper(uid2BaseUrl, clientApiKey, transportConfig);
     }
 
     /**
@@ -19,10 +31,12 @@ public class PublisherUid2Client {
      */
     @Deprecated
     public IdentityTokens generateToken(TokenGenerateInput tokenGenerateInput) {
-        EnvelopeV2 envelope = publisherUid2Helper.createEnvelopeForTokenGenerateRequest(tokenGenerateInput);
+        return uid2ClientHelper.execute("/v2/token/generate", () -> {
+            EnvelopeV2 envelope = publisherUid2Helper.createEnvelopeForTokenGenerateRequest(tokenGenerateInput);
 
-        String responseString = uid2ClientHelper.makeRequest("/v2/token/generate", envelope).getAsString();
-        return publisherUid2Helper.createIdentityfromTokenGenerateResponse(responseString, envelope);
+            String responseString = uid2ClientHelper.makeRequest("/v2/token/generate", envelope).getAsString();
+            return publisherUid2Helper.createIdentityfromTokenGenerateResponse(responseString, envelope);
+        });
     }
 
     /**
@@ -31,10 +45,24 @@ public class PublisherUid2Client {
      * @throws Uid2Exception if the response did not contain a "success" or "optout" status, or the response code was not 200, or there was an error communicating with the provided UID2 Base URL
      */
     public TokenGenerateResponse generateTokenResponse(TokenGenerateInput tokenGenerateInput) {
-        EnvelopeV2 envelope = publisherUid2Helper.createEnvelopeForTokenGenerateRequest(tokenGenerateInput);
+        return uid2ClientHelper.execute("/v2/token/generate", () -> {
+            EnvelopeV2 envelope = publisherUid2Helper.createEnvelopeForTokenGenerateRequest(tokenGenerateInput);
 
-        String responseString = uid2ClientHelper.makeRequest("/v2/token/generate", envelope).getAsString();
-        return publisherUid2Helper.createTokenGenerateResponse(responseString, envelope);
+            String responseString = uid2ClientHelper.makeRequest("/v2/token/generate", envelope).getAsString();
+            return publisherUid2Helper.createTokenGenerateResponse(responseString, envelope);
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #generateTokenResponse}. Envelope encryption and response decryption run on the executor configured in {@link Uid2TransportConfig#withExecutor}.
+     * @param tokenGenerateInput represents the input required for <a href="https://unifiedid.com/docs/endpoints/post-token-generate#unencrypted-json-body-parameters">/token/generate</a>
+     * @return a CompletableFuture which completes with a TokenGenerateResponse instance, or completes exceptionally with a Uid2Exception in the same cases where {@link #generateTokenResponse} throws
+     */
+    public CompletableFuture<TokenGenerateResponse> generateTokenResponseAsync(TokenGenerateInput tokenGenerateInput) {
+        return uid2ClientHelper.executeAsync("/v2/token/generate", false, () -> uid2ClientHelper.makeRequestAsync(
+                () -> publisherUid2Helper.createEnvelopeForTokenGenerateRequest(tokenGenerateInput),
+                envelope -> uid2ClientHelper.makeRequestAsync("/v2/token/generate", envelope,
+                        (body, isBinary) -> publisherUid2Helper.createTokenGenerateResponse(Uid2ClientHelper.readResponse(body, isBinary).getAsString(), envelope))));
     }
 
     /**
@@ -42,8 +70,21 @@ public class PublisherUid2Client {
      * @return the refreshed IdentityTokens instance (with a new advertising token and updated expiry times). Typically, this will be used to replace the current identity in the user's session
      */
     public TokenRefreshResponse refreshToken(IdentityTokens currentIdentity) {
-        String responseString = uid2ClientHelper.makeRequest("/v2/token/refresh", currentIdentity.getRefreshToken()).getAsString();
-        return PublisherUid2Helper.createTokenRefreshResponse(responseString, currentIdentity);
+        return uid2ClientHelper.executeSingleUse("/v2/token/refresh", () -> {
+            String responseString = uid2ClientHelper.makeRequest("/v2/token/refresh", currentIdentity.getRefreshToken()).getAsString();
+            return PublisherUid2Helper.createTokenRefreshResponse(responseString, currentIdentity);
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #refreshToken}. Response decryption runs on the executor configured in {@link Uid2TransportConfig#withExecutor}.
+     * @param currentIdentity the current IdentityTokens instance, typically retrieved from a user's session
+     * @return a CompletableFuture which completes with the TokenRefreshResponse, or completes exceptionally with a Uid2Exception if the request failed
+     */
+    public CompletableFuture<TokenRefreshResponse> refreshTokenAsync(IdentityTokens currentIdentity) {
+        return uid2ClientHelper.executeSingleUseAsync("/v2/token/refresh", () ->
+                uid2ClientHelper.makeRequestAsync("/v2/token/refresh", currentIdentity.getRefreshToken(),
+                        (body, isBinary) -> PublisherUid2Helper.createTokenRefreshResponse(Uid2ClientHelper.readResponse(body, isBinary).getAsString(), currentIdentity)));
     }
 
     private final PublisherUid2Helper publisherUid2Helper;
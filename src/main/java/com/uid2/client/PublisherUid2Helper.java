@@ -1,8 +1,5 @@
 package com.uid2.client;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonObject;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 
@@ -32,13 +29,13 @@ public class PublisherUid2Helper {
     @Deprecated
     public IdentityTokens createIdentityfromTokenGenerateResponse(String response, EnvelopeV2 envelope) {
         String identityJsonString = uid2Helper.decrypt(response, envelope.getNonce());
-        JsonObject responseJson = new Gson().fromJson(identityJsonString, JsonObject.class);
+        JsonCodecs.TokenResponse tokenResponse = JsonCodecs.readTokenResponse(identityJsonString);
 
-        if (!"success".equals(responseJson.get("status").getAsString())) {
-            throw new Uid2Exception("Got unexpected token generate status in decrypted response:\n" + new GsonBuilder().setPrettyPrinting().create().toJson(responseJson));
+        if (!"success".equals(tokenResponse.status)) {
+            throw new Uid2Exception("Got unexpected token generate status in decrypted response:\n" + JsonCodecs.prettyPrint(identityJsonString));
         }
 
-        return IdentityTokens.fromJson(TokenRefreshResponse.getBodyAsJson(responseJson));
+        return tokenResponse.identity;
     }
 
     /**
@@ -1,7 +1,5 @@
 package com.uid2.client;
 
-import com.google.gson.JsonObject;
-
 public class TokenGenerateInput {
     /**
      * @param email a normalized or unnormalized email address
@@ -69,6 +67,28 @@ public class TokenGenerateInput {
         }
     }
 
+    //the base64 encoded hash of the normalized DII, which identifies the user without holding the raw DII
+    String getHashedDii() {
+        if (alreadyHashed) {
+            return emailOrPhone;
+        } else if (identityType == IdentityType.Email) {
+            return InputUtil.normalizeAndHashEmail(emailOrPhone);
+        } else {
+            if (!InputUtil.isPhoneNumberNormalized(emailOrPhone)) {
+                throw new IllegalArgumentException("phone number is not normalized");
+            }
+            return InputUtil.getBase64EncodedHash(emailOrPhone);
+        }
+    }
+
+    IdentityType getIdentityType() {
+        return identityType;
+    }
+
+    String getTransparencyAndConsentString() {
+        return transparencyAndConsentString;
+    }
+
     private TokenGenerateInput(IdentityType identityType, String emailOrPhone, boolean needHash, boolean alreadyHashed) {
         this.identityType = identityType;
         this.emailOrPhone = emailOrPhone;
@@ -84,14 +104,7 @@ public class TokenGenerateInput {
     }
 
     private static String createJsonRequestForGenerateToken(String property, String value, String tcString) {
-        JsonObject json = new JsonObject();
-
-        json.addProperty(property, value);
-        if (tcString != null) {
-            json.addProperty("tcf_consent_string", tcString);
-        }
-
-        return json.toString();
+        return JsonCodecs.writeTokenGenerateRequest(property, value, tcString);
     }
 
     static String createHashedJsonRequestForGenerateToken(IdentityType identityType, String unhashedValue, String tcString) {
@@ -1,8 +1,5 @@
 package com.uid2.client;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-
 import java.time.Instant;
 
 public class TokenGenerateResponse {
@@ -34,13 +31,9 @@ public class TokenGenerateResponse {
         return tokens;
     }
 
-    static JsonObject getBodyAsJson(JsonObject jsonResponse) {
-        return jsonResponse.get("body").getAsJsonObject();
-    }
-
     TokenGenerateResponse(String response) {
-        JsonObject responseJson = new Gson().fromJson(response, JsonObject.class);
-        status = responseJson.get("status").getAsString();
+        JsonCodecs.TokenResponse tokenResponse = JsonCodecs.readTokenResponse(response);
+        status = tokenResponse.status;
 
         if (isOptout()) {
             return;
@@ -48,7 +41,12 @@ public class TokenGenerateResponse {
             throw new Uid2Exception("Got unexpected token generate status: " + status);
         }
 
-        tokens = IdentityTokens.fromJson(getBodyAsJson(responseJson));
+        tokens = tokenResponse.identity;
+    }
+
+    TokenGenerateResponse(String status, IdentityTokens tokens) {
+        this.status = status;
+        this.tokens = tokens;
     }
 
 
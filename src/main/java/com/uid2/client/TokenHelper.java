@@ -1,17 +1,28 @@
 package com.uid2.client;
 
+import okhttp3.ResponseBody;
+
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicReference;
 
 class TokenHelper {
     private final Uid2Helper uid2Helper;
     private final Uid2ClientHelper uid2ClientHelper;
     private final AtomicReference<KeyContainer> container = new AtomicReference<>(null);;
+    private final Object refreshLock = new Object();
+    private Instant loadedAt;
+    private Instant lastSuccessfulRefresh;
+    private Instant lastFailedRefresh;
+    private String lastFailureReason;
 
-    TokenHelper(String baseUrl, String clientApiKey, String base64SecretKey) {
-        this.uid2ClientHelper = new Uid2ClientHelper(baseUrl, clientApiKey);
+    TokenHelper(String baseUrl, String clientApiKey, String base64SecretKey, Uid2TransportConfig transportConfig) {
+        this.uid2ClientHelper = new Uid2ClientHelper(baseUrl, clientApiKey, transportConfig);
         this.uid2Helper = new Uid2Helper(base64SecretKey);
     }
 
@@ -47,23 +58,73 @@ class TokenHelper {
 
     RefreshResponse refresh(String urlSuffix) {
         try{
-            EnvelopeV2 envelope = uid2Helper.createEnvelopeV2("".getBytes());
-            String responseString = uid2ClientHelper.makeRequest(urlSuffix, envelope).getAsString();
-            byte[] response = uid2Helper.decrypt(responseString, envelope.getNonce()).getBytes();
-            this.container.set(KeyParser.parse(new ByteArrayInputStream(response)));
-            return RefreshResponse.makeSuccess();
+            setContainer(uid2ClientHelper.executeHedgeable(urlSuffix, () -> {
+                EnvelopeV2 envelope = uid2Helper.createEnvelopeV2("".getBytes());
+                return uid2ClientHelper.makeRequest(urlSuffix, envelope, (body, isBinary) -> parseResponse(body, isBinary, envelope));
+            }, () -> refreshAttemptAsync(urlSuffix)));
+            return recordRefresh(RefreshResponse.makeSuccess());
         } catch (Exception ex) {
-            return RefreshResponse.makeError(ex.getMessage());
+            return recordRefresh(RefreshResponse.makeError(ex.getMessage()));
         }
     }
 
+    CompletableFuture<RefreshResponse> refreshAsync(String urlSuffix) {
+        return uid2ClientHelper.executeAsync(urlSuffix, true, () -> refreshAttemptAsync(urlSuffix))
+                .thenApply(keyContainer -> {
+                    setContainer(keyContainer);
+                    return RefreshResponse.makeSuccess();
+                })
+                .exceptionally(ex -> RefreshResponse.makeError(unwrap(ex).getMessage()))
+                .thenApply(this::recordRefresh);
+    }
+
+    KeyHealth getKeyHealth(Instant now) {
+        synchronized (refreshLock) {
+            return new KeyHealth(now, container.get(), loadedAt, lastSuccessfulRefresh, lastFailedRefresh, lastFailureReason);
+        }
+    }
+
+    private CompletableFuture<KeyContainer> refreshAttemptAsync(String urlSuffix) {
+        return uid2ClientHelper.makeRequestAsync(() -> uid2Helper.createEnvelopeV2("".getBytes()),
+                envelope -> uid2ClientHelper.makeRequestAsync(urlSuffix, envelope, (body, isBinary) -> parseResponse(body, isBinary, envelope)));
+    }
+
+    //the container is only set once an attempt has won, so that a losing hedged attempt cannot replace the winner's keys
+    private KeyContainer parseResponse(ResponseBody body, boolean isBinary, EnvelopeV2 envelope) throws IOException {
+        InputStream response = uid2Helper.decryptResponse(body.byteStream(), body.contentLength(), isBinary, envelope.getNonce());
+        return KeyParser.parse(response);
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
     RefreshResponse refreshJson(String json) {
         try {
             ByteArrayInputStream inputStream = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
-            this.container.set(KeyParser.parse(inputStream));
-            return RefreshResponse.makeSuccess();
+            setContainer(KeyParser.parse(inputStream));
+            return recordRefresh(RefreshResponse.makeSuccess());
         } catch (Exception ex) {
-            return RefreshResponse.makeError(ex.getMessage());
+            return recordRefresh(RefreshResponse.makeError(ex.getMessage()));
+        }
+    }
+
+    private void setContainer(KeyContainer keyContainer) {
+        synchronized (refreshLock) {
+            this.container.set(keyContainer);
+            this.loadedAt = Instant.now();
+        }
+    }
+
+    private RefreshResponse recordRefresh(RefreshResponse response) {
+        synchronized (refreshLock) {
+            if (response.isSuccess()) {
+                lastSuccessfulRefresh = Instant.now();
+            } else {
+                lastFailedRefresh = Instant.now();
+                lastFailureReason = response.getReason();
+            }
         }
+        return response;
     }
 }
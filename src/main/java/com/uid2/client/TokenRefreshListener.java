@@ -0,0 +1,34 @@
+package com.uid2.client;
+
+/**
+ * Receives the outcome of the background refreshes made by {@link TokenRefreshManager}. Calls come from the executor configured in
+ * {@link Uid2TransportConfig#withExecutor}, or from the thread running the manager.
+ */
+public interface TokenRefreshListener {
+    /**
+     * Called when a tracked session has been refreshed. The new identity should be stored in the user's session; the previous refresh token can no longer be used.
+     * @param sessionId the id the session was tracked with
+     * @param identity  the refreshed identity, which {@link TokenRefreshManager#getIdentity} now returns
+     */
+    void onRefreshed(String sessionId, IdentityTokens identity);
+
+    /**
+     * Called when the user of a tracked session has opted out. The session is no longer tracked, and its identity must no longer be used.
+     * @param sessionId the id the session was tracked with
+     */
+    void onOptout(String sessionId);
+
+    /**
+     * Called when a tracked session's refresh token expired before it could be refreshed. The session is no longer tracked.
+     * @param sessionId the id the session was tracked with
+     */
+    default void onExpired(String sessionId) {}
+
+    /**
+     * Called when a refresh failed, in which case the session is retried later while its refresh token is still valid. Also called when another method of
+     * this listener threw; the session has still been updated as that call reported.
+     * @param sessionId the id the session was tracked with
+     * @param e         the error from {@link PublisherUid2Client#refreshTokenAsync}, or a Uid2Exception wrapping an exception thrown by this listener
+     */
+    default void onError(String sessionId, Uid2Exception e) {}
+}
@@ -0,0 +1,408 @@
+package com.uid2.client;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refreshes publisher identities off the request path.
+ * <p>
+ * Refresh tokens are single use, so when several tabs or requests refresh the same identity at once the operator rejects all but one of them.
+ * {@link #refresh} merges concurrent refreshes of the same refresh token into one /token/refresh call and gives every caller its TokenRefreshResponse,
+ * which is also shared with callers arriving shortly afterwards (see {@link #withResultRetention}).
+ * <p>
+ * Sessions passed to {@link #track} are held in a timer wheel and refreshed in the background once they are due, each after a random delay of up
+ * to {@link #withRefreshSpread} so that sessions created together are not all refreshed together. At most {@link #withMaxRefreshesPerTick} refreshes
+ * are started per tick; any others stay due until a later tick. The request path then only needs {@link #getIdentity}.
+ */
+public class TokenRefreshManager {
+    /**
+     * @param publisherClient the client used to refresh tokens
+     * @param listener        receives refreshed identities and opt-outs for tracked sessions
+     */
+    public TokenRefreshManager(PublisherUid2Client publisherClient, TokenRefreshListener listener) {
+        this.publisherClient = publisherClient;
+        this.listener = listener;
+    }
+
+    /**
+     * @param tick the resolution of the timer wheel, and the interval between runs once {@link #start started}. Defaults to 1 second.
+     * @return this TokenRefreshManager instance
+     * @throws IllegalStateException if a session has already been tracked
+     */
+    public synchronized TokenRefreshManager withTick(Duration tick) {
+        if (tick.toMillis() < 1) {
+            throw new IllegalArgumentException("tick must be at least 1 millisecond");
+        }
+        if (currentTick != NOT_STARTED) {
+            throw new IllegalStateException("withTick must be called before any session is tracked");
+        }
+        this.tickMillis = tick.toMillis();
+        return this;
+    }
+
+    /**
+     * @param maxRefreshesPerTick the maximum number of background refreshes started per tick. Defaults to 100.
+     * @return this TokenRefreshManager instance
+     */
+    public synchronized TokenRefreshManager withMaxRefreshesPerTick(int maxRefreshesPerTick) {
+        if (maxRefreshesPerTick < 1) {
+            throw new IllegalArgumentException("maxRefreshesPerTick must be at least 1");
+        }
+        this.maxRefreshesPerTick = maxRefreshesPerTick;
+        return this;
+    }
+
+    /**
+     * @param refreshSpread the maximum random delay added to a session's refresh time, which is never pushed past the identity's expiry. Defaults to 5 minutes.
+     * @return this TokenRefreshManager instance
+     */
+    public synchronized TokenRefreshManager withRefreshSpread(Duration refreshSpread) {
+        this.refreshSpread = refreshSpread;
+        return this;
+    }
+
+    /**
+     * @param resultRetention how long a successful refresh is still returned to callers presenting the refresh token it replaced. Defaults to 30 seconds.
+     * @return this TokenRefreshManager instance
+     */
+    public synchronized TokenRefreshManager withResultRetention(Duration resultRetention) {
+        this.resultRetention = resultRetention;
+        return this;
+    }
+
+    /**
+     * Refreshes an identity, sharing the call with any other refresh of the same refresh token which is in flight or recently completed.
+     * @param currentIdentity the current IdentityTokens instance, typically retrieved from a user's session
+     * @return a CompletableFuture which completes with the TokenRefreshResponse, or completes exceptionally with a Uid2Exception if the request failed
+     */
+    public CompletableFuture<TokenRefreshResponse> refresh(IdentityTokens currentIdentity) {
+        return refresh(currentIdentity, Instant.now());
+    }
+
+    /**
+     * Blocking version of {@link #refresh}.
+     * @param currentIdentity the current IdentityTokens instance, typically retrieved from a user's session
+     * @return the TokenRefreshResponse
+     * @throws Uid2Exception if the request failed
+     */
+    public TokenRefreshResponse refreshToken(IdentityTokens currentIdentity) {
+        try {
+            return refresh(currentIdentity).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Uid2Exception) {
+                throw (Uid2Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts refreshing a session in the background once its identity is due for refresh. Tracking a session again replaces its identity.
+     * @param sessionId an id for the session, which is passed back to the listener
+     * @param identity  the session's current identity
+     */
+    public void track(String sessionId, IdentityTokens identity) {
+        track(sessionId, identity, Instant.now());
+    }
+
+    /**
+     * Stops refreshing a session in the background.
+     * @param sessionId the id the session was tracked with
+     */
+    public synchronized void untrack(String sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session != null) {
+            session.entry = null;
+        }
+    }
+
+    /**
+     * @param sessionId the id the session was tracked with
+     * @return the session's current identity, including any background refresh, or null if the session is not tracked
+     */
+    public synchronized IdentityTokens getIdentity(String sessionId) {
+        Session session = sessions.get(sessionId);
+        return session == null ? null : session.identity;
+    }
+
+    /**
+     * @return the number of tracked sessions
+     */
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Starts the refreshes which have come due. This is normally called by {@link #start}.
+     * @return the number of refreshes started
+     */
+    public int runDue() {
+        return runDue(Instant.now());
+    }
+
+    /**
+     * Calls {@link #runDue} on executor once per tick, until the returned future is cancelled. Refreshes run asynchronously, so the executor's thread is not held while they are in flight.
+     * @param executor the executor to run on
+     * @return a future which can be used to stop the manager
+     */
+    public ScheduledFuture<?> start(ScheduledExecutorService executor) {
+        return executor.scheduleWithFixedDelay(this::runDue, 0, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void track(String sessionId, IdentityTokens identity, Instant now) {
+        Session session = new Session(sessionId, identity);
+        Session replaced = sessions.put(sessionId, session);
+        if (replaced != null) {
+            replaced.entry = null;
+        }
+        schedule(session, dueTime(identity), now);
+    }
+
+    CompletableFuture<TokenRefreshResponse> refresh(IdentityTokens currentIdentity, Instant now) {
+        expireResultsIfDue(now);
+        String refreshToken = currentIdentity.getRefreshToken();
+        Flight flight = new Flight();
+        while (true) {
+            Flight existing = flights.putIfAbsent(refreshToken, flight);
+            if (existing == null) {
+                break;
+            }
+            if (!existing.isExpired(now.minus(resultRetention))) {
+                return existing.future.thenApply(response -> response); //a copy, so that one caller cancelling does not affect the others
+            }
+            if (flights.replace(refreshToken, existing, flight)) {
+                break;
+            }
+        }
+        CompletableFuture<TokenRefreshResponse> request;
+        try {
+            request = publisherClient.refreshTokenAsync(currentIdentity);
+        } catch (RuntimeException e) { //completes the flight, so that it does not stay in flights with no result
+            request = new CompletableFuture<>();
+            request.completeExceptionally(e);
+        }
+        request.whenComplete((response, ex) -> {
+            if (ex != null) {
+                flights.remove(refreshToken, flight); //a later call may retry
+                flight.future.completeExceptionally(ex);
+            } else {
+                flight.completedAt = Instant.now();
+                flight.future.complete(response);
+            }
+        });
+        return flight.future.thenApply(response -> response);
+    }
+
+    int runDue(Instant now) {
+        List<Session> due = new ArrayList<>();
+        synchronized (this) {
+            expireResults(now);
+            collectExpired(now);
+            while (due.size() < maxRefreshesPerTick && !ready.isEmpty()) {
+                Entry entry = ready.poll();
+                if (entry.isLive()) {
+                    entry.session.entry = null;
+                    due.add(entry.session);
+                }
+            }
+        }
+
+        for (Session session : due) {
+            if (!session.identity.isRefreshableImpl(now)) {
+                if (remove(session)) {
+                    callListener(session.sessionId, "onExpired", () -> listener.onExpired(session.sessionId));
+                }
+                continue;
+            }
+            refresh(session.identity).whenComplete((response, ex) -> onRefreshComplete(session, response, ex, now));
+        }
+        return due.size();
+    }
+
+    private void onRefreshComplete(Session session, TokenRefreshResponse response, Throwable ex, Instant started) {
+        if (ex != null) {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            Uid2Exception error = cause instanceof Uid2Exception ? (Uid2Exception) cause : new Uid2Exception("Token refresh failed", cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+            Instant retry = started.plus(RETRY_DELAY);
+            synchronized (this) {
+                if (sessions.get(session.sessionId) != session) {
+                    return; //untracked or replaced while the refresh was in flight
+                }
+                if (session.identity.isRefreshableImpl(retry)) {
+                    schedule(session, retry, started);
+                }
+            }
+            reportError(session.sessionId, error);
+            return;
+        }
+
+        if (response.isOptout()) {
+            if (remove(session)) {
+                callListener(session.sessionId, "onOptout", () -> listener.onOptout(session.sessionId));
+            }
+            return;
+        }
+        IdentityTokens refreshed = response.getIdentity();
+        synchronized (this) {
+            if (sessions.get(session.sessionId) != session) {
+                return;
+            }
+            session.identity = refreshed;
+            schedule(session, dueTime(refreshed), started);
+        }
+        callListener(session.sessionId, "onRefreshed", () -> listener.onRefreshed(session.sessionId, refreshed));
+    }
+
+    //a listener which throws must not stop the other due sessions being refreshed, or end the task started by start(). Its exception goes to onError.
+    private void callListener(String sessionId, String method, Runnable call) {
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            reportError(sessionId, new Uid2Exception("TokenRefreshListener." + method + " threw", e));
+        }
+    }
+
+    //an exception from onError itself is dropped, since there is nowhere left to report it
+    private void reportError(String sessionId, Uid2Exception e) {
+        try {
+            listener.onError(sessionId, e);
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    private synchronized boolean remove(Session session) {
+        return sessions.remove(session.sessionId, session);
+    }
+
+    private Instant dueTime(IdentityTokens identity) {
+        long spreadMillis = refreshSpread.toMillis();
+        Instant due = identity.getRefreshFrom().plusMillis(spreadMillis > 0 ? ThreadLocalRandom.current().nextLong(spreadMillis) : 0);
+        return due.isAfter(identity.getIdentityExpires()) ? identity.getIdentityExpires() : due;
+    }
+
+    //a session has at most one live entry; entries left behind by untrack or re-track are dropped when they are reached
+    private void schedule(Session session, Instant due, Instant now) {
+        long nowTick = now.toEpochMilli() / tickMillis;
+        if (currentTick == NOT_STARTED) {
+            currentTick = nowTick;
+        }
+        Entry entry = new Entry(session, Math.max(due.toEpochMilli() / tickMillis, nowTick));
+        session.entry = entry;
+        if (entry.deadlineTick < currentTick) {
+            ready.add(entry);
+        } else {
+            wheel[(int) (entry.deadlineTick & WHEEL_MASK)].add(entry);
+        }
+    }
+
+    //moves every entry whose deadline has passed from the wheel to the ready queue, visiting each slot at most once
+    private void collectExpired(Instant now) {
+        long nowTick = now.toEpochMilli() / tickMillis;
+        if (currentTick == NOT_STARTED || nowTick < currentTick) {
+            return;
+        }
+        long lastTick = Math.min(nowTick, currentTick + WHEEL_SIZE - 1);
+        for (long tick = currentTick; tick <= lastTick; tick++) {
+            Iterator<Entry> slot = wheel[(int) (tick & WHEEL_MASK)].iterator();
+            while (slot.hasNext()) {
+                Entry entry = slot.next();
+                if (!entry.isLive()) {
+                    slot.remove();
+                } else if (entry.deadlineTick <= nowTick) {
+                    slot.remove();
+                    ready.add(entry);
+                }
+            }
+        }
+        currentTick = nowTick + 1;
+    }
+
+    private void expireResults(Instant now) {
+        Instant cutoff = now.minus(resultRetention);
+        flights.values().removeIf(flight -> flight.isExpired(cutoff));
+    }
+
+    //refresh() sweeps at most once per retention period, so that completed results are dropped even if runDue is never called
+    private void expireResultsIfDue(Instant now) {
+        long next = nextResultExpiryMillis.get();
+        if (now.toEpochMilli() >= next && nextResultExpiryMillis.compareAndSet(next, now.toEpochMilli() + resultRetention.toMillis())) {
+            expireResults(now);
+        }
+    }
+
+    private static class Session {
+        Session(String sessionId, IdentityTokens identity) {
+            this.sessionId = sessionId;
+            this.identity = identity;
+        }
+
+        final String sessionId;
+        IdentityTokens identity;
+        Entry entry; //null while a refresh is in flight
+    }
+
+    private static class Entry {
+        Entry(Session session, long deadlineTick) {
+            this.session = session;
+            this.deadlineTick = deadlineTick;
+        }
+
+        boolean isLive() {
+            return session.entry == this;
+        }
+
+        final Session session;
+        final long deadlineTick;
+    }
+
+    private static class Flight {
+        boolean isExpired(Instant cutoff) {
+            Instant completed = completedAt;
+            return completed != null && completed.isBefore(cutoff);
+        }
+
+        final CompletableFuture<TokenRefreshResponse> future = new CompletableFuture<>();
+        volatile Instant completedAt;
+    }
+
+    private static ArrayDeque<Entry>[] createWheel() {
+        @SuppressWarnings("unchecked")
+        ArrayDeque<Entry>[] wheel = new ArrayDeque[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        return wheel;
+    }
+
+    private static final int WHEEL_SIZE = 1024;
+    private static final long WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+    private static final Duration RETRY_DELAY = Duration.ofMinutes(1);
+
+    private final PublisherUid2Client publisherClient;
+    private final TokenRefreshListener listener;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong nextResultExpiryMillis = new AtomicLong();
+    private final Map<String, Session> sessions = new HashMap<>();
+    private final ArrayDeque<Entry>[] wheel = createWheel();
+    private final ArrayDeque<Entry> ready = new ArrayDeque<>();
+    private long currentTick = NOT_STARTED;
+    private long tickMillis = 1000;
+    private int maxRefreshesPerTick = 100;
+    private Duration refreshSpread = Duration.ofMinutes(5);
+    private volatile Duration resultRetention = Duration.ofSeconds(30);
+}
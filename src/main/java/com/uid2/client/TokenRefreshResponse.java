@@ -1,8 +1,5 @@
 package com.uid2.client;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-
 import java.time.Instant;
 
 public class TokenRefreshResponse {
@@ -34,13 +31,9 @@ public class TokenRefreshResponse {
         return refreshedIdentity;
     }
 
-    static JsonObject getBodyAsJson(JsonObject jsonResponse) {
-        return jsonResponse.get("body").getAsJsonObject();
-    }
-
     TokenRefreshResponse(String response, Instant timestamp) {
-        JsonObject responseJson = new Gson().fromJson(response, JsonObject.class);
-        status = responseJson.get("status").getAsString();
+        JsonCodecs.TokenResponse tokenResponse = JsonCodecs.readTokenResponse(response);
+        status = tokenResponse.status;
 
         if (isOptout()) {
             return;
@@ -48,7 +41,7 @@ public class TokenRefreshResponse {
             throw new Uid2Exception("Got unexpected token refresh status: " + status);
         }
 
-        refreshedIdentity = IdentityTokens.fromJson(getBodyAsJson(responseJson));
+        refreshedIdentity = tokenResponse.identity;
         if (!refreshedIdentity.isRefreshableImpl(timestamp) || refreshedIdentity.hasIdentityExpired(timestamp)) {
             throw new Uid2Exception("Invalid identity in token refresh response: " + response);
         }
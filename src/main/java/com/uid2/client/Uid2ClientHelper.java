@@ -3,12 +3,33 @@ package com.uid2.client;
 import okhttp3.*;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class Uid2ClientHelper {
-    Uid2ClientHelper(String baseUrl, String clientApiKey) {
-        this.baseUrl = baseUrl;
+    /**
+     * @param baseUrl a base URL, or several separated by commas. With several, each request goes to the healthy one with the lowest recent latency,
+     *                and fails over to the next best one if an endpoint cannot be reached or responds with a 5xx status.
+     */
+    Uid2ClientHelper(String baseUrl, String clientApiKey, Uid2TransportConfig transportConfig) {
+        this(OperatorEndpoints.parseBaseUrls(baseUrl), clientApiKey, transportConfig, OperatorEndpoints.DEFAULT_PROBE_INTERVAL_MILLIS);
+    }
+
+    Uid2ClientHelper(List<String> baseUrls, String clientApiKey, Uid2TransportConfig transportConfig, long probeIntervalMillis) {
         this.headers = getHeaders(clientApiKey);
+        this.client = transportConfig.getHttpClient();
+        this.executor = transportConfig.getExecutor();
+        this.retryPolicy = transportConfig.getRetryPolicy();
+        this.endpoints = new OperatorEndpoints(baseUrls, client, headers, probeIntervalMillis);
     }
 
     static Headers getHeaders(String clientApiKey) {
@@ -18,6 +39,13 @@ public class Uid2ClientHelper {
                 .build();
     }
 
+    /**
+     * Reads a successful response body directly from the network, so that large responses do not have to be buffered as a String first.
+     */
+    interface ResponseReader<T> {
+        T read(ResponseBody body, boolean isBinary) throws IOException;
+    }
+
     Uid2Response makeRequest(String urlSuffix, EnvelopeV2 envelope) {
         return makeRequest(urlSuffix, getEnvelope(envelope));
     }
@@ -26,6 +54,10 @@ public class Uid2ClientHelper {
         return makeRequest(RequestBody.create(payload, FORM), urlSuffix);
     }
 
+    <T> T makeRequest(String urlSuffix, EnvelopeV2 envelope, ResponseReader<T> reader) {
+        return makeRequest(RequestBody.create(getEnvelope(envelope), FORM), urlSuffix, reader);
+    }
+
     private static String getEnvelope(EnvelopeV2 envelope) {
         return envelope.getEnvelope();
     }
@@ -34,57 +66,406 @@ public class Uid2ClientHelper {
         return makeRequest(RequestBody.create(envelope.getBinaryEnvelope(), BINARY), urlSuffix);
     }
 
+    <T> T makeBinaryRequest(String urlSuffix, EnvelopeV2 envelope, ResponseReader<T> reader) {
+        return makeRequest(RequestBody.create(envelope.getBinaryEnvelope(), BINARY), urlSuffix, reader);
+    }
+
+    CompletableFuture<Uid2Response> makeRequestAsync(String urlSuffix, EnvelopeV2 envelope) {
+        return makeRequestAsync(urlSuffix, getEnvelope(envelope));
+    }
+
+    CompletableFuture<Uid2Response> makeRequestAsync(String urlSuffix, String payload) {
+        return makeRequestAsync(RequestBody.create(payload, FORM), urlSuffix);
+    }
+
+    <T> CompletableFuture<T> makeRequestAsync(String urlSuffix, EnvelopeV2 envelope, ResponseReader<T> reader) {
+        return makeRequestAsync(RequestBody.create(getEnvelope(envelope), FORM), urlSuffix, reader);
+    }
+
+    <T> CompletableFuture<T> makeRequestAsync(String urlSuffix, String payload, ResponseReader<T> reader) {
+        return makeRequestAsync(RequestBody.create(payload, FORM), urlSuffix, reader);
+    }
+
+    /**
+     * Creates an envelope on the configured executor and then sends it with request. Cancelling the returned future cancels the HTTP call, or skips it if the envelope
+     * is still being created. A future built with thenCompose would not do this, since CompletableFuture does not pass cancellation back to the futures a stage depends on.
+     */
+    <T> CompletableFuture<T> makeRequestAsync(Supplier<EnvelopeV2> createEnvelope, Function<EnvelopeV2, CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<EnvelopeV2> envelopeFuture = CompletableFuture.supplyAsync(createEnvelope, executor);
+        AtomicReference<CompletableFuture<T>> requestFuture = new AtomicReference<>();
+        result.whenComplete((value, ex) -> {
+            if (result.isCancelled()) {
+                envelopeFuture.cancel(true);
+                CompletableFuture<T> inFlight = requestFuture.get();
+                if (inFlight != null) {
+                    inFlight.cancel(true);
+                }
+            }
+        });
+        envelopeFuture.whenComplete((envelope, ex) -> {
+            if (ex != null) {
+                result.completeExceptionally(unwrap(ex));
+                return;
+            }
+            if (result.isDone()) {
+                return; //cancelled while the envelope was being created
+            }
+            CompletableFuture<T> inFlight;
+            try {
+                inFlight = request.apply(envelope);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            requestFuture.set(inFlight);
+            if (result.isCancelled()) { //cancelled before requestFuture was set, so the handler above did not see it
+                inFlight.cancel(true);
+            }
+            inFlight.whenComplete((value, requestEx) -> {
+                if (requestEx != null) {
+                    result.completeExceptionally(unwrap(requestEx));
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        return result;
+    }
+
+    CompletableFuture<Uid2Response> makeBinaryRequestAsync(String urlSuffix, EnvelopeV2 envelope) {
+        return makeRequestAsync(RequestBody.create(envelope.getBinaryEnvelope(), BINARY), urlSuffix);
+    }
+
+    <T> CompletableFuture<T> makeBinaryRequestAsync(String urlSuffix, EnvelopeV2 envelope, ResponseReader<T> reader) {
+        return makeRequestAsync(RequestBody.create(envelope.getBinaryEnvelope(), BINARY), urlSuffix, reader);
+    }
+
     Uid2Response makeRequest(RequestBody body, String urlSuffix) {
-        Request request = new Request.Builder()
-                .url(baseUrl + urlSuffix)
-                .headers(headers)
-                .post(body)
-                .build();
+        return makeRequest(body, urlSuffix, Uid2ClientHelper::readResponse);
+    }
+
+    <T> T makeRequest(RequestBody body, String urlSuffix, ResponseReader<T> reader) {
+        OperatorEndpoints.Endpoint endpoint = endpoints.select();
+        Request request = createRequest(endpoint, body, urlSuffix);
 
+        long start = System.nanoTime();
         try (Response response = client.newCall(request).execute()) {
+            endpoint.recordResponse(response.code(), System.nanoTime() - start);
             if (!response.isSuccessful()) {
-                throw new Uid2Exception("Unexpected code " + response);
+                throw unexpectedStatus(response);
             }
-            return getResponse(response);
+            return reader.read(response.body(), responseIsBinary(response));
         } catch (IOException e) {
+            endpoint.recordFailure();
             throw new Uid2Exception("error communicating with api endpoint", e);
         }
     }
 
-    private static Uid2Response getResponse(Response response) {
-        Uid2Response uid2Response;
+    CompletableFuture<Uid2Response> makeRequestAsync(RequestBody body, String urlSuffix) {
+        return makeRequestAsync(body, urlSuffix, Uid2ClientHelper::readResponse);
+    }
 
-        try {
-            if (response == null) {
-                throw new Uid2Exception("Response is null");
+    //the body is read by reader on the configured executor rather than on OkHttp's dispatcher thread. Cancelling the returned future cancels the call.
+    <T> CompletableFuture<T> makeRequestAsync(RequestBody body, String urlSuffix, ResponseReader<T> reader) {
+        OperatorEndpoints.Endpoint endpoint = endpoints.select();
+        Call call = client.newCall(createRequest(endpoint, body, urlSuffix));
+        long start = System.nanoTime();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((result, ex) -> {
+            if (future.isCancelled()) {
+                call.cancel();
             }
-            else {
-                if (responseIsBinary(response)) {
-                    byte[] bytes = response.body() != null ? response.body().bytes() : new byte[0];
-                    uid2Response = Uid2Response.fromBytes(bytes);
-                } else {
-                    String string = response.body() != null ? response.body().string() : response.toString();
-                    uid2Response = Uid2Response.fromString(string);
+        });
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (!call.isCanceled()) { //a cancelled call, such as the losing attempt of a hedged request, says nothing about the endpoint
+                    endpoint.recordFailure();
                 }
+                future.completeExceptionally(new Uid2Exception("error communicating with api endpoint", e));
+            }
 
+            @Override
+            public void onResponse(Call call, Response response) {
+                endpoint.recordResponse(response.code(), System.nanoTime() - start);
                 if (!response.isSuccessful()) {
-                    throw new Uid2Exception("Unexpected code " + response);
+                    try (Response r = response) {
+                        future.completeExceptionally(unexpectedStatus(r));
+                    }
+                    return;
+                }
+                try {
+                    executor.execute(() -> readAsync(response, reader, future));
+                } catch (RuntimeException e) {
+                    response.close();
+                    future.completeExceptionally(e);
                 }
             }
-            return uid2Response;
+        });
+        return future;
+    }
+
+    private static <T> void readAsync(Response response, ResponseReader<T> reader, CompletableFuture<T> future) {
+        try (Response r = response) {
+            if (future.isDone()) {
+                return; //cancelled, for example the losing attempt of a hedged request
+            }
+            future.complete(reader.read(r.body(), responseIsBinary(r)));
         } catch (IOException e) {
-            throw new Uid2Exception("Error communicating with api endpoint", e);
+            future.completeExceptionally(new Uid2Exception("error communicating with api endpoint", e));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Runs attempt, retrying it according to the configured {@link Uid2RetryPolicy}. Each call to attempt must build a fresh envelope.
+     * If there are several endpoints, an attempt which fails with a connection error or 5xx status is first repeated straight away on each of the
+     * other endpoints; these failovers do not count as retries.
+     */
+    <T> T execute(String urlSuffix, Supplier<T> attempt) {
+        return execute(urlSuffix, true, attempt);
+    }
+
+    /**
+     * Like {@link #execute}, for requests which consume single-use input such as a refresh token. They are only retried, or failed over to another endpoint, if they were never sent.
+     */
+    <T> T executeSingleUse(String urlSuffix, Supplier<T> attempt) {
+        return execute(urlSuffix, false, attempt);
+    }
+
+    private <T> T execute(String urlSuffix, boolean replayable, Supplier<T> attempt) {
+        LatencyTracker latencyTracker = getLatencyTracker(urlSuffix);
+        int attemptNumber = 1;
+        int failovers = 0;
+        while (true) {
+            long start = System.nanoTime();
+            try {
+                T result = attempt.get();
+                latencyTracker.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return result;
+            } catch (RuntimeException e) {
+                if (canFailOver(e, failovers, replayable)) {
+                    failovers++;
+                    continue;
+                }
+                long delayMillis = retryPolicy.getRetryDelayMillis(e, attemptNumber, Instant.now(), replayable);
+                if (delayMillis < 0) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                attemptNumber++;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #execute}, but for idempotent requests which may be hedged. If hedging is enabled, asyncAttempt is used and the calling thread waits for the result.
+     */
+    <T> T executeHedgeable(String urlSuffix, Supplier<T> attempt, Supplier<CompletableFuture<T>> asyncAttempt) {
+        if (!retryPolicy.isHedgingEnabled()) {
+            return execute(urlSuffix, attempt);
+        }
+        try {
+            return executeAsync(urlSuffix, true, asyncAttempt).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #execute}. If hedgeable is true and hedging is enabled, a second attempt is started when the first one is slow.
+     * Cancelling the returned future, or losing a hedge, cancels the attempt's future, so attempt must return one whose cancellation reaches its HTTP call,
+     * such as one from makeRequestAsync.
+     */
+    <T> CompletableFuture<T> executeAsync(String urlSuffix, boolean hedgeable, Supplier<CompletableFuture<T>> attempt) {
+        return executeAsync(urlSuffix, hedgeable, true, attempt);
+    }
+
+    /**
+     * Asynchronous version of {@link #executeSingleUse}.
+     */
+    <T> CompletableFuture<T> executeSingleUseAsync(String urlSuffix, Supplier<CompletableFuture<T>> attempt) {
+        return executeAsync(urlSuffix, false, false, attempt);
+    }
+
+    private <T> CompletableFuture<T> executeAsync(String urlSuffix, boolean hedgeable, boolean replayable, Supplier<CompletableFuture<T>> attempt) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> currentAttempt = new AtomicReference<>();
+        result.whenComplete((value, ex) -> {
+            CompletableFuture<T> inFlight = currentAttempt.get();
+            if (result.isCancelled() && inFlight != null) {
+                inFlight.cancel(true);
+            }
+        });
+        runAttempt(getLatencyTracker(urlSuffix), hedgeable && retryPolicy.isHedgingEnabled(), replayable, attempt, 1, 0, result, currentAttempt);
+        return result;
+    }
+
+    private <T> void runAttempt(LatencyTracker latencyTracker, boolean hedged, boolean replayable, Supplier<CompletableFuture<T>> attempt, int attemptNumber, int failovers,
+                                CompletableFuture<T> result, AtomicReference<CompletableFuture<T>> currentAttempt) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<T> future = hedged ? startHedgedAttempt(latencyTracker, attempt) : startTimedAttempt(latencyTracker, attempt);
+        currentAttempt.set(future);
+        future.whenComplete((value, ex) -> {
+            if (ex == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable failure = unwrap(ex);
+            if (canFailOver(failure, failovers, replayable)) {
+                runAttempt(latencyTracker, hedged, replayable, attempt, attemptNumber, failovers + 1, result, currentAttempt);
+                return;
+            }
+            long delayMillis = retryPolicy.getRetryDelayMillis(failure, attemptNumber, Instant.now(), replayable);
+            if (delayMillis < 0) {
+                result.completeExceptionally(failure);
+            } else {
+                RETRY_SCHEDULER.schedule(() -> runAttempt(latencyTracker, hedged, replayable, attempt, attemptNumber + 1, failovers, result, currentAttempt), delayMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> startHedgedAttempt(LatencyTracker latencyTracker, Supplier<CompletableFuture<T>> attempt) {
+        long percentileMillis = latencyTracker.getPercentileMillis(retryPolicy.getHedgingPercentile());
+        if (percentileMillis < 0) {
+            return startTimedAttempt(latencyTracker, attempt); //not enough latency data yet
+        }
+        long hedgeDelayMillis = Math.max(percentileMillis, retryPolicy.getHedgingMinimumDelayMillis());
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> primary = startTimedAttempt(latencyTracker, attempt);
+        AtomicReference<CompletableFuture<T>> hedge = new AtomicReference<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        AtomicBoolean won = new AtomicBoolean();
+
+        BiConsumer<T, Throwable> onComplete = (value, ex) -> {
+            if (ex == null) {
+                if (won.compareAndSet(false, true)) {
+                    //cancel the loser before completing, so it is already cancelled when callers see the result
+                    primary.cancel(true);
+                    CompletableFuture<T> h = hedge.get();
+                    if (h != null) {
+                        h.cancel(true);
+                    }
+                    result.complete(value);
+                }
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(ex);
+            }
+        };
+
+        ScheduledFuture<?> hedgeTimer = RETRY_SCHEDULER.schedule(() -> {
+            if (!result.isDone() && pending.getAndIncrement() > 0) {
+                CompletableFuture<T> h = startTimedAttempt(latencyTracker, attempt);
+                hedge.set(h);
+                h.whenComplete(onComplete);
+            }
+        }, hedgeDelayMillis, TimeUnit.MILLISECONDS);
+        primary.whenComplete(onComplete);
+        result.whenComplete((value, ex) -> {
+            hedgeTimer.cancel(false);
+            if (result.isCancelled()) {
+                primary.cancel(true);
+                CompletableFuture<T> h = hedge.get();
+                if (h != null) {
+                    h.cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> startTimedAttempt(LatencyTracker latencyTracker, Supplier<CompletableFuture<T>> attempt) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = attempt.get();
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((value, ex) -> {
+            if (ex == null) {
+                latencyTracker.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        });
+        return future; //returned as-is so that cancelling a losing hedged attempt cancels its HTTP call, and with it any remaining decryption/parsing
+    }
+
+    private LatencyTracker getLatencyTracker(String urlSuffix) {
+        return latencyTrackers.computeIfAbsent(urlSuffix, k -> new LatencyTracker());
+    }
+
+    //every other endpoint gets at most one failover attempt per request, so a request cannot bounce between endpoints which are all failing.
+    //A single-use request only fails over if it never reached the operator, since the operator may already have used its refresh token.
+    private boolean canFailOver(Throwable failure, int failovers, boolean replayable) {
+        return failovers < endpoints.getEndpoints().size() - 1 && OperatorEndpoints.isFailover(failure)
+                && (replayable || Uid2RetryPolicy.wasNotSent(failure));
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return (ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    private static Uid2HttpStatusException unexpectedStatus(Response response) {
+        return new Uid2HttpStatusException("Unexpected code " + response, response.code(), response.header("Retry-After"));
+    }
+
+    /**
+     * @return the executor on which ...Async methods should encrypt request envelopes and decrypt/parse responses
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    OperatorEndpoints getEndpoints() {
+        return endpoints;
+    }
+
+    private Request createRequest(OperatorEndpoints.Endpoint endpoint, RequestBody body, String urlSuffix) {
+        return new Request.Builder()
+                .url(endpoint.getBaseUrl() + urlSuffix)
+                .headers(headers)
+                .post(body)
+                .build();
+    }
+
+    static Uid2Response readResponse(ResponseBody body, boolean isBinary) throws IOException {
+        if (isBinary) {
+            return Uid2Response.fromBytes(body.bytes());
         }
+        return Uid2Response.fromString(body.string());
     }
 
     private static boolean responseIsBinary(Response response) {
         return Objects.equals(response.headers().get("Content-Type"), "application/octet-stream");
     }
 
-    private final OkHttpClient client = new OkHttpClient();
-    private final String baseUrl;
+    private final OkHttpClient client;
+    private final Executor executor;
+    private final Uid2RetryPolicy retryPolicy;
+    private final Map<String, LatencyTracker> latencyTrackers = new ConcurrentHashMap<>();
+    private final OperatorEndpoints endpoints;
     private final Headers headers;
     private final static MediaType FORM = MediaType.get("application/x-www-form-urlencoded");
     private final static MediaType BINARY = MediaType.get("application/octet-stream");
+    private final static ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "uid2-client-retry-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
 
 }
@@ -391,6 +391,24 @@ class Uid2Encryption {
         }
     }
 
+    //encrypts buffer[offset + GCM_IV_LENGTH, offset + GCM_IV_LENGTH + plaintextLength) in place, writing the IV before it and the tag after it
+    static void encryptGCMInPlace(byte[] buffer, int offset, int plaintextLength, byte[] iv, byte[] secretBytes) {
+        try {
+            final SecretKey k = new SecretKeySpec(secretBytes, "AES");
+            final Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+            if (iv == null) {
+                iv = new byte[GCM_IV_LENGTH];
+                new SecureRandom().nextBytes(iv);
+            }
+            c.init(Cipher.ENCRYPT_MODE, k, new GCMParameterSpec(GCM_AUTHTAG_LENGTH * 8, iv));
+            System.arraycopy(iv, 0, buffer, offset, GCM_IV_LENGTH);
+            final int plaintextOffset = offset + GCM_IV_LENGTH;
+            c.doFinal(buffer, plaintextOffset, plaintextLength, buffer, plaintextOffset);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to Encrypt", e);
+        }
+    }
+
     public static byte[] decryptGCM(byte[] encryptedBytes, int offset, byte[] secretBytes) {
         try {
             final SecretKey key = new SecretKeySpec(secretBytes, "AES");
@@ -403,6 +421,24 @@ class Uid2Encryption {
         }
     }
 
+    /**
+     * Decrypts IV + ciphertext + tag held in buffer[offset, offset + length) without allocating a separate output array; the plaintext overwrites the ciphertext.
+     * @return a ByteBuffer over buffer whose position and limit bound the plaintext
+     */
+    static ByteBuffer decryptGCMInPlace(byte[] buffer, int offset, int length, byte[] secretBytes) {
+        try {
+            final SecretKey key = new SecretKeySpec(secretBytes, "AES");
+            final GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(GCM_AUTHTAG_LENGTH * 8, buffer, offset, GCM_IV_LENGTH);
+            final Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+            c.init(Cipher.DECRYPT_MODE, key, gcmParameterSpec);
+            final int plaintextOffset = offset + GCM_IV_LENGTH;
+            final int plaintextLength = c.doFinal(buffer, plaintextOffset, length - GCM_IV_LENGTH, buffer, plaintextOffset);
+            return ByteBuffer.wrap(buffer, plaintextOffset, plaintextLength);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to Decrypt", e);
+        }
+    }
+
     private static IdentityScope decodeIdentityScopeV3(byte value)
     {
         return IdentityScope.fromValue((value >> 4) & 1);
@@ -2,6 +2,7 @@ package com.uid2.client;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -9,6 +10,7 @@ import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Properties;
 
 public class Uid2Helper {
@@ -21,18 +23,45 @@ public class Uid2Helper {
     }
 
     public EnvelopeV2 createEnvelopeV2(byte[] nonce, Instant timestamp, byte[] iv, byte[] jsonBytes) {
-        //Note this is very similar to UID2Client.makeV2Request (could share implementation)
-        ByteBuffer writer = ByteBuffer.allocate(TIMESTAMP_LENGTH + nonce.length + jsonBytes.length);
+        return createEnvelopeV2(nonce, timestamp, iv, new PayloadWriter() {
+            @Override
+            public int length() {
+                return jsonBytes.length;
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset) {
+                System.arraycopy(jsonBytes, 0, buffer, offset, jsonBytes.length);
+            }
+        });
+    }
+
+    EnvelopeV2 createEnvelopeV2(PayloadWriter payload) {
+        return createEnvelopeV2(createNonce(), Instant.now(), null, payload);
+    }
+
+    //the envelope is built in a single array: version, IV, then timestamp, nonce and payload which are encrypted in place, then the GCM tag
+    EnvelopeV2 createEnvelopeV2(byte[] nonce, Instant timestamp, byte[] iv, PayloadWriter payload) {
+        final int plaintextOffset = 1 + Uid2Encryption.GCM_IV_LENGTH;
+        final int plaintextLength = TIMESTAMP_LENGTH + nonce.length + payload.length();
+        byte[] envelope = new byte[plaintextOffset + plaintextLength + Uid2Encryption.GCM_AUTHTAG_LENGTH];
+
+        final byte envelopeVersion = 1;
+        envelope[0] = envelopeVersion;
+        ByteBuffer writer = ByteBuffer.wrap(envelope, plaintextOffset, TIMESTAMP_LENGTH + nonce.length);
         writer.putLong(timestamp.toEpochMilli());
         writer.put(nonce);
-        writer.put(jsonBytes);
+        payload.write(envelope, writer.position());
 
-        byte[] encrypted = Uid2Encryption.encryptGCM(writer.array(), iv, secretKey);
-        ByteBuffer envelopeBuffer = ByteBuffer.allocate(encrypted.length + 1);
-        final byte envelopeVersion = 1;
-        envelopeBuffer.put(envelopeVersion);
-        envelopeBuffer.put(encrypted);
-        return new EnvelopeV2(envelopeBuffer.array(), nonce);
+        Uid2Encryption.encryptGCMInPlace(envelope, 1, plaintextLength, iv, secretKey);
+        return new EnvelopeV2(envelope, nonce);
+    }
+
+    //writes a request payload of a known length directly into the envelope
+    interface PayloadWriter {
+        int length();
+
+        void write(byte[] buffer, int offset);
     }
 
     public String decrypt(String response, byte[] nonceInRequest) {
@@ -69,6 +98,57 @@ public class Uid2Helper {
         return new String(resultBytes, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Decrypts a response body as it is read from the network. The body is Base64 decoded while it is read (unless isBinary), into a single buffer
+     * sized from contentLength (up to 1 MB, growing as more data arrives), and decrypted in place. GCM only releases plaintext once the whole message has been authenticated, so the JSON is
+     * not exposed before the tag has been checked.
+     * @param contentLength the length of the response body, or -1 if unknown
+     * @return a stream over the decrypted JSON payload
+     */
+    InputStream decryptResponse(InputStream responseBody, long contentLength, boolean isBinary, byte[] nonceInRequest) throws IOException {
+        InputStream encrypted = isBinary ? responseBody : Base64.getDecoder().wrap(responseBody);
+        //the header is not trusted for more than MAX_INITIAL_BUFFER, so a wrong Content-Length cannot make us allocate gigabytes before reading anything
+        int sizeHint = contentLength < 0 ? -1 : (int) Math.min(MAX_INITIAL_BUFFER, isBinary ? contentLength : contentLength / 4 * 3);
+        ByteBuffer encryptedBytes = readFully(encrypted, sizeHint);
+
+        ByteBuffer payload = Uid2Encryption.decryptGCMInPlace(encryptedBytes.array(), 0, encryptedBytes.limit(), secretKey);
+        if (payload.remaining() < TIMESTAMP_LENGTH + nonceInRequest.length) {
+            throw new Uid2Exception("Nonce in request does not match nonce in response");
+        }
+        payload.position(payload.position() + TIMESTAMP_LENGTH);
+        for (byte expected : nonceInRequest) {
+            if (payload.get() != expected) {
+                throw new Uid2Exception("Nonce in request does not match nonce in response");
+            }
+        }
+        return new ByteArrayInputStream(payload.array(), payload.position(), payload.remaining());
+    }
+
+    //reads the whole stream into one array, which only needs to grow if sizeHint was too small
+    private static ByteBuffer readFully(InputStream stream, int sizeHint) throws IOException {
+        byte[] buffer = new byte[sizeHint > 0 ? sizeHint : 8192];
+        int length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                int next = stream.read();
+                if (next < 0) {
+                    break;
+                }
+                if (buffer.length >= MAX_BUFFER) {
+                    throw new IOException("response too large");
+                }
+                buffer = Arrays.copyOf(buffer, (int) Math.min(MAX_BUFFER, Math.max(buffer.length * 2L, 8192)));
+                buffer[length++] = (byte) next;
+            }
+            int read = stream.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+
     byte[] createNonce() {
         final int nonceLength = 8;
         byte[] nonce = new byte[nonceLength];
@@ -102,6 +182,8 @@ public class Uid2Helper {
 
 
     private static final int TIMESTAMP_LENGTH = 8;
+    private static final int MAX_INITIAL_BUFFER = 1 << 20;
+    private static final int MAX_BUFFER = Integer.MAX_VALUE - 8;
     private final byte[] secretKey;
     private final SecureRandom secureRandom = new SecureRandom();
     private static final String artifactAndVersion = setArtifactAndVersion();
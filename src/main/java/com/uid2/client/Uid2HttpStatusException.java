@@ -0,0 +1,21 @@
+package com.uid2.client;
+
+//thrown when the UID2 operator returns a non-2xx status, so that retry decisions can be made on the status code and Retry-After header
+class Uid2HttpStatusException extends Uid2Exception {
+    Uid2HttpStatusException(String message, int statusCode, String retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    String getRetryAfter() {
+        return retryAfter;
+    }
+
+    private final int statusCode;
+    private final String retryAfter;
+}
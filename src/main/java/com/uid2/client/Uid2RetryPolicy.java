@@ -0,0 +1,198 @@
+package com.uid2.client;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Controls how requests to the UID2 operator are retried, see {@link Uid2TransportConfig#withRetryPolicy}.
+ * Connection errors and HTTP 408, 429, 502, 503 and 504 responses are retried with exponential backoff and jitter, honouring any Retry-After header.
+ * Every attempt is sent with a freshly encrypted envelope, so each attempt has its own nonce.
+ * Token refresh requests are only retried if the connection could not be established, since the operator may already have used the single-use refresh token.
+ * Retries are disabled unless {@link #withMaxAttempts} is called with a value greater than 1.
+ */
+public class Uid2RetryPolicy {
+    /**
+     * @return a policy which sends every request exactly once. This is the default.
+     */
+    public static Uid2RetryPolicy noRetries() {
+        return new Uid2RetryPolicy();
+    }
+
+    public Uid2RetryPolicy() {}
+
+    /**
+     * @param maxAttempts the maximum number of times a request is sent, including the first attempt
+     * @return this Uid2RetryPolicy instance
+     */
+    public Uid2RetryPolicy withMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @param initialBackoff the delay before the first retry. Defaults to 200 milliseconds.
+     * @param maxBackoff     the upper bound for the delay between retries. Defaults to 10 seconds.
+     * @param multiplier     the factor by which the delay grows after every retry. Defaults to 2.
+     * @return this Uid2RetryPolicy instance
+     */
+    public Uid2RetryPolicy withBackoff(Duration initialBackoff, Duration maxBackoff, double multiplier) {
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier must be at least 1");
+        }
+        this.initialBackoffMillis = initialBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * @param jitter the fraction (between 0 and 1) of each backoff delay which is randomized, to avoid many clients retrying in lockstep. Defaults to 0.5.
+     * @return this Uid2RetryPolicy instance
+     */
+    public Uid2RetryPolicy withJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * @param maxRetryAfter the longest Retry-After delay that will be waited for. If the operator asks for a longer delay, the request fails instead. Defaults to 30 seconds.
+     * @return this Uid2RetryPolicy instance
+     */
+    public Uid2RetryPolicy withMaxRetryAfter(Duration maxRetryAfter) {
+        this.maxRetryAfterMillis = maxRetryAfter.toMillis();
+        return this;
+    }
+
+    /**
+     * Enables hedged requests for key refreshes and identity map calls: if an attempt has not completed within the given percentile of recently observed
+     * latencies, a second identical request (with its own envelope) is sent, and whichever completes first is used.
+     * Token generate and refresh requests are never hedged.
+     * @param latencyPercentile the percentile of recent latencies after which a hedged request is sent, for example 95
+     * @param minimumDelay      the minimum time to wait before sending a hedged request, regardless of observed latencies
+     * @return this Uid2RetryPolicy instance
+     */
+    public Uid2RetryPolicy withHedging(double latencyPercentile, Duration minimumDelay) {
+        if (latencyPercentile <= 0 || latencyPercentile >= 100) {
+            throw new IllegalArgumentException("latencyPercentile must be between 0 and 100");
+        }
+        this.hedgingPercentile = latencyPercentile;
+        this.hedgingMinimumDelayMillis = minimumDelay.toMillis();
+        return this;
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    boolean isHedgingEnabled() {
+        return hedgingPercentile > 0;
+    }
+
+    double getHedgingPercentile() {
+        return hedgingPercentile;
+    }
+
+    long getHedgingMinimumDelayMillis() {
+        return hedgingMinimumDelayMillis;
+    }
+
+    /**
+     * @return the number of milliseconds to wait before sending attempt number (attemptNumber + 1), or -1 if the failure should not be retried
+     */
+    long getRetryDelayMillis(Throwable failure, int attemptNumber, Instant now) {
+        return getRetryDelayMillis(failure, attemptNumber, now, true);
+    }
+
+    /**
+     * @param replayable whether the request may be sent again after it reached the operator. If false, only failures from {@link #wasNotSent} are retried.
+     */
+    long getRetryDelayMillis(Throwable failure, int attemptNumber, Instant now, boolean replayable) {
+        if (attemptNumber >= maxAttempts || !isRetryable(failure) || (!replayable && !wasNotSent(failure))) {
+            return -1;
+        }
+
+        double backoff = Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(multiplier, attemptNumber - 1));
+        long delay = (long) (backoff * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+
+        Uid2HttpStatusException statusException = findCause(failure, Uid2HttpStatusException.class);
+        if (statusException != null && statusException.getRetryAfter() != null) {
+            long retryAfterMillis = parseRetryAfterMillis(statusException.getRetryAfter(), now);
+            if (retryAfterMillis > maxRetryAfterMillis) {
+                return -1;
+            }
+            delay = Math.max(delay, retryAfterMillis);
+        }
+        return delay;
+    }
+
+    static boolean isRetryable(Throwable failure) {
+        Uid2HttpStatusException statusException = findCause(failure, Uid2HttpStatusException.class);
+        if (statusException != null) {
+            switch (statusException.getStatusCode()) {
+                case 408:
+                case 429:
+                case 502:
+                case 503:
+                case 504:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return findCause(failure, IOException.class) != null;
+    }
+
+    //the connection was refused or the host could not be resolved, so the request cannot have reached the operator
+    static boolean wasNotSent(Throwable failure) {
+        return findCause(failure, ConnectException.class) != null || findCause(failure, UnknownHostException.class) != null;
+    }
+
+    //Retry-After is either a number of seconds or an HTTP-date, see https://www.rfc-editor.org/rfc/rfc9110#field.retry-after
+    static long parseRetryAfterMillis(String retryAfter, Instant now) {
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            Instant retryAt = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return Math.max(0, Duration.between(now, retryAt).toMillis());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    static <T extends Throwable> T findCause(Throwable failure, Class<T> type) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (type.isInstance(t)) {
+                return type.cast(t);
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    private int maxAttempts = 1;
+    private long initialBackoffMillis = 200;
+    private long maxBackoffMillis = 10_000;
+    private double multiplier = 2;
+    private double jitter = 0.5;
+    private long maxRetryAfterMillis = 30_000;
+    private double hedgingPercentile = 0;
+    private long hedgingMinimumDelayMillis = 0;
+}
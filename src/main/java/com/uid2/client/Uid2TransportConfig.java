@@ -0,0 +1,216 @@
+package com.uid2.client;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP transport settings shared by the network clients ({@link BidstreamClient}, {@link SharingClient}, {@link PublisherUid2Client},
+ * {@link IdentityMapClient} and {@link IdentityMapV3Client}).
+ * All clients constructed with the same Uid2TransportConfig instance share one OkHttpClient, and therefore one connection pool and dispatcher.
+ * Clients constructed without a Uid2TransportConfig share {@link #defaultConfig()}.
+ */
+public class Uid2TransportConfig {
+    /**
+     * @return the config used by clients that were constructed without one. It uses the OkHttp defaults.
+     */
+    public static Uid2TransportConfig defaultConfig() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param httpClient an OkHttpClient owned by the caller. Its connection pool and dispatcher are shared with the UID2 clients, unless overridden by a with* method.
+     * @return a Uid2TransportConfig instance based on httpClient
+     */
+    public static Uid2TransportConfig fromHttpClient(OkHttpClient httpClient) {
+        Uid2TransportConfig config = new Uid2TransportConfig();
+        config.baseHttpClient = httpClient;
+        return config;
+    }
+
+    public Uid2TransportConfig() {}
+
+    /**
+     * @param connectTimeout the connect timeout for new connections. OkHttp defaults to 10 seconds.
+     * @return this Uid2TransportConfig instance
+     */
+    public Uid2TransportConfig withConnectTimeout(Duration connectTimeout) {
+        ensureNotInUse();
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * @param readTimeout the read timeout for connections. OkHttp defaults to 10 seconds.
+     * @return this Uid2TransportConfig instance
+     */
+    public Uid2TransportConfig withReadTimeout(Duration readTimeout) {
+        ensureNotInUse();
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * @param callTimeout the timeout for a complete call, including resolving DNS, connecting, writing the request body and reading the response body. OkHttp defaults to no timeout.
+     * @return this Uid2TransportConfig instance
+     */
+    public Uid2TransportConfig withCallTimeout(Duration callTimeout) {
+        ensureNotInUse();
+        this.callTimeout = callTimeout;
+        return this;
+    }
+
+    /**
+     * @param maxIdleConnections the maximum number of idle connections kept in the connection pool. OkHttp defaults to 5.
+     * @return this Uid2TransportConfig instance
+     */
+    public Uid2TransportConfig withMaxIdleConnections(int maxIdleConnections) {
+        ensureNotInUse();
+        if (maxIdleConnections < 0) {
+            throw new IllegalArgumentException("maxIdleConnections must not be negative");
+        }
+        this.maxIdleConnections = maxIdleConnections;
+        return this;
+    }
+
+    /**
+     * @param keepAlive how long an idle connection is kept in the connection pool. OkHttp defaults to 5 minutes.
+     * @return this Uid2TransportConfig instance
+     */
+    public Uid2TransportConfig withKeepAlive(Duration keepAlive) {
+        ensureNotInUse();
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * @param enabled whether HTTP/2 may be negotiated with the UID2 operator. Enabled by default.
+     * @return this Uid2TransportConfig instance
+     */
+    public Uid2TransportConfig withHttp2(boolean enabled) {
+        ensureNotInUse();
+        this.http2Enabled = enabled;
+        return this;
+    }
+
+    /**
+     * @param maxRequestsPerHost the maximum number of concurrent asynchronous requests per host. OkHttp defaults to 5.
+     * @return this Uid2TransportConfig instance
+     */
+    public Uid2TransportConfig withMaxRequestsPerHost(int maxRequestsPerHost) {
+        ensureNotInUse();
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("maxRequestsPerHost must be at least 1");
+        }
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        return this;
+    }
+
+    /**
+     * @param executor the executor used by the ...Async client methods for envelope encryption and response decryption/parsing, so that this work
+     *                 does not run on OkHttp dispatcher threads. Defaults to {@link ForkJoinPool#commonPool()}, or to a virtual thread per task
+     *                 on Java 21 and later.
+     * @return this Uid2TransportConfig instance
+     */
+    public Uid2TransportConfig withExecutor(Executor executor) {
+        ensureNotInUse();
+        this.executor = executor;
+        return this;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param retryPolicy how failed requests are retried and whether slow requests are hedged. Defaults to {@link Uid2RetryPolicy#noRetries()}.
+     * @return this Uid2TransportConfig instance
+     */
+    public Uid2TransportConfig withRetryPolicy(Uid2RetryPolicy retryPolicy) {
+        ensureNotInUse();
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    Uid2RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @return the OkHttpClient shared by all clients that use this config. Once this has been called (which happens when a client is constructed), the config can no longer be changed.
+     */
+    public synchronized OkHttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = buildHttpClient();
+        }
+        return httpClient;
+    }
+
+    private OkHttpClient buildHttpClient() {
+        if (baseHttpClient != null && !hasOverrides()) {
+            return baseHttpClient;
+        }
+
+        OkHttpClient.Builder builder = baseHttpClient != null ? baseHttpClient.newBuilder() : new OkHttpClient.Builder();
+        if (connectTimeout != null) {
+            builder.connectTimeout(connectTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (readTimeout != null) {
+            builder.readTimeout(readTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (callTimeout != null) {
+            builder.callTimeout(callTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (maxIdleConnections != null || keepAlive != null) {
+            builder.connectionPool(new ConnectionPool(maxIdleConnections != null ? maxIdleConnections : DEFAULT_MAX_IDLE_CONNECTIONS,
+                    keepAlive != null ? keepAlive.toMillis() : DEFAULT_KEEP_ALIVE.toMillis(), TimeUnit.MILLISECONDS));
+        }
+        if (http2Enabled != null) {
+            builder.protocols(http2Enabled ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(Protocol.HTTP_1_1));
+        }
+        if (maxRequestsPerHost != null) {
+            Dispatcher dispatcher = new Dispatcher(); //never modify the dispatcher of a caller-supplied client
+            dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+            builder.dispatcher(dispatcher);
+        }
+        return builder.build();
+    }
+
+    private boolean hasOverrides() {
+        return connectTimeout != null || readTimeout != null || callTimeout != null || maxIdleConnections != null || keepAlive != null
+                || http2Enabled != null || maxRequestsPerHost != null;
+    }
+
+    private synchronized void ensureNotInUse() {
+        if (httpClient != null) {
+            throw new IllegalStateException("Uid2TransportConfig cannot be changed after a client has been constructed with it");
+        }
+        if (this == DEFAULT) {
+            throw new IllegalStateException("The default Uid2TransportConfig cannot be changed, create a new Uid2TransportConfig instead");
+        }
+    }
+
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    private static final Duration DEFAULT_KEEP_ALIVE = Duration.ofMinutes(5);
+    private static final Uid2TransportConfig DEFAULT = new Uid2TransportConfig();
+
+    private OkHttpClient baseHttpClient;
+    private OkHttpClient httpClient;
+    private Duration connectTimeout;
+    private Duration readTimeout;
+    private Duration callTimeout;
+    private Integer maxIdleConnections;
+    private Duration keepAlive;
+    private Boolean http2Enabled;
+    private Integer maxRequestsPerHost;
+    private Executor executor = Platform.defaultExecutor();
+    private Uid2RetryPolicy retryPolicy = Uid2RetryPolicy.noRetries();
+}
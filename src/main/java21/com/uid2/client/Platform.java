@@ -0,0 +1,17 @@
+package com.uid2.client;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+//Java 21 version of src/main/java/com/uid2/client/Platform.java, packaged under META-INF/versions/21
+final class Platform {
+    //a virtual thread per task, so that a slow IdentityMapV3Store or listener does not hold up the common pool
+    static Executor defaultExecutor() {
+        return DEFAULT_EXECUTOR;
+    }
+
+    private Platform() {
+    }
+
+    private static final Executor DEFAULT_EXECUTOR = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("uid2-client-", 0).factory());
+}
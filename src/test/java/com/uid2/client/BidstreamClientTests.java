@@ -11,6 +11,7 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import static com.uid2.client.EncryptionV4Tests.validateAdvertisingToken;
@@ -418,6 +419,21 @@ public class BidstreamClientTests {
         decryptAndAssertSuccess(advertisingToken, TokenVersionForTesting.V4);
     }
 
+    @Test
+    public void refreshAsyncReportsUnreachableOperator() {
+        AtomicInteger executorTasks = new AtomicInteger();
+        Uid2TransportConfig config = new Uid2TransportConfig().withExecutor(task -> {
+            executorTasks.incrementAndGet();
+            task.run();
+        });
+        BidstreamClient client = new BidstreamClient("http://localhost:1", "ak", CLIENT_SECRET, config);
+
+        RefreshResponse refreshResponse = client.refreshAsync().join();
+        assertFalse(refreshResponse.isSuccess());
+        assertEquals("error communicating with api endpoint", refreshResponse.getReason());
+        assertTrue(executorTasks.get() > 0);
+    }
+
     private void refresh(String json) {
         RefreshResponse refreshResponse = bidstreamClient.refreshJson(json);
         assertTrue(refreshResponse.isSuccess());
@@ -0,0 +1,142 @@
+package com.uid2.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.uid2.client.TestData.CLIENT_SECRET;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingIdentityMapV3ClientTests {
+    private static final List<String> EMAILS = Arrays.asList("a@example.com", "b@example.com", "B@example.com");
+
+    @Test
+    public void answersFreshIdentitiesFromStore() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            CachingIdentityMapV3Client client = new CachingIdentityMapV3Client(createClient(operator), new InMemoryIdentityMapV3Store());
+
+            CachedIdentityMapV3Response first = client.generateIdentityMap(IdentityMapV3Input.fromEmails(EMAILS));
+            assertEquals(0, first.getCacheHitCount());
+            assertEquals(2, first.getCacheMissCount());
+
+            CachedIdentityMapV3Response second = client.generateIdentityMap(IdentityMapV3Input.fromEmails(EMAILS).withEmail("c@example.com"));
+            assertEquals(2, second.getCacheHitCount());
+            assertEquals(1, second.getCacheMissCount());
+            assertEquals(4, second.getMappedIdentitiesView().size());
+            for (String email : EMAILS) {
+                assertEquals(first.getMappedIdentity(email).getCurrentRawUid(), second.getMappedIdentity(email).getCurrentRawUid());
+            }
+
+            CachedIdentityMapV3Response third = client.generateIdentityMapAsync(IdentityMapV3Input.fromEmails(EMAILS)).join();
+            assertEquals(2, third.getCacheHitCount());
+            assertEquals(2, operator.getRequestCount("/v3/identity/map"));
+        }
+    }
+
+    @Test
+    public void remapsIdentitiesDueForRefresh() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            InMemoryIdentityMapV3Store store = new InMemoryIdentityMapV3Store();
+            CachingIdentityMapV3Client client = new CachingIdentityMapV3Client(createClient(operator), store);
+            client.generateIdentityMap(IdentityMapV3Input.fromEmails(EMAILS));
+            operator.rotateSalts();
+
+            CachedIdentityMapV3Response response = client.generateIdentityMap(IdentityMapV3Input.fromEmails(EMAILS), Instant.now().plus(31, ChronoUnit.DAYS));
+
+            assertEquals(0, response.getCacheHitCount());
+            assertEquals(2, response.getCacheMissCount());
+            IdentityMapV3Response.MappedIdentity stored = store.get(IdentityType.Email, InputUtil.normalizeAndHashEmail("a@example.com"));
+            assertEquals(response.getMappedIdentity("a@example.com").getCurrentRawUid(), stored.getCurrentRawUid());
+            assertNotNull(stored.getPreviousRawUid());
+        }
+    }
+
+    @Test
+    public void optedOutIdentitiesAreRemovedFromStore() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            String hashedEmail = InputUtil.normalizeAndHashEmail("a@example.com");
+            InMemoryIdentityMapV3Store store = new InMemoryIdentityMapV3Store();
+            store.put(IdentityType.Email, hashedEmail, new IdentityMapV3Response.MappedIdentity("stale", null, Instant.now().minusSeconds(1)));
+            operator.withOptout(hashedEmail);
+            CachingIdentityMapV3Client client = new CachingIdentityMapV3Client(createClient(operator), store);
+
+            CachedIdentityMapV3Response response = client.generateIdentityMap(IdentityMapV3Input.fromEmails(EMAILS));
+
+            assertEquals(UnmappedIdentityReason.OPTOUT, response.getUnmappedIdentity("a@example.com").getReason());
+            assertNull(store.get(IdentityType.Email, hashedEmail));
+            assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    public void fileStoreSurvivesReopenAndCompaction() throws IOException {
+        Path file = Files.createTempFile("identity-map", ".store");
+        try {
+            Instant refreshFrom = Instant.ofEpochSecond(1_900_000_000L);
+            try (FileIdentityMapV3Store store = new FileIdentityMapV3Store(file)) {
+                store.put(IdentityType.Email, "email-hash", new IdentityMapV3Response.MappedIdentity("uid-1", null, refreshFrom));
+                store.put(IdentityType.Email, "email-hash", new IdentityMapV3Response.MappedIdentity("uid-2", "uid-1", refreshFrom));
+                store.put(IdentityType.Phone, "email-hash", new IdentityMapV3Response.MappedIdentity("phone-uid", null, refreshFrom));
+                store.put(IdentityType.Phone, "removed", new IdentityMapV3Response.MappedIdentity("uid-3", null, refreshFrom));
+                store.remove(IdentityType.Phone, "removed");
+            }
+            Files.write(file, "0\tpartial\tuid".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            try (FileIdentityMapV3Store store = new FileIdentityMapV3Store(file)) {
+                assertEquals(2, store.size());
+                IdentityMapV3Response.MappedIdentity email = store.get(IdentityType.Email, "email-hash");
+                assertEquals("uid-2", email.getCurrentRawUid());
+                assertEquals("uid-1", email.getPreviousRawUid());
+                assertEquals(refreshFrom, email.getRefreshFrom());
+                assertNull(store.get(IdentityType.Phone, "email-hash").getPreviousRawUid());
+
+                store.compact();
+                assertEquals(2, Files.readAllLines(file).size());
+                store.remove(IdentityType.Email, "email-hash");
+            }
+
+            try (FileIdentityMapV3Store store = new FileIdentityMapV3Store(file)) {
+                assertEquals(1, store.size());
+                assertEquals("phone-uid", store.get(IdentityType.Phone, "email-hash").getCurrentRawUid());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void fileStoreStaysWritableAfterFailedCompaction() throws IOException {
+        Path file = Files.createTempFile("identity-map", ".store");
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectory(temp); //the compacted file cannot be written
+            Files.createFile(temp.resolve("child"));
+            try (FileIdentityMapV3Store store = new FileIdentityMapV3Store(file)) {
+                store.put(IdentityType.Email, "before", new IdentityMapV3Response.MappedIdentity("uid-1", null, null));
+                assertThrows(Uid2Exception.class, store::compact);
+                store.put(IdentityType.Email, "after", new IdentityMapV3Response.MappedIdentity("uid-2", null, null));
+            }
+
+            try (FileIdentityMapV3Store store = new FileIdentityMapV3Store(file)) {
+                assertEquals("uid-1", store.get(IdentityType.Email, "before").getCurrentRawUid());
+                assertEquals("uid-2", store.get(IdentityType.Email, "after").getCurrentRawUid());
+            }
+        } finally {
+            Files.deleteIfExists(temp.resolve("child"));
+            Files.deleteIfExists(temp);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static IdentityMapV3Client createClient(FakeOperator operator) {
+        return new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+    }
+}
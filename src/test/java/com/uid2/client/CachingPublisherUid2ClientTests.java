@@ -0,0 +1,149 @@
+package com.uid2.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+import static com.uid2.client.TestData.CLIENT_SECRET;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingPublisherUid2ClientTests {
+    private FakeOperator operator;
+    private PublisherUid2Client publisherClient;
+    private CachingPublisherUid2Client client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        operator = new FakeOperator();
+        publisherClient = new PublisherUid2Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+        client = new CachingPublisherUid2Client(publisherClient);
+    }
+
+    @AfterEach
+    void tearDown() {
+        operator.close();
+    }
+
+    @Test
+    void returnsTheKeptIdentityForTheSameUser() {
+        TokenGenerateResponse first = client.generateTokenResponse(TokenGenerateInput.fromEmail("user@example.com"));
+        assertTrue(first.isSuccess());
+
+        TokenGenerateResponse second = client.generateTokenResponse(TokenGenerateInput.fromEmail(" User@Example.com"));
+        TokenGenerateResponse hashed = client.generateTokenResponse(TokenGenerateInput.fromHashedEmail(InputUtil.normalizeAndHashEmail("user@example.com")));
+        assertTrue(second.isSuccess());
+        assertEquals(first.getIdentity().getAdvertisingToken(), second.getIdentity().getAdvertisingToken());
+        assertEquals(first.getIdentity().getRefreshToken(), hashed.getIdentity().getRefreshToken());
+        assertEquals(first.getIdentityJsonString(), second.getIdentityJsonString());
+        assertEquals(1, operator.getRequestCount("/v2/token/generate"));
+
+        TokenGenerateResponse other = client.generateTokenResponse(TokenGenerateInput.fromEmail("other@example.com"));
+        assertNotEquals(first.getIdentity().getAdvertisingToken(), other.getIdentity().getAdvertisingToken());
+        TokenGenerateResponse withConsent = client.generateTokenResponse(TokenGenerateInput.fromEmail("user@example.com").withTransparencyAndConsentString("CPhJRpMPhJRpMABAMBFRACBoALAAAEJAAIYgAKwAQAKgArABAAqAAA"));
+        assertNotEquals(first.getIdentity().getAdvertisingToken(), withConsent.getIdentity().getAdvertisingToken());
+        assertEquals(3, operator.getRequestCount("/v2/token/generate"));
+        assertEquals(2, client.size());
+    }
+
+    @Test
+    void concurrentCallsForTheSameUserShareOneRequest() {
+        CompletableFuture<TokenGenerateResponse> first = client.generateTokenResponseAsync(TokenGenerateInput.fromPhone("+12345678901"));
+        CompletableFuture<TokenGenerateResponse> second = client.generateTokenResponseAsync(TokenGenerateInput.fromPhone("+12345678901"));
+
+        assertEquals(first.join().getIdentity().getAdvertisingToken(), second.join().getIdentity().getAdvertisingToken());
+        assertEquals(1, operator.getRequestCount("/v2/token/generate"));
+    }
+
+    @Test
+    void concurrentCallsWithDifferentConsentDoNotShareARequest() {
+        operator.withLatency(Duration.ofMillis(100));
+        CompletableFuture<TokenGenerateResponse> withoutConsent = client.generateTokenResponseAsync(TokenGenerateInput.fromEmail("user@example.com"));
+        CompletableFuture<TokenGenerateResponse> withConsent = client.generateTokenResponseAsync(TokenGenerateInput.fromEmail("user@example.com")
+                .withTransparencyAndConsentString("CPhJRpMPhJRpMABAMBFRACBoALAAAEJAAIYgAKwAQAKgArABAAqAAA"));
+
+        assertNotEquals(withoutConsent.join().getIdentity().getAdvertisingToken(), withConsent.join().getIdentity().getAdvertisingToken());
+        assertEquals(2, operator.getRequestCount("/v2/token/generate"));
+    }
+
+    @Test
+    void dueIdentityIsRefreshedRatherThanRegenerated() {
+        TokenGenerateInput input = TokenGenerateInput.fromEmail("user@example.com");
+        IdentityTokens generated = client.generateTokenResponse(input).getIdentity();
+
+        TokenGenerateResponse refreshed = client.generateTokenResponseAsync(input, generated.getRefreshFrom().plusSeconds(1)).join();
+        assertTrue(refreshed.isSuccess());
+        assertNotEquals(generated.getRefreshToken(), refreshed.getIdentity().getRefreshToken());
+        assertEquals(1, operator.getRequestCount("/v2/token/refresh"));
+
+        assertEquals(refreshed.getIdentity().getRefreshToken(), client.generateTokenResponse(input).getIdentity().getRefreshToken());
+        assertEquals(1, operator.getRequestCount("/v2/token/generate"));
+    }
+
+    @Test
+    void failedRefreshFallsBackToGenerate() {
+        TokenGenerateInput input = TokenGenerateInput.fromEmail("user@example.com");
+        IdentityTokens generated = client.generateTokenResponse(input).getIdentity();
+        assertTrue(publisherClient.refreshToken(generated).isSuccess()); //the refresh token is single use, so the client's refresh is rejected
+
+        TokenGenerateResponse response = client.generateTokenResponseAsync(input, generated.getRefreshFrom().plusSeconds(1)).join();
+        assertTrue(response.isSuccess());
+        assertEquals(2, operator.getRequestCount("/v2/token/refresh"));
+        assertEquals(2, operator.getRequestCount("/v2/token/generate"));
+    }
+
+    @Test
+    void optedOutUserIsDropped() {
+        TokenGenerateInput input = TokenGenerateInput.fromEmail("user@example.com");
+        IdentityTokens generated = client.generateTokenResponse(input).getIdentity();
+        operator.withOptout(InputUtil.normalizeAndHashEmail("user@example.com"));
+
+        TokenGenerateResponse response = client.generateTokenResponseAsync(input, generated.getRefreshFrom().plusSeconds(1)).join();
+        assertTrue(response.isOptout());
+        assertNull(response.getIdentity());
+        assertEquals(0, client.size());
+        assertTrue(client.generateTokenResponse(input).isOptout());
+        assertEquals(2, operator.getRequestCount("/v2/token/generate"));
+    }
+
+    @Test
+    void identityIsRegeneratedOnceItsRefreshTokenExpires() {
+        TokenGenerateInput input = TokenGenerateInput.fromEmail("user@example.com");
+        IdentityTokens generated = client.generateTokenResponse(input).getIdentity();
+
+        Instant expired = generated.getRefreshExpires().plusSeconds(1);
+        assertTrue(client.generateTokenResponseAsync(input, expired).join().isSuccess());
+        assertEquals(0, operator.getRequestCount("/v2/token/refresh"));
+        assertEquals(2, operator.getRequestCount("/v2/token/generate"));
+    }
+
+    @Test
+    void leastRecentlyUsedIdentityIsEvicted() {
+        client.withMaxSize(2);
+        client.generateTokenResponse(TokenGenerateInput.fromEmail("a@example.com"));
+        client.generateTokenResponse(TokenGenerateInput.fromEmail("b@example.com"));
+        client.generateTokenResponse(TokenGenerateInput.fromEmail("a@example.com"));
+        client.generateTokenResponse(TokenGenerateInput.fromEmail("c@example.com"));
+        assertEquals(2, client.size());
+        assertEquals(3, operator.getRequestCount("/v2/token/generate"));
+
+        client.generateTokenResponse(TokenGenerateInput.fromEmail("a@example.com"));
+        assertEquals(3, operator.getRequestCount("/v2/token/generate"));
+        client.generateTokenResponse(TokenGenerateInput.fromEmail("b@example.com"));
+        assertEquals(4, operator.getRequestCount("/v2/token/generate"));
+
+        client.invalidate(TokenGenerateInput.fromEmail("b@example.com"));
+        assertEquals(1, client.size());
+    }
+
+    @Test
+    void invalidInputIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> client.generateTokenResponse(TokenGenerateInput.fromEmail("not an email")));
+        assertThrows(IllegalArgumentException.class, () -> client.generateTokenResponse(TokenGenerateInput.fromPhone("12345678901")));
+        assertEquals(0, operator.getRequestCount("/v2/token/generate"));
+    }
+}
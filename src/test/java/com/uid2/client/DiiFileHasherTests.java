@@ -0,0 +1,115 @@
+package com.uid2.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DiiFileHasherTests {
+    @Test
+    void hashesEmailsInInputOrderAcrossChunkBoundaries() throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            rows.add(i % 50 == 7 ? "not an email " + i : i % 61 == 3 ? "" : " User.Name+" + i + "@Example.com");
+        }
+        String content = String.join("\r\n", rows.subList(0, 250)) + "\n" + String.join("\n", rows.subList(250, rows.size())); //no trailing newline
+
+        List<String> expectedHashes = new ArrayList<>();
+        List<String> expectedRejects = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).startsWith("not")) {
+                expectedRejects.add((i + 1) + "\tinvalid email address\t" + rows.get(i));
+            } else if (!rows.get(i).isEmpty()) {
+                expectedHashes.add(InputUtil.normalizeAndHashEmail(rows.get(i)));
+            }
+        }
+
+        Path input = write(content.getBytes(StandardCharsets.UTF_8));
+        for (int chunkSize : new int[]{1, 7, 30, 1000, 1 << 20}) {
+            Path output = Files.createTempFile("hashes", ".txt");
+            Path rejects = Files.createTempFile("rejects", ".txt");
+            try {
+                DiiFileHasher.Result result = DiiFileHasher.forEmails().withThreads(3).withChunkSize(chunkSize).hash(input, output, rejects);
+
+                assertEquals(rows.size(), result.getLineCount());
+                assertEquals(expectedHashes.size(), result.getHashedCount());
+                assertEquals(expectedRejects.size(), result.getRejectedCount());
+                assertEquals(expectedHashes, Files.readAllLines(output, StandardCharsets.UTF_8), "chunkSize " + chunkSize);
+                assertEquals(expectedRejects, Files.readAllLines(rejects, StandardCharsets.UTF_8), "chunkSize " + chunkSize);
+            } finally {
+                Files.delete(output);
+                Files.delete(rejects);
+            }
+        }
+        Files.delete(input);
+    }
+
+    @Test
+    void writesPackedBinaryPhoneHashes() throws IOException {
+        List<String> phones = Arrays.asList("+12345678901", "12345678901", "+1234567890123", "+44 20 7946 0000", "+447946000000");
+        Path input = write((String.join("\n", phones) + "\n").getBytes(StandardCharsets.UTF_8));
+        Path output = Files.createTempFile("hashes", ".bin");
+        Path rejects = Files.createTempFile("rejects", ".txt");
+        try {
+            DiiFileHasher.Result result = DiiFileHasher.forPhones().withOutputFormat(HashedDiiFormat.BINARY).withChunkSize(10).hash(input, output, rejects);
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (String phone : Arrays.asList("+12345678901", "+1234567890123", "+447946000000")) {
+                expected.write(InputUtil.getSha256Bytes(phone));
+            }
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(output));
+            assertEquals(Arrays.asList("2\tphone number is not normalized\t12345678901", "4\tphone number is not normalized\t+44 20 7946 0000"),
+                    Files.readAllLines(rejects, StandardCharsets.UTF_8));
+            assertEquals(5, result.getLineCount());
+
+            byte[] packed = Files.readAllBytes(output);
+            IdentityMapV3Input fromPacked = IdentityMapV3Input.fromHashedPhones(packed, packed.length / 32);
+            assertEquals(Base64.getEncoder().encodeToString(InputUtil.getSha256Bytes("+12345678901")), fromPacked.getHashedDiis(IdentityType.Phone).get(0));
+        } finally {
+            Files.delete(input);
+            Files.delete(output);
+            Files.delete(rejects);
+        }
+    }
+
+    @Test
+    void rejectsOverlongLines() throws IOException {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i <= DiiFileHasher.MAX_LINE_LENGTH; i++) {
+            longLine.append('a');
+        }
+        String content = "a@example.com\n" + longLine + "@example.com\nb@example.com\n";
+        Path input = write(content.getBytes(StandardCharsets.UTF_8));
+        Path output = Files.createTempFile("hashes", ".txt");
+        Path rejects = Files.createTempFile("rejects", ".txt");
+        try {
+            for (int chunkSize : new int[]{100, 50_000, 1 << 20}) {
+                DiiFileHasher.Result result = DiiFileHasher.forEmails().withChunkSize(chunkSize).hash(input, output, rejects);
+
+                assertEquals(3, result.getLineCount(), "chunkSize " + chunkSize);
+                assertEquals(Arrays.asList(InputUtil.normalizeAndHashEmail("a@example.com"), InputUtil.normalizeAndHashEmail("b@example.com")),
+                        Files.readAllLines(output, StandardCharsets.UTF_8));
+                assertEquals(Arrays.asList("2\tline is longer than " + DiiFileHasher.MAX_LINE_LENGTH + " bytes\t"), Files.readAllLines(rejects, StandardCharsets.UTF_8));
+            }
+        } finally {
+            Files.delete(input);
+            Files.delete(output);
+            Files.delete(rejects);
+        }
+    }
+
+    private static Path write(byte[] content) throws IOException {
+        Path file = Files.createTempFile("diis", ".csv");
+        Files.write(file, content);
+        return file;
+    }
+}
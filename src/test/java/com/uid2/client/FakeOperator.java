@@ -0,0 +1,556 @@
+package com.uid2.client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process stand-in for a UID2 operator, for testing and benchmarking the full client stack without a network or environment variables.
+ * Implements /v2/key/bidstream, /v2/key/sharing, /v2/token/generate, /v2/token/refresh, /v2/identity/map, /v3/identity/map and /ops/healthcheck using the same
+ * envelope format as {@link Uid2Helper}, with configurable latency, error injection, key rotation and salt rotation.
+ * Raw UIDs are derived deterministically from the hashed DII and the current salt, so token generate and identity map agree with each other.
+ * <p>
+ * Published in the uid2-client test-jar (classifier {@code tests}), so that applications can test their own integration with this client. Point a client at
+ * {@link #getBaseUrl()} with {@link #CLIENT_API_KEY} and {@link #CLIENT_SECRET}, and close the operator when done:
+ * <pre>{@code
+ * try (FakeOperator operator = new FakeOperator()) {
+ *     PublisherUid2Client client = new PublisherUid2Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, FakeOperator.CLIENT_SECRET);
+ *     ...
+ * }
+ * }</pre>
+ */
+public class FakeOperator implements AutoCloseable {
+    /**
+     * The API key the operator accepts. Requests with any other key fail with 401.
+     */
+    public static final String CLIENT_API_KEY = "fake-operator-api-key";
+    /**
+     * The base64 encoded client secret the operator encrypts its responses with.
+     */
+    public static final String CLIENT_SECRET = "ioG3wKxAokmp+rERx6A4kM/13qhyolUXIu14WN16Spo=";
+    /**
+     * The site ID of the caller, which is also the site ID in every token the operator generates.
+     */
+    public static final int SITE_ID = 9000;
+
+    /**
+     * Starts an operator with the UID2 identity scope on a free local port.
+     */
+    public FakeOperator() throws IOException {
+        this(IdentityScope.UID2);
+    }
+
+    /**
+     * Starts an operator with the given identity scope on a free local port.
+     */
+    public FakeOperator(IdentityScope identityScope) throws IOException {
+        this.identityScope = identityScope;
+        this.secretKey = Base64.getDecoder().decode(CLIENT_SECRET);
+        rotateKeys();
+        rotateSalts();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/v2/key/bidstream", exchange -> handle(exchange, this::keyBidstream));
+        server.createContext("/v2/key/sharing", exchange -> handle(exchange, this::keySharing));
+        server.createContext("/v2/token/generate", exchange -> handle(exchange, this::tokenGenerate));
+        server.createContext("/v2/token/refresh", this::handleTokenRefresh);
+        server.createContext("/v2/identity/map", exchange -> handle(exchange, this::identityMapV2));
+        server.createContext("/v3/identity/map", exchange -> handle(exchange, this::identityMapV3));
+        server.createContext("/ops/healthcheck", this::handleHealthcheck);
+        server.start();
+    }
+
+    /**
+     * @return the base URL to pass to a client, such as http://127.0.0.1:12345
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @param latency the time every request is delayed by before it is handled
+     * @return this FakeOperator instance
+     */
+    public FakeOperator withLatency(Duration latency) {
+        this.latencyMillis = latency.toMillis();
+        return this;
+    }
+
+    /**
+     * Makes the next count requests (to any endpoint) fail with the given status code.
+     * @param retryAfter the value of the Retry-After header to send, or null for none
+     * @return this FakeOperator instance
+     */
+    public FakeOperator failNextRequests(int count, int statusCode, String retryAfter) {
+        synchronized (this) {
+            this.failureStatusCode = statusCode;
+            this.failureRetryAfter = retryAfter;
+        }
+        this.pendingFailures.set(count);
+        return this;
+    }
+
+    /**
+     * @param hashedDii a base64 encoded SHA-256 hash of a normalized email or phone number, which token generate and identity map will treat as opted out
+     * @return this FakeOperator instance
+     */
+    public FakeOperator withOptout(String hashedDii) {
+        optedOut.add(hashedDii);
+        return this;
+    }
+
+    /**
+     * @param refreshFrom the refresh_from identity map v3 reports for every mapped identity, instead of 30 days after each request, so that separate requests agree
+     * @return this FakeOperator instance
+     */
+    public FakeOperator withIdentityMapRefreshFrom(Instant refreshFrom) {
+        this.identityMapRefreshFrom = refreshFrom;
+        return this;
+    }
+
+    /**
+     * Adds a new master key and site key, which are used for tokens generated from now on. Previous keys remain available until they expire.
+     */
+    public synchronized void rotateKeys() {
+        Instant now = Instant.now();
+        long id = nextKeyId;
+        nextKeyId += 2;
+        Instant activates = keys.isEmpty() ? now.minus(1, ChronoUnit.DAYS) : now.minusSeconds(1);
+        masterKey = Key.createKeysetKey(id, MASTER_KEYSET_ID, now.minus(1, ChronoUnit.DAYS), activates, now.plus(1, ChronoUnit.DAYS), randomBytes(32));
+        siteKey = Key.createKeysetKey(id + 1, SITE_KEYSET_ID, now.minus(1, ChronoUnit.DAYS), activates, now.plus(1, ChronoUnit.DAYS), randomBytes(32));
+        keys.add(masterKey);
+        keys.add(siteKey);
+    }
+
+    /**
+     * Changes the salt used to derive raw UIDs. Identity map v3 reports the raw UID derived from the previous salt as the previous raw UID.
+     */
+    public synchronized void rotateSalts() {
+        previousSalt = salt;
+        salt = randomBytes(32);
+    }
+
+    /**
+     * @return the number of requests received for the given path, including failed ones
+     */
+    public int getRequestCount(String path) {
+        AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Stops the operator. Requests in progress are abandoned.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private interface EnvelopeHandler {
+        JsonObject handle(JsonObject request);
+    }
+
+    private void handle(HttpExchange exchange, EnvelopeHandler handler) throws IOException {
+        try {
+            if (!beforeHandling(exchange)) {
+                return;
+            }
+            boolean isBinary = "application/octet-stream".equals(exchange.getRequestHeaders().getFirst("Content-Type"));
+            byte[] body = readBody(exchange);
+            byte[] envelope = isBinary ? body : Base64.getDecoder().decode(new String(body, StandardCharsets.US_ASCII).trim());
+            if (envelope.length == 0 || envelope[0] != 1) {
+                sendError(exchange, 400, "invalid envelope version");
+                return;
+            }
+
+            ByteBuffer payload = ByteBuffer.wrap(Uid2Encryption.decryptGCM(envelope, 1, secretKey));
+            payload.getLong(); //timestamp
+            byte[] nonce = new byte[NONCE_LENGTH];
+            payload.get(nonce);
+            String json = new String(payload.array(), payload.position(), payload.remaining(), StandardCharsets.UTF_8);
+            JsonObject request = json.isEmpty() ? new JsonObject() : JsonParser.parseString(json).getAsJsonObject();
+
+            byte[] responseJson = handler.handle(request).toString().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer responsePayload = ByteBuffer.allocate(8 + NONCE_LENGTH + responseJson.length);
+            responsePayload.putLong(Instant.now().toEpochMilli());
+            responsePayload.put(nonce);
+            responsePayload.put(responseJson);
+            byte[] encrypted = Uid2Encryption.encryptGCM(responsePayload.array(), null, secretKey);
+
+            if (isBinary) {
+                send(exchange, 200, "application/octet-stream", encrypted);
+            } else {
+                send(exchange, 200, "text/plain", Base64.getEncoder().encode(encrypted));
+            }
+        } catch (RuntimeException e) {
+            sendError(exchange, 400, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    //injected failures apply to healthchecks too, so an operator failing requests is not reported healthy
+    private void handleHealthcheck(HttpExchange exchange) throws IOException {
+        try {
+            if (beforeHandling(exchange)) {
+                send(exchange, 200, "text/plain", "OK".getBytes(StandardCharsets.US_ASCII));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    //token refresh requests are not encrypted; the response is encrypted with the refresh_response_key and has no timestamp or nonce
+    private void handleTokenRefresh(HttpExchange exchange) throws IOException {
+        try {
+            if (!beforeHandling(exchange)) {
+                return;
+            }
+            String refreshToken = new String(readBody(exchange), StandardCharsets.UTF_8);
+            RefreshTokenState state = refreshTokens.remove(refreshToken);
+            if (state == null) {
+                sendError(exchange, 400, "invalid_token");
+                return;
+            }
+
+            JsonObject response;
+            if (optedOut.contains(state.hashedDii)) {
+                response = status("optout");
+            } else {
+                response = status("success");
+                response.add("body", createIdentity(state.hashedDii, state.identityType, state.established));
+            }
+            byte[] encrypted = Uid2Encryption.encryptGCM(response.toString().getBytes(StandardCharsets.UTF_8), null, Base64.getDecoder().decode(state.refreshResponseKey));
+            send(exchange, 200, "text/plain", Base64.getEncoder().encode(encrypted));
+        } catch (RuntimeException e) {
+            sendError(exchange, 400, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean beforeHandling(HttpExchange exchange) throws IOException {
+        requestCounts.computeIfAbsent(exchange.getRequestURI().getPath(), k -> new AtomicInteger()).incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (pendingFailures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            int statusCode;
+            String retryAfter;
+            synchronized (this) {
+                statusCode = failureStatusCode;
+                retryAfter = failureRetryAfter;
+            }
+            if (retryAfter != null) {
+                exchange.getResponseHeaders().add("Retry-After", retryAfter);
+            }
+            sendError(exchange, statusCode, "injected failure");
+            return false;
+        }
+
+        if (!("Bearer " + CLIENT_API_KEY).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            sendError(exchange, 401, "unauthorized");
+            return false;
+        }
+        return true;
+    }
+
+    private JsonObject keyBidstream(JsonObject request) {
+        JsonObject body = keysBody();
+        body.addProperty("max_bidstream_lifetime_seconds", Duration.ofDays(3).getSeconds());
+
+        JsonArray domainNames = new JsonArray();
+        domainNames.add("example.com");
+        domainNames.add("example.org");
+        JsonObject site = new JsonObject();
+        site.addProperty("id", SITE_ID);
+        site.add("domain_names", domainNames);
+        JsonArray siteData = new JsonArray();
+        siteData.add(site);
+        body.add("site_data", siteData);
+
+        JsonObject response = status("success");
+        response.add("body", body);
+        return response;
+    }
+
+    private JsonObject keySharing(JsonObject request) {
+        JsonObject body = keysBody();
+        body.addProperty("max_sharing_lifetime_seconds", Duration.ofDays(30).getSeconds());
+        body.addProperty("token_expiry_seconds", Duration.ofDays(30).getSeconds());
+
+        JsonObject response = status("success");
+        response.add("body", body);
+        return response;
+    }
+
+    private synchronized JsonObject keysBody() {
+        JsonArray keysJson = new JsonArray();
+        for (Key key : keys) {
+            JsonObject keyJson = new JsonObject();
+            keyJson.addProperty("id", key.getId());
+            keyJson.addProperty("keyset_id", key.getKeysetId());
+            keyJson.addProperty("created", key.getCreated().getEpochSecond());
+            keyJson.addProperty("activates", key.getActivates().getEpochSecond());
+            keyJson.addProperty("expires", key.getExpires().getEpochSecond());
+            keyJson.addProperty("secret", Base64.getEncoder().encodeToString(key.getSecret()));
+            keysJson.add(keyJson);
+        }
+
+        JsonObject body = new JsonObject();
+        body.addProperty("caller_site_id", SITE_ID);
+        body.addProperty("master_keyset_id", MASTER_KEYSET_ID);
+        body.addProperty("default_keyset_id", SITE_KEYSET_ID);
+        body.addProperty("identity_scope", identityScope.toString());
+        body.addProperty("allow_clock_skew_seconds", 1800);
+        body.add("keys", keysJson);
+        return body;
+    }
+
+    private JsonObject tokenGenerate(JsonObject request) {
+        IdentityType identityType = request.has("phone") || request.has("phone_hash") ? IdentityType.Phone : IdentityType.Email;
+        String hashedDii;
+        if (request.has("email_hash")) {
+            hashedDii = request.get("email_hash").getAsString();
+        } else if (request.has("phone_hash")) {
+            hashedDii = request.get("phone_hash").getAsString();
+        } else if (request.has("email")) {
+            hashedDii = InputUtil.normalizeAndHashEmail(request.get("email").getAsString());
+        } else {
+            hashedDii = InputUtil.getBase64EncodedHash(request.get("phone").getAsString());
+        }
+
+        if (optedOut.contains(hashedDii)) {
+            return status("optout");
+        }
+        JsonObject response = status("success");
+        response.add("body", createIdentity(hashedDii, identityType, Instant.now()));
+        return response;
+    }
+
+    private JsonObject createIdentity(String hashedDii, IdentityType identityType, Instant established) {
+        Instant now = Instant.now();
+        Key currentMasterKey;
+        Key currentSiteKey;
+        byte[] currentSalt;
+        synchronized (this) {
+            currentMasterKey = masterKey;
+            currentSiteKey = siteKey;
+            currentSalt = salt;
+        }
+
+        Uid2TokenGenerator.Params params = Uid2TokenGenerator.defaultParams()
+                .withTokenExpiry(now.plus(TOKEN_LIFETIME))
+                .WithTokenGenerated(now)
+                .WithIdentityEstablished(established);
+        params.identityScope = identityScope.value;
+        String rawUid = getRawUid(hashedDii, identityType, currentSalt);
+        String advertisingToken = Uid2TokenGenerator.generateUid2TokenV4(rawUid, currentMasterKey, SITE_ID, currentSiteKey, params);
+
+        String refreshToken = Base64.getEncoder().encodeToString(randomBytes(32));
+        String refreshResponseKey = Base64.getEncoder().encodeToString(randomBytes(32));
+        refreshTokens.put(refreshToken, new RefreshTokenState(hashedDii, identityType, established, refreshResponseKey));
+
+        JsonObject identity = new JsonObject();
+        identity.addProperty("advertising_token", advertisingToken);
+        identity.addProperty("refresh_token", refreshToken);
+        identity.addProperty("identity_expires", now.plus(TOKEN_LIFETIME).toEpochMilli());
+        identity.addProperty("refresh_expires", now.plus(30, ChronoUnit.DAYS).toEpochMilli());
+        identity.addProperty("refresh_from", now.plus(TOKEN_LIFETIME.dividedBy(2)).toEpochMilli());
+        identity.addProperty("refresh_response_key", refreshResponseKey);
+        return identity;
+    }
+
+    private JsonObject identityMapV2(JsonObject request) {
+        byte[] currentSalt = getSalt();
+        JsonArray mapped = new JsonArray();
+        JsonArray unmapped = new JsonArray();
+        for (String type : new String[]{"email_hash", "phone_hash"}) {
+            IdentityType identityType = type.equals("email_hash") ? IdentityType.Email : IdentityType.Phone;
+            for (String hashedDii : getStrings(request, type)) {
+                JsonObject identity = new JsonObject();
+                identity.addProperty("identifier", hashedDii);
+                if (optedOut.contains(hashedDii)) {
+                    identity.addProperty("reason", "optout");
+                    unmapped.add(identity);
+                } else {
+                    identity.addProperty("advertising_id", getRawUid(hashedDii, identityType, currentSalt));
+                    identity.addProperty("bucket_id", "bucket");
+                    mapped.add(identity);
+                }
+            }
+        }
+
+        JsonObject body = new JsonObject();
+        body.add("mapped", mapped);
+        body.add("unmapped", unmapped);
+        JsonObject response = status("success");
+        response.add("body", body);
+        return response;
+    }
+
+    private JsonObject identityMapV3(JsonObject request) {
+        byte[] currentSalt;
+        byte[] oldSalt;
+        synchronized (this) {
+            currentSalt = salt;
+            oldSalt = previousSalt;
+        }
+        Instant fixedRefreshFrom = identityMapRefreshFrom;
+        long refreshFrom = fixedRefreshFrom != null ? fixedRefreshFrom.getEpochSecond() : Instant.now().plus(30, ChronoUnit.DAYS).getEpochSecond();
+
+        JsonObject body = new JsonObject();
+        for (String type : new String[]{"email_hash", "phone_hash"}) {
+            IdentityType identityType = type.equals("email_hash") ? IdentityType.Email : IdentityType.Phone;
+            JsonArray identities = new JsonArray();
+            for (String hashedDii : getStrings(request, type)) {
+                JsonObject identity = new JsonObject();
+                if (optedOut.contains(hashedDii)) {
+                    identity.addProperty("e", "optout");
+                } else {
+                    identity.addProperty("u", getRawUid(hashedDii, identityType, currentSalt));
+                    identity.addProperty("p", oldSalt == null ? null : getRawUid(hashedDii, identityType, oldSalt));
+                    identity.addProperty("r", refreshFrom);
+                }
+                identities.add(identity);
+            }
+            body.add(type, identities);
+        }
+
+        JsonObject response = status("success");
+        response.add("body", body);
+        return response;
+    }
+
+    //same layout as a v3 raw UID: a prefix byte holding the identity scope and type, followed by a 32 byte hash
+    private String getRawUid(String hashedDii, IdentityType identityType, byte[] salt) {
+        byte[] hash = InputUtil.getSha256Bytes(Base64.getEncoder().encodeToString(salt) + hashedDii);
+        ByteBuffer rawUid = ByteBuffer.allocate(1 + hash.length);
+        rawUid.put((byte) ((identityScope.value << 4) | (identityType.value << 2)));
+        rawUid.put(hash);
+        return Base64.getEncoder().encodeToString(rawUid.array());
+    }
+
+    private synchronized byte[] getSalt() {
+        return salt;
+    }
+
+    private static List<String> getStrings(JsonObject request, String name) {
+        List<String> values = new ArrayList<>();
+        JsonElement element = request.get(name);
+        if (element != null && element.isJsonArray()) {
+            for (JsonElement value : element.getAsJsonArray()) {
+                values.add(value.getAsString());
+            }
+        }
+        return values;
+    }
+
+    private static JsonObject status(String status) {
+        JsonObject json = new JsonObject();
+        json.addProperty("status", status);
+        return json;
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void sendError(HttpExchange exchange, int statusCode, String message) throws IOException {
+        JsonObject json = status("error");
+        json.addProperty("message", message);
+        send(exchange, statusCode, "application/json", json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static class RefreshTokenState {
+        RefreshTokenState(String hashedDii, IdentityType identityType, Instant established, String refreshResponseKey) {
+            this.hashedDii = hashedDii;
+            this.identityType = identityType;
+            this.established = established;
+            this.refreshResponseKey = refreshResponseKey;
+        }
+
+        final String hashedDii;
+        final IdentityType identityType;
+        final Instant established;
+        final String refreshResponseKey;
+    }
+
+    private static final int MASTER_KEYSET_ID = 1;
+    private static final int SITE_KEYSET_ID = 99999;
+    private static final int NONCE_LENGTH = 8;
+    private static final Duration TOKEN_LIFETIME = Duration.ofHours(1);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final IdentityScope identityScope;
+    private final byte[] secretKey;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "fake-uid2-operator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final Map<String, RefreshTokenState> refreshTokens = new ConcurrentHashMap<>();
+    private final Set<String> optedOut = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingFailures = new AtomicInteger();
+    private final List<Key> keys = new ArrayList<>();
+    private volatile long latencyMillis;
+    private volatile Instant identityMapRefreshFrom;
+    private int failureStatusCode;
+    private String failureRetryAfter;
+    private long nextKeyId = 1000;
+    private Key masterKey;
+    private Key siteKey;
+    private byte[] salt;
+    private byte[] previousSalt;
+}
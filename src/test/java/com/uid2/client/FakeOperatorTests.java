@@ -0,0 +1,197 @@
+package com.uid2.client;
+
+import okhttp3.Call;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.uid2.client.TestData.CLIENT_SECRET;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FakeOperatorTests {
+    private FakeOperator operator;
+    private Uid2TransportConfig transportConfig;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        operator = new FakeOperator();
+        transportConfig = new Uid2TransportConfig();
+    }
+
+    @AfterEach
+    void tearDown() {
+        operator.close();
+    }
+
+    @Test
+    public void generatedTokenDecryptsToMappedRawUid() {
+        IdentityTokens identity = publisherClient().generateTokenResponse(TokenGenerateInput.fromEmail("Test.User@example.com")).getIdentity();
+        BidstreamClient bidstreamClient = new BidstreamClient(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, transportConfig);
+        assertTrue(bidstreamClient.refresh().isSuccess());
+
+        DecryptionResponse decrypted = bidstreamClient.decryptTokenIntoRawUid(identity.getAdvertisingToken(), "example.com");
+
+        assertEquals(DecryptionStatus.SUCCESS, decrypted.getStatus());
+        IdentityMapV3Response mapped = identityMapV3Client().generateIdentityMap(IdentityMapV3Input.fromEmails(Arrays.asList("Test.User@example.com")));
+        assertEquals(mapped.getMappedIdentities().get("Test.User@example.com").getCurrentRawUid(), decrypted.getUid());
+    }
+
+    @Test
+    public void sharingClientDecryptsGeneratedToken() {
+        IdentityTokens identity = publisherClient().generateToken(TokenGenerateInput.fromPhone("+12345678901"));
+        SharingClient sharingClient = new SharingClient(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, transportConfig);
+        assertTrue(sharingClient.refresh().isSuccess());
+
+        DecryptionResponse decrypted = sharingClient.decryptTokenIntoRawUid(identity.getAdvertisingToken());
+
+        assertTrue(decrypted.isSuccess());
+        assertEquals(IdentityType.Phone, decrypted.getIdentityType());
+    }
+
+    @Test
+    public void tokenRefresh() {
+        PublisherUid2Client publisherClient = publisherClient();
+        IdentityTokens identity = publisherClient.generateToken(TokenGenerateInput.fromEmail("test@example.com"));
+
+        TokenRefreshResponse refreshed = publisherClient.refreshToken(identity);
+
+        assertTrue(refreshed.isSuccess());
+        assertNotEquals(identity.getRefreshToken(), refreshed.getIdentity().getRefreshToken());
+        assertThrows(Uid2Exception.class, () -> publisherClient.refreshToken(identity)); //refresh tokens are single use
+    }
+
+    @Test
+    public void optout() {
+        operator.withOptout(InputUtil.normalizeAndHashEmail("optout@example.com"));
+
+        assertTrue(publisherClient().generateTokenResponse(TokenGenerateInput.fromEmail("optout@example.com")).isOptout());
+        IdentityMapV3Response response = identityMapV3Client().generateIdentityMap(IdentityMapV3Input.fromEmails(Arrays.asList("optout@example.com", "user@example.com")));
+        assertEquals(UnmappedIdentityReason.OPTOUT, response.getUnmappedIdentities().get("optout@example.com").getReason());
+        assertNotNull(response.getMappedIdentities().get("user@example.com"));
+    }
+
+    @Test
+    public void identityMapV2AndV3Agree() {
+        List<String> emails = Arrays.asList("a@example.com", "b@example.com");
+        IdentityMapClient identityMapClient = new IdentityMapClient(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, transportConfig);
+
+        IdentityMapResponse v2 = identityMapClient.generateIdentityMap(IdentityMapInput.fromEmails(emails));
+        IdentityMapV3Response v3 = identityMapV3Client().generateIdentityMap(IdentityMapV3Input.fromEmails(emails));
+
+        for (String email : emails) {
+            assertEquals(v2.getMappedIdentities().get(email).getRawUid(), v3.getMappedIdentities().get(email).getCurrentRawUid());
+        }
+    }
+
+    @Test
+    public void saltRotationReportsPreviousRawUid() {
+        IdentityMapV3Input input = IdentityMapV3Input.fromPhones(Arrays.asList("+12345678901"));
+        String before = identityMapV3Client().generateIdentityMap(input).getMappedIdentities().get("+12345678901").getCurrentRawUid();
+
+        operator.rotateSalts();
+        IdentityMapV3Response.MappedIdentity after = identityMapV3Client().generateIdentityMap(input).getMappedIdentities().get("+12345678901");
+
+        assertNotEquals(before, after.getCurrentRawUid());
+        assertEquals(before, after.getPreviousRawUid());
+    }
+
+    @Test
+    public void keyRotationRequiresRefresh() {
+        BidstreamClient bidstreamClient = new BidstreamClient(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, transportConfig);
+        assertTrue(bidstreamClient.refresh().isSuccess());
+        String oldToken = publisherClient().generateToken(TokenGenerateInput.fromEmail("test@example.com")).getAdvertisingToken();
+
+        operator.rotateKeys();
+        String newToken = publisherClient().generateToken(TokenGenerateInput.fromEmail("test@example.com")).getAdvertisingToken();
+
+        assertEquals(DecryptionStatus.NOT_AUTHORIZED_FOR_MASTER_KEY, bidstreamClient.decryptTokenIntoRawUid(newToken, "example.com").getStatus());
+        assertTrue(bidstreamClient.refresh().isSuccess());
+        assertTrue(bidstreamClient.decryptTokenIntoRawUid(newToken, "example.com").isSuccess());
+        assertTrue(bidstreamClient.decryptTokenIntoRawUid(oldToken, "example.com").isSuccess());
+    }
+
+    @Test
+    public void injectedFailuresAreRetried() {
+        transportConfig.withRetryPolicy(new Uid2RetryPolicy().withMaxAttempts(3).withBackoff(Duration.ofMillis(1), Duration.ofMillis(10), 2));
+        operator.failNextRequests(2, 503, "0");
+
+        IdentityMapV3Response response = identityMapV3Client().generateIdentityMap(IdentityMapV3Input.fromEmails(Arrays.asList("test@example.com")));
+
+        assertTrue(response.isSuccess());
+        assertEquals(3, operator.getRequestCount("/v3/identity/map"));
+    }
+
+    @Test
+    public void injectedFailureWithoutRetries() {
+        operator.failNextRequests(1, 429, null);
+
+        Uid2Exception e = assertThrows(Uid2Exception.class, () -> identityMapV3Client().generateIdentityMap(IdentityMapV3Input.fromEmails(Arrays.asList("test@example.com"))));
+        assertTrue(e.getMessage().contains("429"), e.getMessage());
+    }
+
+    @Test
+    public void wrongApiKeyIsRejected() {
+        IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), "wrong-key", CLIENT_SECRET, transportConfig);
+
+        assertThrows(Uid2Exception.class, () -> client.generateIdentityMap(IdentityMapV3Input.fromEmails(Arrays.asList("test@example.com"))));
+    }
+
+    @Test
+    public void concurrentAsyncRequestsWithLatency() {
+        operator.withLatency(Duration.ofMillis(20));
+        IdentityMapV3Client client = identityMapV3Client();
+
+        List<CompletableFuture<IdentityMapV3Response>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(client.generateIdentityMapAsync(IdentityMapV3Input.fromEmails(Arrays.asList("user" + i + "@example.com"))));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertNotNull(futures.get(i).join().getMappedIdentities().get("user" + i + "@example.com"));
+        }
+        assertEquals(50, operator.getRequestCount("/v3/identity/map"));
+    }
+
+    @Test
+    public void cancellingAnAsyncRequestCancelsTheCall() throws InterruptedException {
+        operator.withLatency(Duration.ofSeconds(30));
+
+        CompletableFuture<TokenGenerateResponse> generate = publisherClient().generateTokenResponseAsync(TokenGenerateInput.fromEmail("test@example.com"));
+        Call generateCall = waitForRunningCall();
+        generate.cancel(true);
+        assertTrue(generateCall.isCanceled());
+
+        CompletableFuture<IdentityMapV3Response> identityMap = identityMapV3Client().generateIdentityMapAsync(IdentityMapV3Input.fromEmails(Arrays.asList("test@example.com")));
+        Call identityMapCall = waitForRunningCall();
+        identityMap.cancel(true);
+        assertTrue(identityMapCall.isCanceled());
+    }
+
+    //the envelope is encrypted on the executor before the call starts
+    private Call waitForRunningCall() throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            for (Call call : transportConfig.getHttpClient().dispatcher().runningCalls()) {
+                if (!call.isCanceled()) {
+                    return call;
+                }
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("no call was started");
+    }
+
+    private PublisherUid2Client publisherClient() {
+        return new PublisherUid2Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, transportConfig);
+    }
+
+    private IdentityMapV3Client identityMapV3Client() {
+        return new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, transportConfig);
+    }
+}
@@ -0,0 +1,104 @@
+package com.uid2.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static com.uid2.client.TestData.*;
+
+/**
+ * Times the SDK's CPU bound hot paths on whichever JVM runs it, so that the same jar can be compared across Java versions, e.g.
+ * {@code java -cp <test classpath> com.uid2.client.HotPathBenchmark}. This is a main program rather than a test: the numbers are only meaningful
+ * on an otherwise idle machine.
+ */
+public class HotPathBenchmark {
+    public static void main(String[] args) throws Exception {
+        System.out.println("java.version=" + System.getProperty("java.version"));
+
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            emails.add(" User.Name+" + i + "@Example.com");
+        }
+        run("normalize and hash email", 1, () -> InputUtil.normalizeAndHashEmail(" User.Name+tag@GMail.com "));
+        run("hash phone", 1, () -> InputUtil.getBase64EncodedHash("+12345678901"));
+
+        IdentityMapV3Input input = IdentityMapV3Input.fromEmails(emails);
+        IdentityMapV3Helper identityMapHelper = new IdentityMapV3Helper(CLIENT_SECRET);
+        run("identity map envelope, 5000 emails", emails.size(), () -> identityMapHelper.createEnvelopeForIdentityMapRequest(input));
+
+        byte[] response = new byte[1 << 20];
+        byte[] secret = InputUtil.base64ToByteArray(CLIENT_SECRET);
+        byte[] encryptedResponse = Uid2Encryption.encryptGCM(response, null, secret);
+        run("decrypt 1 MB response", 1, () -> Uid2Encryption.decryptGCM(encryptedResponse, 0, secret));
+
+        UID2Client client = new UID2Client("ep", "ak", CLIENT_SECRET, IdentityScope.UID2);
+        client.refreshJson(keySetToJson(MASTER_KEY, SITE_KEY));
+        String advertisingToken = Uid2TokenGenerator.generateUid2TokenV4(EXAMPLE_UID, MASTER_KEY, SITE_ID, SITE_KEY, Uid2TokenGenerator.defaultParams());
+        if (!client.decrypt(advertisingToken).isSuccess()) {
+            throw new IllegalStateException("benchmark token does not decrypt");
+        }
+        run("decrypt v4 advertising token", 1, () -> client.decrypt(advertisingToken));
+
+        IdentityTokens identity = IdentityTokens.fromJsonString(PublisherTests.expectedDecryptedJsonForTokenGenerateResponse);
+        String identityJson = identity.getJsonString();
+        byte[] identityBytes = identity.toBytes();
+        run("session read from JSON", 1, () -> IdentityTokens.fromJsonString(identityJson).isDueForRefresh());
+        run("session read from toBytes()", 1, () -> IdentityTokens.fromBytes(identityBytes).isDueForRefresh());
+        run("identity JSON written from toBytes()", 1, () -> IdentityTokens.fromBytes(identityBytes).getJsonString());
+
+        String tokenResponse = "{\"body\":" + identityJson + ",\"status\":\"success\"}";
+        run("token generate response", 1, () -> new TokenGenerateResponse(tokenResponse));
+        TokenGenerateInput tokenGenerateInput = TokenGenerateInput.fromHashedEmail(InputUtil.normalizeAndHashEmail("user@example.com"));
+        run("token generate request", 1, tokenGenerateInput::getAsJsonString);
+
+        IdentityMapInput identityMapInput = IdentityMapInput.fromEmails(emails);
+        StringBuilder identityMapResponse = new StringBuilder("{\"status\":\"success\",\"body\":{\"mapped\":[");
+        for (int i = 0; i < emails.size(); i++) {
+            identityMapResponse.append(i == 0 ? "" : ",").append("{\"identifier\":\"").append(InputUtil.normalizeAndHashEmail(emails.get(i)))
+                    .append("\",\"advertising_id\":\"").append(EXAMPLE_UID).append("\",\"bucket_id\":\"a30od4mNRd\"}");
+        }
+        String identityMapResponseJson = identityMapResponse.append("]}}").toString();
+        run("identity map v2 response, 5000 emails", emails.size(), () -> new IdentityMapResponse(identityMapResponseJson, identityMapInput));
+
+        Executor executor = new Uid2TransportConfig().getExecutor();
+        byte[] payload = "{\"status\":\"success\"}".getBytes(StandardCharsets.UTF_8);
+        run("1000 tasks on the default async executor", 1000, () -> {
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[1000];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = CompletableFuture.supplyAsync(() -> new String(payload, StandardCharsets.UTF_8), executor);
+            }
+            return CompletableFuture.allOf(futures).join();
+        });
+    }
+
+    //runs operation for a warm-up second then a measured second, and prints the time per item
+    private static void run(String name, int itemsPerOperation, Operation operation) throws Exception {
+        measure(operation, WARMUP_NANOS);
+        double nanosPerOperation = measure(operation, MEASURE_NANOS);
+        System.out.printf("%-45s %12.1f ns/item%n", name, nanosPerOperation / itemsPerOperation);
+    }
+
+    private static double measure(Operation operation, long durationNanos) throws Exception {
+        long start = System.nanoTime();
+        long operations = 0;
+        long elapsed;
+        do {
+            for (int i = 0; i < 16; i++) {
+                sink ^= System.identityHashCode(operation.run());
+            }
+            operations += 16;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < durationNanos);
+        return (double) elapsed / operations;
+    }
+
+    private interface Operation {
+        Object run() throws Exception;
+    }
+
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+    private static volatile int sink; //keeps results live so the JIT cannot remove the work
+}
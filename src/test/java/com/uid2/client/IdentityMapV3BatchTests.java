@@ -0,0 +1,490 @@
+package com.uid2.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.uid2.client.TestData.CLIENT_SECRET;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdentityMapV3BatchTests {
+    @Test
+    public void splitKeepsEveryDii() {
+        IdentityMapV3Input input = new IdentityMapV3Input()
+                .withEmails(Arrays.asList("a@example.com", "b@example.com", "c@example.com"))
+                .withPhones(Arrays.asList("+12345678901", "+12345678902"));
+
+        List<IdentityMapV3Input> batches = new ArrayList<>();
+        input.split(2).forEachRemaining(batches::add);
+
+        assertEquals(3, batches.size());
+        assertEquals(Arrays.asList(2, 2, 1), Arrays.asList(batches.get(0).size(), batches.get(1).size(), batches.get(2).size()));
+        assertEquals(Collections.singletonList("c@example.com"), batches.get(1).getInputDiis("email_hash", 0));
+        assertEquals(Collections.singletonList("+12345678901"), batches.get(1).getInputDiis("phone_hash", 0));
+        assertEquals(Collections.singletonList("+12345678902"), batches.get(2).getInputDiis("phone_hash", 0));
+    }
+
+    @Test
+    public void splitEmptyInput() {
+        assertFalse(new IdentityMapV3Input().split(10).hasNext());
+        assertThrows(IllegalArgumentException.class, () -> new IdentityMapV3Input().split(0));
+    }
+
+    @Test
+    public void duplicateDiisAreSentOnce() throws IOException {
+        IdentityMapV3Input input = new IdentityMapV3Input()
+                .withEmails(Arrays.asList("Jane.Doe@gmail.com", "janedoe+news@gmail.com", "other@example.com", "JaneDoe@gmail.com"))
+                .withHashedEmail(InputUtil.normalizeAndHashEmail("other@example.com"))
+                .withPhones(Arrays.asList("+12345678901", "+12345678901"));
+
+        assertEquals(3, input.size());
+        assertEquals(4, input.getDuplicateCount());
+        assertEquals(Arrays.asList("Jane.Doe@gmail.com", "janedoe+news@gmail.com", "JaneDoe@gmail.com"), input.getInputDiis("email_hash", 0));
+
+        try (FakeOperator operator = new FakeOperator()) {
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            IdentityMapV3Response response = client.generateIdentityMap(input);
+
+            assertEquals(6, response.getMappedIdentitiesView().size());
+            String rawUid = response.getMappedIdentity("Jane.Doe@gmail.com").getCurrentRawUid();
+            assertEquals(rawUid, response.getMappedIdentity("janedoe+news@gmail.com").getCurrentRawUid());
+            assertEquals(rawUid, response.getMappedIdentity("JaneDoe@gmail.com").getCurrentRawUid());
+            assertEquals(response.getMappedIdentity("other@example.com").getCurrentRawUid(),
+                    response.getMappedIdentity(InputUtil.normalizeAndHashEmail("other@example.com")).getCurrentRawUid());
+        }
+    }
+
+    @Test
+    public void emailAndPhoneWithSameHashAreNotCollapsed() {
+        String hash = InputUtil.getBase64EncodedHash("+12345678901");
+        IdentityMapV3Input input = new IdentityMapV3Input().withHashedEmail(hash).withHashedPhone(hash);
+
+        assertEquals(2, input.size());
+        assertEquals(0, input.getDuplicateCount());
+    }
+
+    @Test
+    public void packedHashesAreSentAsBase64() throws IOException {
+        List<String> hashedEmails = new ArrayList<>();
+        byte[] packed = new byte[100 * 32];
+        for (int i = 0; i < 100; i++) {
+            byte[] hash = InputUtil.getSha256Bytes("user" + i + "@example.com");
+            System.arraycopy(hash, 0, packed, i * 32, 32);
+            hashedEmails.add(InputUtil.byteArrayToBase64(hash));
+        }
+        IdentityMapV3Input strings = IdentityMapV3Input.fromHashedEmails(hashedEmails);
+        IdentityMapV3Input packedInput = IdentityMapV3Input.fromHashedEmails(packed, 60)
+                .withHashedEmails(Arrays.copyOfRange(packed, 60 * 32, packed.length), 40);
+
+        assertEquals(100, packedInput.size());
+        assertArrayEquals(writePayload(strings), writePayload(packedInput));
+        assertEquals(hashedEmails, packedInput.getHashedDiis(IdentityType.Email));
+
+        try (FakeOperator operator = new FakeOperator()) {
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            IdentityMapV3Response expected = client.generateIdentityMap(strings);
+            IdentityMapV3Response response = client.generateIdentityMapInBatches(packedInput, 30, 2);
+
+            assertEquals(100, response.getMappedIdentitiesView().size());
+            for (String hashedEmail : hashedEmails) {
+                assertEquals(expected.getMappedIdentity(hashedEmail).getCurrentRawUid(), response.getMappedIdentity(hashedEmail).getCurrentRawUid());
+            }
+        }
+    }
+
+    @Test
+    public void indexedResultsLineUpWithPackedHashes() throws IOException {
+        byte[] packed = new byte[20 * 32];
+        for (int i = 0; i < 20; i++) {
+            System.arraycopy(InputUtil.getSha256Bytes("user" + i + "@example.com"), 0, packed, i * 32, 32);
+        }
+        IdentityMapV3Input input = IdentityMapV3Input.fromHashedEmails(packed, 20);
+
+        try (FakeOperator operator = new FakeOperator()) {
+            operator.withOptout(InputUtil.getBase64EncodedHash("user7@example.com"));
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            IdentityMapV3Response byRawDii = client.generateIdentityMap(input);
+            IdentityMapV3IndexedResponse byIndex = client.generateIdentityMapIndexedAsync(input).join();
+
+            assertEquals(20, byIndex.size(IdentityType.Email));
+            for (int i = 0; i < 20; i++) {
+                String hashedEmail = InputUtil.getBase64EncodedHash("user" + i + "@example.com");
+                if (i == 7) {
+                    assertEquals(UnmappedIdentityReason.OPTOUT, byIndex.getUnmappedIdentity(IdentityType.Email, i).getReason());
+                } else {
+                    assertEquals(byRawDii.getMappedIdentity(hashedEmail).getCurrentRawUid(), byIndex.getMappedIdentity(IdentityType.Email, i).getCurrentRawUid());
+                }
+            }
+            assertEquals(byIndex.getMappedIdentity(IdentityType.Email, 3).getCurrentRawUid(), client.generateIdentityMapIndexed(input).getMappedIdentity(IdentityType.Email, 3).getCurrentRawUid());
+        }
+    }
+
+    @Test
+    public void indexedResultsCanBeTracedBackToMixedInput() throws IOException {
+        byte[] packed = new byte[2 * 32];
+        System.arraycopy(InputUtil.getSha256Bytes("packed0@example.com"), 0, packed, 0, 32);
+        System.arraycopy(InputUtil.getSha256Bytes("packed1@example.com"), 0, packed, 32, 32);
+        IdentityMapV3Input input = new IdentityMapV3Input()
+                .withHashedEmails(packed, 2)
+                .withEmails(Arrays.asList("a@example.com", "A@example.com", "b@example.com"));
+
+        assertEquals(4, input.size(IdentityType.Email));
+        assertEquals(0, input.size(IdentityType.Phone));
+        assertEquals(InputUtil.normalizeAndHashEmail("a@example.com"), input.getHashedDii(IdentityType.Email, 0)); //Strings come before packed hashes, whatever order they were added in
+        assertEquals(Arrays.asList("a@example.com", "A@example.com"), input.getRawDiis(IdentityType.Email, 0));
+        assertEquals(InputUtil.normalizeAndHashEmail("b@example.com"), input.getHashedDii(IdentityType.Email, 1));
+        assertEquals(InputUtil.getBase64EncodedHash("packed1@example.com"), input.getHashedDii(IdentityType.Email, 3));
+        assertEquals(Collections.singletonList(InputUtil.getBase64EncodedHash("packed1@example.com")), input.getRawDiis(IdentityType.Email, 3));
+
+        try (FakeOperator operator = new FakeOperator()) {
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            IdentityMapV3Response byRawDii = client.generateIdentityMap(input);
+            IdentityMapV3IndexedResponse byIndex = client.generateIdentityMapIndexed(input);
+
+            for (int i = 0; i < input.size(IdentityType.Email); i++) {
+                for (String rawDii : input.getRawDiis(IdentityType.Email, i)) {
+                    assertEquals(byRawDii.getMappedIdentity(rawDii).getCurrentRawUid(), byIndex.getMappedIdentity(IdentityType.Email, i).getCurrentRawUid());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void columnarResultsMatchResponse() throws IOException {
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            emails.add("user" + i + "@example.com");
+        }
+        IdentityMapV3Input input = IdentityMapV3Input.fromEmails(emails).withPhones(Arrays.asList("+12345678901", "+12345678902"));
+
+        try (FakeOperator operator = new FakeOperator()) {
+            operator.rotateSalts();
+            operator.withOptout(InputUtil.normalizeAndHashEmail("user5@example.com"));
+            operator.withIdentityMapRefreshFrom(Instant.now().plus(30, ChronoUnit.DAYS)); //the expected response and the batches are separate requests
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            IdentityMapV3Response expected = client.generateIdentityMap(input);
+            IdentityMapV3ColumnarResults results = new IdentityMapV3ColumnarResults(7); //small slabs, so that batches are copied across slab boundaries
+
+            assertEquals(0, client.generateIdentityMapInBatches(input, 40, 3, results));
+            assertEquals(252, client.generateIdentityMapInBatchesAsync(IdentityMapV3Input.fromEmails(emails.subList(0, 10)), 4, 2, results).join());
+
+            assertEquals(262, results.size());
+            List<String> rawDiis = new ArrayList<>(emails);
+            rawDiis.addAll(Arrays.asList("+12345678901", "+12345678902"));
+            rawDiis.addAll(emails.subList(0, 10));
+            byte[] rawUid = new byte[IdentityMapV3ColumnarResults.RAW_UID_LENGTH];
+            for (int row = 0; row < rawDiis.size(); row++) {
+                IdentityMapV3Response.MappedIdentity mapped = expected.getMappedIdentity(rawDiis.get(row));
+                if (mapped == null) {
+                    assertEquals(UnmappedIdentityReason.OPTOUT, results.getUnmappedReason(row));
+                    assertFalse(results.isMapped(row));
+                    continue;
+                }
+                assertEquals(IdentityMapV3ColumnarResults.ROW_MAPPED_WITH_PREVIOUS, results.getRowState(row));
+                assertEquals(mapped.getCurrentRawUid(), results.getCurrentRawUid(row));
+                assertEquals(mapped.getPreviousRawUid(), results.getPreviousRawUid(row));
+                assertEquals(mapped.getRefreshFrom(), results.getRefreshFrom(row));
+                results.copyCurrentRawUid(row, rawUid, 0);
+                assertEquals(mapped.getCurrentRawUid(), InputUtil.byteArrayToBase64(rawUid));
+            }
+
+            ByteArrayOutputStream exported = new ByteArrayOutputStream();
+            results.writeTo(Channels.newChannel(exported));
+            byte[] bytes = exported.toByteArray();
+            assertEquals(262 * IdentityMapV3ColumnarResults.EXPORT_ROW_LENGTH, bytes.length);
+            int row = 251;
+            results.copyPreviousRawUid(row, rawUid, 0);
+            int rowStart = row * IdentityMapV3ColumnarResults.EXPORT_ROW_LENGTH;
+            assertEquals(results.getRowState(row), bytes[rowStart]);
+            assertArrayEquals(rawUid, Arrays.copyOfRange(bytes, rowStart + 34, rowStart + 67));
+            assertEquals(results.getRefreshFromEpochSecond(row), ByteBuffer.wrap(bytes, rowStart + 67, 8).getLong());
+        }
+    }
+
+    @Test
+    public void columnarRowsCanBeTracedBackToMixedInput() throws IOException {
+        byte[] packed = new byte[3 * 32];
+        for (int i = 0; i < 3; i++) {
+            System.arraycopy(InputUtil.getSha256Bytes("packed" + i + "@example.com"), 0, packed, i * 32, 32);
+        }
+        IdentityMapV3Input input = new IdentityMapV3Input()
+                .withHashedPhones(Arrays.copyOfRange(packed, 0, 32), 1)
+                .withHashedEmails(Arrays.copyOfRange(packed, 32, 96), 2)
+                .withEmails(Arrays.asList("a@example.com", "b@example.com"))
+                .withPhone("+12345678901");
+
+        try (FakeOperator operator = new FakeOperator()) {
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            IdentityMapV3Response expected = client.generateIdentityMap(input);
+            IdentityMapV3ColumnarResults results = new IdentityMapV3ColumnarResults();
+            int firstRow = client.generateIdentityMapInBatches(input, 2, 2, results);
+
+            int emailCount = input.size(IdentityType.Email);
+            assertEquals(6, results.size());
+            for (int i = 0; i < results.size(); i++) {
+                IdentityType identityType = i < emailCount ? IdentityType.Email : IdentityType.Phone;
+                int index = i < emailCount ? i : i - emailCount;
+                String rawDii = input.getRawDiis(identityType, index).get(0);
+                assertEquals(expected.getMappedIdentity(rawDii).getCurrentRawUid(), results.getCurrentRawUid(firstRow + i));
+            }
+            assertEquals(expected.getMappedIdentity("a@example.com").getCurrentRawUid(), results.getCurrentRawUid(0));
+            assertEquals(expected.getMappedIdentity(InputUtil.getBase64EncodedHash("packed0@example.com")).getCurrentRawUid(), results.getCurrentRawUid(5));
+        }
+    }
+
+    @Test
+    public void splitMixesPackedAndStringHashes() {
+        byte[] packed = new byte[9 * 32];
+        new Random(1).nextBytes(packed);
+        IdentityMapV3Input input = new IdentityMapV3Input()
+                .withEmails(Arrays.asList("a@example.com", "b@example.com", "c@example.com"))
+                .withHashedEmails(packed, 5)
+                .withPhones(Arrays.asList("+12345678901", "+12345678902"))
+                .withHashedPhones(Arrays.copyOfRange(packed, 5 * 32, packed.length), 4);
+
+        List<String> emails = new ArrayList<>();
+        List<String> phones = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        input.split(4).forEachRemaining(batch -> {
+            sizes.add(batch.size());
+            emails.addAll(batch.getHashedDiis(IdentityType.Email));
+            phones.addAll(batch.getHashedDiis(IdentityType.Phone));
+        });
+
+        assertEquals(Arrays.asList(4, 4, 4, 2), sizes);
+        assertEquals(input.getHashedDiis(IdentityType.Email), emails);
+        assertEquals(input.getHashedDiis(IdentityType.Phone), phones);
+        assertEquals(Collections.singletonList(emails.get(3)), input.getInputDiis("email_hash", 3));
+        assertThrows(IllegalArgumentException.class, () -> new IdentityMapV3Input().withHashedEmails(new byte[31], 1));
+    }
+
+    @Test
+    public void packedHashesBeyondTheArrayLimitAreRejected() {
+        assertEquals(67_108_863, PackedHashes.MAX_HASHES);
+        assertEquals(PackedHashes.MAX_HASHES * 32, PackedHashes.getByteLength(PackedHashes.MAX_HASHES));
+        assertThrows(IllegalArgumentException.class, () -> PackedHashes.getByteLength(PackedHashes.MAX_HASHES + 1L)); //would overflow an int
+        assertThrows(IllegalArgumentException.class, () -> PackedHashes.getByteLength(100_000_000L));
+        assertThrows(IllegalArgumentException.class, () -> new IdentityMapV3Input().withHashedEmails(new byte[32], 2));
+    }
+
+    @Test
+    public void addingToABatchDoesNotChangeOtherBatches() {
+        byte[] packed = new byte[6 * 32];
+        new Random(2).nextBytes(packed);
+        IdentityMapV3Input input = new IdentityMapV3Input().withHashedEmails(packed, 6);
+        List<String> expected = new ArrayList<>(input.getHashedDiis(IdentityType.Email));
+
+        List<IdentityMapV3Input> batches = new ArrayList<>();
+        input.split(3).forEachRemaining(batches::add);
+        byte[] extra = new byte[32];
+        batches.get(0).withHashedEmails(extra, 1);
+
+        assertEquals(expected, input.getHashedDiis(IdentityType.Email));
+        assertEquals(expected.subList(3, 6), batches.get(1).getHashedDiis(IdentityType.Email));
+        assertEquals(4, batches.get(0).getHashedDiis(IdentityType.Email).size());
+        assertEquals(expected.subList(0, 3), batches.get(0).getHashedDiis(IdentityType.Email).subList(0, 3));
+    }
+
+    @Test
+    public void runnerLimitsRequestsInFlight() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<Integer> results = new ArrayList<>();
+
+        ConcurrentBatchRunner.run(rangeIterator(100), 4, batch -> CompletableFuture.supplyAsync(() -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sleep(2);
+            inFlight.decrementAndGet();
+            return batch * 2;
+        }), (batch, result) -> results.add(result)).join();
+
+        assertEquals(100, results.size());
+        assertTrue(maxInFlight.get() <= 4, "max in flight " + maxInFlight.get());
+        Collections.sort(results);
+        assertEquals(198, (int) results.get(99));
+    }
+
+    @Test
+    public void runnerHandlesSynchronousCompletion() {
+        AtomicInteger count = new AtomicInteger();
+
+        ConcurrentBatchRunner.run(rangeIterator(10_000), 2, CompletableFuture::completedFuture, (batch, result) -> count.incrementAndGet()).join();
+
+        assertEquals(10_000, count.get());
+    }
+
+    @Test
+    public void runnerStopsOnFirstFailure() {
+        AtomicInteger started = new AtomicInteger();
+        CompletableFuture<Void> neverCompletes = new CompletableFuture<>();
+
+        CompletableFuture<Void> result = ConcurrentBatchRunner.run(rangeIterator(100), 2, batch -> {
+            started.incrementAndGet();
+            CompletableFuture<Void> future = batch == 0 ? neverCompletes : new CompletableFuture<>();
+            if (batch == 1) {
+                future.completeExceptionally(new Uid2Exception("batch failed"));
+            }
+            return future;
+        }, (batch, ignored) -> {});
+
+        CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertEquals("batch failed", e.getCause().getMessage());
+        assertEquals(2, started.get());
+        assertTrue(neverCompletes.isCancelled());
+    }
+
+    @Test
+    public void batchedIdentityMapMatchesSingleRequest() throws IOException {
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            emails.add("user" + i + "@example.com");
+        }
+
+        try (FakeOperator operator = new FakeOperator()) {
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            IdentityMapV3Response single = client.generateIdentityMap(IdentityMapV3Input.fromEmails(emails));
+
+            IdentityMapV3Response batched = client.generateIdentityMapInBatches(IdentityMapV3Input.fromEmails(emails), 30, 3);
+
+            assertEquals(1 + 9, operator.getRequestCount("/v3/identity/map"));
+            assertEquals(250, batched.getMappedIdentities().size());
+            for (String email : emails) {
+                assertEquals(single.getMappedIdentities().get(email).getCurrentRawUid(), batched.getMappedIdentities().get(email).getCurrentRawUid());
+            }
+        }
+    }
+
+    @Test
+    public void batchedIdentityMapPerBatchListener() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            IdentityMapV3Input input = IdentityMapV3Input.fromPhones(Arrays.asList("+12345678901", "+12345678902", "+12345678903"));
+            Map<IdentityMapV3Input, IdentityMapV3Response> responses = new HashMap<>();
+
+            client.generateIdentityMapInBatchesAsync(input.split(1), 2, responses::put).join();
+
+            assertEquals(3, responses.size());
+            for (Map.Entry<IdentityMapV3Input, IdentityMapV3Response> entry : responses.entrySet()) {
+                assertEquals(1, entry.getValue().getMappedIdentities().size());
+            }
+        }
+    }
+
+    @Test
+    public void batchedIdentityMapFailure() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            operator.failNextRequests(1, 500, null);
+
+            assertThrows(Uid2Exception.class, () -> client.generateIdentityMapInBatches(IdentityMapV3Input.fromEmails(Arrays.asList("a@example.com", "b@example.com")), 1, 1));
+        }
+    }
+
+    @Test
+    public void streamingIdentityMapPullsInputLazily() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            AtomicInteger pulled = new AtomicInteger();
+            AtomicInteger maxPulledAheadOfResults = new AtomicInteger();
+            Set<String> mapped = new HashSet<>();
+            Stream<String> emails = IntStream.range(0, 1000).mapToObj(i -> {
+                pulled.incrementAndGet();
+                return "user" + i + "@example.com";
+            });
+
+            client.generateIdentityMap(IdentityMapV3StreamInput.fromEmails(emails).withBatchSize(50).withMaxConcurrentRequests(3), new IdentityMapV3Listener() {
+                @Override
+                public void onMapped(String rawDii, IdentityMapV3Response.MappedIdentity mappedIdentity) {
+                    mapped.add(rawDii);
+                    maxPulledAheadOfResults.accumulateAndGet(pulled.get() - mapped.size(), Math::max);
+                }
+
+                @Override
+                public void onUnmapped(String rawDii, IdentityMapV3Response.UnmappedIdentity unmappedIdentity) {
+                    fail("unexpected unmapped identity " + rawDii);
+                }
+            });
+
+            assertEquals(1000, mapped.size());
+            assertEquals(20, operator.getRequestCount("/v3/identity/map"));
+            assertTrue(maxPulledAheadOfResults.get() <= 50 * 4, "pulled ahead " + maxPulledAheadOfResults.get());
+        }
+    }
+
+    @Test
+    public void streamingIdentityMapReportsUnmapped() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            String optedOutPhone = InputUtil.getBase64EncodedHash("+12345678901");
+            operator.withOptout(optedOutPhone);
+            List<String> mapped = new ArrayList<>();
+            List<String> unmapped = new ArrayList<>();
+
+            client.generateIdentityMapAsync(IdentityMapV3StreamInput.fromHashedPhones(Arrays.asList(optedOutPhone, InputUtil.getBase64EncodedHash("+12345678902")).iterator()), new IdentityMapV3Listener() {
+                @Override
+                public void onMapped(String rawDii, IdentityMapV3Response.MappedIdentity mappedIdentity) {
+                    mapped.add(rawDii);
+                }
+
+                @Override
+                public void onUnmapped(String rawDii, IdentityMapV3Response.UnmappedIdentity unmappedIdentity) {
+                    assertEquals(UnmappedIdentityReason.OPTOUT, unmappedIdentity.getReason());
+                    unmapped.add(rawDii);
+                }
+            }).join();
+
+            assertEquals(Collections.singletonList(InputUtil.getBase64EncodedHash("+12345678902")), mapped);
+            assertEquals(Collections.singletonList(optedOutPhone), unmapped);
+        }
+    }
+
+    @Test
+    public void streamingIdentityMapRejectsInvalidInput() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            IdentityMapV3Client client = new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+            IdentityMapV3StreamInput input = IdentityMapV3StreamInput.fromPhones(Stream.of("+12345678901", "not a phone number"));
+
+            assertThrows(IllegalArgumentException.class, () -> client.generateIdentityMap(input, new IdentityMapV3Listener() {
+                @Override
+                public void onMapped(String rawDii, IdentityMapV3Response.MappedIdentity mappedIdentity) {}
+
+                @Override
+                public void onUnmapped(String rawDii, IdentityMapV3Response.UnmappedIdentity unmappedIdentity) {}
+            }));
+        }
+    }
+
+    private static byte[] writePayload(IdentityMapV3Input input) {
+        Uid2Helper.PayloadWriter writer = input.createPayloadWriter();
+        byte[] payload = new byte[writer.length()];
+        writer.write(payload, 0);
+        return payload;
+    }
+
+    private static Iterator<Integer> rangeIterator(int count) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            values.add(i);
+        }
+        return values.iterator();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
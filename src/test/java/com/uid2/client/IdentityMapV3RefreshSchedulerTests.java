@@ -0,0 +1,177 @@
+package com.uid2.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.uid2.client.TestData.CLIENT_SECRET;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdentityMapV3RefreshSchedulerTests {
+    @Test
+    public void unknownIdentitiesAreMappedInLimitedFullBatches() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            InMemoryIdentityMapV3Store store = new InMemoryIdentityMapV3Store();
+            IdentityMapV3RefreshScheduler scheduler = new IdentityMapV3RefreshScheduler(createClient(operator), store, new RecordingListener())
+                    .withBatchSize(10).withMaxBatchesPerRun(2);
+            scheduler.track(IdentityMapV3Input.fromEmails(emails(25)));
+
+            Instant now = Instant.now();
+            assertEquals(20, scheduler.runDue(now));
+            assertEquals(5, scheduler.runDue(now));
+            assertEquals(0, scheduler.runDue(now));
+
+            assertEquals(3, operator.getRequestCount("/v3/identity/map"));
+            assertEquals(25, store.size());
+            assertEquals(25, scheduler.size());
+        }
+    }
+
+    @Test
+    public void dueIdentitiesAreRemappedAndRotationsReported() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            InMemoryIdentityMapV3Store store = new InMemoryIdentityMapV3Store();
+            RecordingListener listener = new RecordingListener();
+            IdentityMapV3RefreshScheduler scheduler = new IdentityMapV3RefreshScheduler(createClient(operator), store, listener)
+                    .withBatchSize(10).withMaxBatchDelay(Duration.ofHours(1));
+            scheduler.track(IdentityMapV3Input.fromEmails(emails(3)));
+            assertEquals(3, scheduler.runDue(Instant.now()));
+            operator.rotateSalts();
+
+            Instant refreshFrom = store.get(IdentityType.Email, InputUtil.normalizeAndHashEmail("user0@example.com")).getRefreshFrom();
+            assertEquals(0, scheduler.runDue(refreshFrom.minusSeconds(1)));
+            assertEquals(0, scheduler.runDue(refreshFrom.plus(1, ChronoUnit.MINUTES)), "partial batch should wait for maxBatchDelay");
+            assertEquals(3, scheduler.runDue(refreshFrom.plus(2, ChronoUnit.HOURS)));
+
+            assertEquals(3, listener.rotated.size());
+            assertEquals(2, operator.getRequestCount("/v3/identity/map"));
+        }
+    }
+
+    @Test
+    public void optedOutIdentitiesAreReportedAndUntracked() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            String hashedEmail = InputUtil.normalizeAndHashEmail("user1@example.com");
+            InMemoryIdentityMapV3Store store = new InMemoryIdentityMapV3Store();
+            RecordingListener listener = new RecordingListener();
+            IdentityMapV3RefreshScheduler scheduler = new IdentityMapV3RefreshScheduler(createClient(operator), store, listener);
+            operator.withOptout(hashedEmail);
+            scheduler.track(IdentityMapV3Input.fromEmails(emails(3)));
+
+            assertEquals(3, scheduler.runDue(Instant.now()));
+
+            assertEquals(1, listener.unmapped.size());
+            assertEquals(hashedEmail, listener.unmapped.get(0));
+            assertNull(store.get(IdentityType.Email, hashedEmail));
+            assertEquals(2, scheduler.size());
+        }
+    }
+
+    @Test
+    public void failedBatchIsRetriedOnNextRun() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            RecordingListener listener = new RecordingListener();
+            IdentityMapV3RefreshScheduler scheduler = new IdentityMapV3RefreshScheduler(createClient(operator), new InMemoryIdentityMapV3Store(), listener);
+            scheduler.track(IdentityMapV3Input.fromEmails(emails(3)));
+            operator.failNextRequests(1, 500, null);
+
+            assertEquals(0, scheduler.runDue(Instant.now()));
+            assertEquals(1, listener.errors.size());
+            assertEquals(3, scheduler.runDue(Instant.now()));
+        }
+    }
+
+    @Test
+    public void throwingListenerDoesNotStopRemapping() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            InMemoryIdentityMapV3Store store = new InMemoryIdentityMapV3Store();
+            RecordingListener listener = new RecordingListener() {
+                @Override
+                public void onRotated(IdentityType identityType, String hashedDii, IdentityMapV3Response.MappedIdentity previous, IdentityMapV3Response.MappedIdentity current) {
+                    super.onRotated(identityType, hashedDii, previous, current);
+                    throw new IllegalStateException("listener failed");
+                }
+            };
+            IdentityMapV3RefreshScheduler scheduler = new IdentityMapV3RefreshScheduler(createClient(operator), store, listener).withBatchSize(10);
+            scheduler.track(IdentityMapV3Input.fromEmails(emails(3)));
+            assertEquals(3, scheduler.runDue(Instant.now()));
+            operator.rotateSalts();
+
+            Instant later = Instant.now().plus(1000, ChronoUnit.DAYS);
+            assertEquals(3, scheduler.runDue(later));
+            assertEquals(3, listener.rotated.size());
+            assertEquals(3, listener.errors.size());
+            assertTrue(listener.errors.get(0).getCause() instanceof IllegalStateException);
+
+            operator.rotateSalts();
+            assertEquals(3, scheduler.runDue(later.plus(1000, ChronoUnit.DAYS)), "every identity was rescheduled");
+            assertEquals(6, listener.rotated.size());
+        }
+    }
+
+    @Test
+    public void batchIsRetriedIfTheStoreThrows() throws IOException {
+        try (FakeOperator operator = new FakeOperator()) {
+            AtomicInteger failures = new AtomicInteger(1);
+            InMemoryIdentityMapV3Store store = new InMemoryIdentityMapV3Store() {
+                @Override
+                public void put(IdentityType identityType, String hashedDii, IdentityMapV3Response.MappedIdentity mappedIdentity) {
+                    if (failures.getAndDecrement() > 0) {
+                        throw new IllegalStateException("store unavailable");
+                    }
+                    super.put(identityType, hashedDii, mappedIdentity);
+                }
+            };
+            RecordingListener listener = new RecordingListener();
+            IdentityMapV3RefreshScheduler scheduler = new IdentityMapV3RefreshScheduler(createClient(operator), store, listener).withBatchSize(10);
+            scheduler.track(IdentityMapV3Input.fromEmails(emails(3)));
+
+            assertEquals(0, scheduler.runDue(Instant.now()));
+            assertEquals(1, listener.errors.size());
+            assertTrue(listener.errors.get(0).getCause() instanceof IllegalStateException);
+            assertEquals(3, scheduler.runDue(Instant.now()));
+            assertEquals(3, store.size());
+        }
+    }
+
+    private static List<String> emails(int count) {
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            emails.add("user" + i + "@example.com");
+        }
+        return emails;
+    }
+
+    private static IdentityMapV3Client createClient(FakeOperator operator) {
+        return new IdentityMapV3Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+    }
+
+    private static class RecordingListener implements IdentityMapV3ChangeListener {
+        @Override
+        public void onRotated(IdentityType identityType, String hashedDii, IdentityMapV3Response.MappedIdentity previous, IdentityMapV3Response.MappedIdentity current) {
+            assertEquals(previous.getCurrentRawUid(), current.getPreviousRawUid());
+            rotated.add(hashedDii);
+        }
+
+        @Override
+        public void onUnmapped(IdentityType identityType, String hashedDii, IdentityMapV3Response.UnmappedIdentity unmappedIdentity) {
+            assertEquals(UnmappedIdentityReason.OPTOUT, unmappedIdentity.getReason());
+            unmapped.add(hashedDii);
+        }
+
+        @Override
+        public void onError(Uid2Exception e) {
+            errors.add(e);
+        }
+
+        final List<String> rotated = new ArrayList<>();
+        final List<String> unmapped = new ArrayList<>();
+        final List<Uid2Exception> errors = new ArrayList<>();
+    }
+}
@@ -2,6 +2,7 @@ package com.uid2.client;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.StringReader;
 import java.time.Instant;
 import java.util.*;
 
@@ -153,6 +154,73 @@ public class IdentityMapV3ResponseTest {
         assertEquals("Got unexpected identity map status: error", exception.getMessage());
     }
 
+    @Test
+    void bodyBeforeStatusWithUnknownFields() {
+        IdentityMapV3Input input = IdentityMapV3Input.fromEmails(Arrays.asList(SOME_EMAIL, "email2@example.com"));
+        String payload = "{\"body\":{\"email_hash\":[{\"u\":\"current uid\",\"p\":null,\"r\":1735689600,\"x\":{\"new\":[1,2]}},{\"e\":\"optout\"}]," +
+                "\"email\":[],\"new_type\":\"ignored\"},\"status\":\"success\",\"extra\":[true]}";
+
+        IdentityMapV3Response response = new IdentityMapV3Response(payload, input);
+
+        assertTrue(response.isSuccess());
+        IdentityMapV3Response.MappedIdentity mappedIdentity = response.getMappedIdentity(SOME_EMAIL);
+        assertEquals("current uid", mappedIdentity.getCurrentRawUid());
+        assertNull(mappedIdentity.getPreviousRawUid());
+        assertEquals(Instant.ofEpochSecond(1735689600), mappedIdentity.getRefreshFrom());
+        assertEquals(UnmappedIdentityReason.OPTOUT, response.getUnmappedIdentity("email2@example.com").getReason());
+        assertNull(response.getMappedIdentity("email2@example.com"));
+    }
+
+    @Test
+    void viewsAreReadOnlyAndNotCopied() {
+        IdentityMapV3Input input = IdentityMapV3Input.fromEmails(Arrays.asList(SOME_EMAIL));
+        IdentityMapV3Response response = new IdentityMapV3Response(unmappedResponsePayload("optout"), input);
+
+        assertSame(response.getUnmappedIdentitiesView(), response.getUnmappedIdentitiesView());
+        assertEquals(response.getUnmappedIdentities(), response.getUnmappedIdentitiesView());
+        assertTrue(response.getMappedIdentitiesView().isEmpty());
+        assertThrows(UnsupportedOperationException.class, () -> response.getUnmappedIdentitiesView().clear());
+        assertThrows(UnsupportedOperationException.class, () -> response.getMappedIdentitiesView().put(SOME_EMAIL, null));
+    }
+
+    @Test
+    void malformedResponse() {
+        IdentityMapV3Input input = IdentityMapV3Input.fromEmails(Arrays.asList(SOME_EMAIL));
+
+        assertThrows(Uid2Exception.class, () -> new IdentityMapV3Response("{\"status\":\"success\",\"body\":{\"email_hash\":[{\"u\":", input));
+        assertThrows(Uid2Exception.class, () -> new IdentityMapV3Response("[]", input));
+    }
+
+    @Test
+    void indexedResponse() {
+        Instant refreshFrom = Instant.parse("2025-01-01T00:00:01Z");
+        String responsePayload = mappedResponsePayload(
+                new String[]{mappedResponsePayloadEntry("email 1 uid", "email 1 previous uid", refreshFrom), "{\"e\":\"optout\"}"},
+                new String[]{mappedResponsePayloadEntry("phone 1 uid", "phone 1 previous uid", refreshFrom)});
+        IdentityMapV3Input input = new IdentityMapV3Input()
+                .withHashedEmails(new byte[64], 2)
+                .withHashedPhone("phone 1 hash");
+
+        IdentityMapV3IndexedResponse response = new IdentityMapV3IndexedResponse(new StringReader(responsePayload), input);
+
+        assertEquals(2, response.size(IdentityType.Email));
+        assertEquals(1, response.size(IdentityType.Phone));
+        assertEquals("email 1 uid", response.getMappedIdentity(IdentityType.Email, 0).getCurrentRawUid());
+        assertEquals(refreshFrom, response.getMappedIdentity(IdentityType.Email, 0).getRefreshFrom());
+        assertNull(response.getUnmappedIdentity(IdentityType.Email, 0));
+        assertNull(response.getMappedIdentity(IdentityType.Email, 1));
+        assertEquals(UnmappedIdentityReason.OPTOUT, response.getUnmappedIdentity(IdentityType.Email, 1).getReason());
+        assertEquals("phone 1 previous uid", response.getMappedIdentity(IdentityType.Phone, 0).getPreviousRawUid());
+    }
+
+    @Test
+    void indexedResponseWithMoreResultsThanInputs() {
+        String responsePayload = mappedResponsePayload(new String[]{"{\"e\":\"optout\"}", "{\"e\":\"optout\"}"}, new String[0]);
+
+        Uid2Exception e = assertThrows(Uid2Exception.class, () -> new IdentityMapV3IndexedResponse(new StringReader(responsePayload), IdentityMapV3Input.fromHashedEmails(new byte[32], 1)));
+        assertEquals("Identity map response has more email_hash results than the request had DIIs", e.getMessage());
+    }
+
     private static String unmappedResponsePayload(String reason) {
         return "{\"status\":\"success\",\"body\":{\"email_hash\":[{\"e\":\"" + reason + "\"}]}}";
     }
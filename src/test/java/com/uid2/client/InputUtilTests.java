@@ -2,7 +2,15 @@ package com.uid2.client;
 
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 public class InputUtilTests {
     @Test
@@ -28,4 +36,82 @@ public class InputUtilTests {
         assertEquals(expectedHash, producedHash);
     }
 
+    @Test
+    void parallelHashingMatchesSequential() {
+        List<String> emails = new ArrayList<>();
+        List<String> phones = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            emails.add("User." + i + "+tag@gmail.com");
+            phones.add("+1" + (2000000000L + i));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            IdentityMapV3Input sequential = new IdentityMapV3Input().withEmails(emails).withPhones(phones);
+            IdentityMapV3Input parallel = new IdentityMapV3Input().withEmails(emails, pool).withPhones(new LinkedList<>(phones), pool);
+
+            for (int i = 0; i < emails.size(); i++) {
+                assertEquals(sequential.getInputDiis("email_hash", i), parallel.getInputDiis("email_hash", i));
+                assertEquals(sequential.getInputDiis("phone_hash", i), parallel.getInputDiis("phone_hash", i));
+            }
+            assertEquals(Arrays.asList(emails.get(0)), parallel.getInputDiis("email_hash", 0));
+            List<String> hashedPhones = InputUtil.normalizeAndHashAll(phones, false, pool);
+            for (int i = 0; i < phones.size(); i++) {
+                assertEquals(InputUtil.getBase64EncodedHash(phones.get(i)), hashedPhones.get(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void parallelHashingReportsFirstInvalidDii() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<String> phones = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                phones.add(i == 300 || i == 700 ? "not a phone " + i : "+1" + (2000000000L + i));
+            }
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> IdentityMapV3Input.fromPhones(phones, pool));
+            assertEquals("phone number is not normalized: not a phone 300", e.getMessage());
+
+            e = assertThrows(IllegalArgumentException.class, () -> IdentityMapInput.fromEmails(Arrays.asList("a@example.com", "invalid"), pool));
+            assertEquals("invalid email address: invalid", e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void singlePassEmailHashingMatchesNormalizeThenHash() {
+        List<String> emails = new ArrayList<>(Arrays.asList(
+                "Test@Example.com", " a b @ex ample.com  ", "TEST.ING+tag@GMAIL.COM", "te.st+a+b@gmail.com ", "+tag@gmail.com",
+                "...@gmail.com", "test@gmail.co", "test+tag@gmailxcom", "a@b@c.com", "@example.com", "test@", "test@   ",
+                "", "   ", "no at sign", "ÜSER@exämple.com", "user@例え.jp", "\ud83d\ude00@example.com", "a\ud83d@example.com",
+                "\ude00b@example.com"));
+        StringBuilder longEmail = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longEmail.append("Ab.");
+        }
+        emails.add(longEmail + "+x@gmail.com");
+
+        Random random = new Random(42);
+        String alphabet = "aZ. +@-_ü\ud83d\ude00";
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder email = new StringBuilder();
+            int length = random.nextInt(20);
+            for (int j = 0; j < length; j++) {
+                email.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            if (random.nextBoolean()) {
+                email.append(random.nextBoolean() ? "@gmail.com" : "@Example.com");
+            }
+            emails.add(email.toString());
+        }
+
+        for (String email : emails) {
+            String normalized = InputUtil.normalizeEmailString(email);
+            String expected = normalized == null ? null : Base64.getEncoder().encodeToString(InputUtil.getSha256Bytes(normalized));
+            assertEquals(expected, InputUtil.normalizeAndHashEmailOrNull(email), email);
+        }
+    }
 }
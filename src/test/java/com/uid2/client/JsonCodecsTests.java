@@ -0,0 +1,101 @@
+package com.uid2.client;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonCodecsTests {
+    @Test
+    void identityJsonStringMatchesTheGsonTree() {
+        String json = "{\"advertising_token\":\"a+b/c=\",\"user_token\":\"u\",\"refresh_token\":\"r\\\"\\u00e9\",\"identity_expires\":1668398943517," +
+                "\"refresh_expires\":1668481743517,\"refresh_from\":1668395346517,\"refresh_response_key\":\"k\",\"nested\":{\"list\":[1.50,true,null,\"x<y>\"]}}";
+
+        IdentityTokens identity = IdentityTokens.fromJsonString(json);
+
+        assertEquals(JsonParser.parseString(json).toString(), identity.getJsonString());
+        assertEquals("a+b/c=", identity.getAdvertisingToken());
+        assertEquals("r\"\u00e9", identity.getRefreshToken());
+        assertEquals(1668398943517L, identity.getIdentityExpires().toEpochMilli());
+        assertEquals("k", identity.getRefreshResponseKey());
+    }
+
+    @Test
+    void identityWrittenFromBytesHasTheModelledFields() {
+        IdentityTokens identity = IdentityTokens.fromJsonString(PublisherTests.expectedDecryptedJsonForTokenGenerateResponse);
+        JsonObject expected = JsonParser.parseString(PublisherTests.expectedDecryptedJsonForTokenGenerateResponse).getAsJsonObject();
+        expected.remove("user_token");
+
+        assertEquals(expected, JsonParser.parseString(IdentityTokens.fromBytes(identity.toBytes()).getJsonString()));
+    }
+
+    @Test
+    void lenientIdentityJsonIsStillAccepted() {
+        String json = "{'advertising_token':'a', refresh_token:r, \"identity_expires\":1668398943517;\"refresh_expires\"=>1668481743517, \"refresh_from\":1668395346517}";
+
+        IdentityTokens identity = IdentityTokens.fromJsonString(json);
+
+        assertEquals("a", identity.getAdvertisingToken());
+        assertEquals("r", identity.getRefreshToken());
+        assertEquals(1668481743517L, identity.getRefreshExpires().toEpochMilli());
+        assertEquals(JsonParser.parseString(json).toString(), identity.getJsonString());
+    }
+
+    @Test
+    void invalidIdentityJsonIsRejected() {
+        for (String json : Arrays.asList("", "[]", "{\"advertising_token\":{}}", "{\"advertising_token\":\"a\"} trailing",
+                "{\"advertising_token\":\"a\",\"refresh_token\":\"r\",\"identity_expires\":\"soon\",\"refresh_expires\":1,\"refresh_from\":1}",
+                "{\"advertising_token\":null,\"refresh_token\":\"r\",\"identity_expires\":1,\"refresh_expires\":1,\"refresh_from\":1}")) {
+            assertThrows(Uid2Exception.class, () -> IdentityTokens.fromJsonString(json), json);
+        }
+    }
+
+    @Test
+    void tokenResponseBodyMayComeBeforeStatus() {
+        String identityJson = PublisherTests.expectedDecryptedJsonForTokenGenerateResponse;
+        JsonCodecs.TokenResponse response = JsonCodecs.readTokenResponse("{\"body\":" + identityJson + ",\"status\":\"success\"}");
+
+        assertEquals("success", response.status);
+        assertEquals(JsonParser.parseString(identityJson).toString(), response.identity.getJsonString());
+    }
+
+    @Test
+    void tokenResponseWithoutIdentityIsOnlyRejectedOnSuccess() {
+        JsonCodecs.TokenResponse optout = JsonCodecs.readTokenResponse("{\"body\":{},\"status\":\"optout\"}");
+        assertEquals("optout", optout.status);
+        assertNull(optout.identity);
+
+        assertThrows(Uid2Exception.class, () -> JsonCodecs.readTokenResponse("{\"body\":{},\"status\":\"success\"}"));
+        assertThrows(Uid2Exception.class, () -> JsonCodecs.readTokenResponse("{\"status\":\"success\"}"));
+        assertThrows(Uid2Exception.class, () -> JsonCodecs.readTokenResponse("{\"body\":{}}"));
+    }
+
+    @Test
+    void tokenGenerateRequestMatchesTheGsonTree() {
+        JsonObject expected = new JsonObject();
+        expected.addProperty("email_hash", "a+b=");
+        expected.addProperty("tcf_consent_string", "C\"P</script>");
+
+        assertEquals(expected.toString(), JsonCodecs.writeTokenGenerateRequest("email_hash", "a+b=", "C\"P</script>"));
+        assertEquals("{\"phone\":\"+12345678901\"}", JsonCodecs.writeTokenGenerateRequest("phone", "+12345678901", null));
+    }
+
+    @Test
+    void identityMapResponseIsReadWithoutReflection() {
+        IdentityMapInput input = IdentityMapInput.fromEmails(Arrays.asList("a@example.com", "A@example.com", "b@example.com"));
+        String response = "{\"body\":{\"mapped\":[{\"identifier\":\"" + InputUtil.normalizeAndHashEmail("a@example.com") +
+                "\",\"advertising_id\":\"uid\",\"bucket_id\":\"bucket\",\"extra\":[1]}],\"unmapped\":[{\"identifier\":\"" +
+                InputUtil.normalizeAndHashEmail("b@example.com") + "\",\"reason\":\"optout\"}],\"extra\":{}},\"status\":\"success\"}";
+
+        IdentityMapResponse identityMapResponse = new IdentityMapResponse(response, input);
+
+        assertEquals("uid", identityMapResponse.getMappedIdentities().get("a@example.com").getRawUid());
+        assertEquals("bucket", identityMapResponse.getMappedIdentities().get("A@example.com").getBucketId());
+        assertEquals("optout", identityMapResponse.getUnmappedIdentities().get("b@example.com").getReason());
+        assertThrows(Uid2Exception.class, () -> new IdentityMapResponse("{\"status\":\"error\"}", input));
+        assertThrows(Uid2Exception.class, () -> new IdentityMapResponse("{\"status\":", input));
+    }
+}
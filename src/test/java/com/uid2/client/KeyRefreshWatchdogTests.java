@@ -0,0 +1,129 @@
+package com.uid2.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+import static com.uid2.client.TestData.CLIENT_SECRET;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyRefreshWatchdogTests {
+    private FakeOperator operator;
+    private BidstreamClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        operator = new FakeOperator();
+        client = new BidstreamClient(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+    }
+
+    @AfterEach
+    void tearDown() {
+        operator.close();
+    }
+
+    @Test
+    void healthBeforeKeysAreLoaded() {
+        KeyHealth health = client.getKeyHealth();
+
+        assertFalse(health.isInitialized());
+        assertEquals(KeyFreshness.EXPIRED, health.getFreshness());
+        assertNull(health.getContainerAge());
+        assertNull(health.getLatestKeyExpiry());
+        assertNull(health.getLastSuccessfulRefresh());
+        assertEquals(0, health.getKeyCount());
+    }
+
+    @Test
+    void healthAfterRefresh() {
+        Instant before = Instant.now();
+        assertTrue(client.refresh().isSuccess());
+        KeyHealth health = client.getKeyHealth();
+
+        assertTrue(health.isInitialized());
+        assertEquals(2, health.getKeyCount());
+        assertEquals(2, health.getKeysetCount());
+        assertFalse(health.getLastSuccessfulRefresh().isBefore(before));
+        assertNull(health.getLastFailedRefresh());
+        assertFalse(health.getContainerAge().isNegative());
+        assertTrue(health.getTimeUntilKeysExpire().compareTo(Duration.ofHours(23)) > 0);
+        assertEquals(KeyFreshness.FRESH, health.getFreshness());
+
+        Instant expiry = health.getLatestKeyExpiry();
+        assertEquals(KeyFreshness.STALE, client.getKeyHealth(Instant.now().plus(Duration.ofMinutes(31))).getFreshness());
+        assertEquals(KeyFreshness.EXPIRING, client.getKeyHealth(expiry.minus(Duration.ofMinutes(59))).getFreshness());
+        assertEquals(KeyFreshness.EXPIRED, client.getKeyHealth(expiry).getFreshness());
+        assertEquals(KeyFreshness.FRESH, client.getKeyHealth(expiry.minus(Duration.ofMinutes(59))).getFreshness(Duration.ofDays(2), Duration.ofMinutes(30)));
+    }
+
+    @Test
+    void failedRefreshIsRecordedAndKeysAreKept() {
+        assertTrue(client.refresh().isSuccess());
+        operator.failNextRequests(100, 500, null);
+
+        assertFalse(client.refresh().isSuccess());
+        KeyHealth health = client.getKeyHealth();
+        assertNotNull(health.getLastFailedRefresh());
+        assertNotNull(health.getLastFailureReason());
+        assertEquals(health.getLastFailedRefresh(), health.getLastRefresh());
+        assertTrue(health.isInitialized());
+        assertEquals(KeyFreshness.FRESH, health.getFreshness());
+    }
+
+    @Test
+    void retryIntervalShrinksWithUrgency() {
+        KeyRefreshWatchdog watchdog = new KeyRefreshWatchdog(client).withMinRetryInterval(Duration.ofSeconds(10));
+
+        assertEquals(Duration.ofMinutes(5), watchdog.getRetryInterval(KeyFreshness.FRESH));
+        assertEquals(Duration.ofSeconds(75), watchdog.getRetryInterval(KeyFreshness.STALE));
+        assertEquals(Duration.ofMillis(18750), watchdog.getRetryInterval(KeyFreshness.EXPIRING));
+        assertEquals(Duration.ofSeconds(10), watchdog.getRetryInterval(KeyFreshness.EXPIRED));
+    }
+
+    @Test
+    void watchdogRefreshesWhenDue() throws InterruptedException {
+        KeyRefreshWatchdog watchdog = new KeyRefreshWatchdog(client).withStaleAfter(Duration.ofMinutes(1));
+
+        assertTrue(watchdog.runDue()); //never refreshed
+        assertFalse(watchdog.runDue()); //in flight, or just refreshed
+        waitForRefreshes(1);
+        assertEquals(KeyFreshness.FRESH, watchdog.getFreshness());
+
+        Instant now = Instant.now();
+        assertFalse(watchdog.runDue(now.plusSeconds(50)));
+        boolean started = false;
+        for (int i = 0; i < 100 && !started; i++) { //the watchdog's previous refresh may still be completing
+            started = watchdog.runDue(now.plus(Duration.ofMinutes(2))); //stale, so retried after 75 seconds rather than 5 minutes
+            Thread.sleep(started ? 0 : 10);
+        }
+        assertTrue(started);
+        waitForRefreshes(2);
+    }
+
+    @Test
+    void watchdogWorksWithSharingClient() throws InterruptedException {
+        SharingClient sharingClient = new SharingClient(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+        KeyRefreshWatchdog watchdog = new KeyRefreshWatchdog(sharingClient);
+
+        assertEquals(KeyFreshness.EXPIRED, watchdog.getFreshness());
+        assertTrue(watchdog.runDue());
+        for (int i = 0; i < 100 && sharingClient.getKeyHealth().getLastSuccessfulRefresh() == null; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(KeyFreshness.FRESH, watchdog.getFreshness());
+    }
+
+    private void waitForRefreshes(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && operator.getRequestCount("/v2/key/bidstream") < count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, operator.getRequestCount("/v2/key/bidstream"));
+        for (int i = 0; i < 100 && client.getKeyHealth().getLastRefresh() == null; i++) {
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.uid2.client;
+
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.uid2.client.TestData.CLIENT_SECRET;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OperatorEndpointsTests {
+    private static final String GENERATE = "/v2/token/generate";
+    private static final String REFRESH = "/v2/token/refresh";
+
+    private FakeOperator primary;
+    private FakeOperator secondary;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        primary = new FakeOperator();
+        secondary = new FakeOperator();
+    }
+
+    @AfterEach
+    void tearDown() {
+        primary.close();
+        secondary.close();
+    }
+
+    @Test
+    void baseUrlsAreCommaSeparated() {
+        assertEquals(Arrays.asList("https://a.example.com", "https://b.example.com"), OperatorEndpoints.parseBaseUrls(" https://a.example.com ,https://b.example.com,"));
+        assertEquals(Arrays.asList("https://a.example.com"), OperatorEndpoints.parseBaseUrls("https://a.example.com"));
+
+        OperatorEndpoints endpoints = createEndpoints(1000, "https://a.example.com", "https://b.example.com", "https://a.example.com");
+        assertEquals(2, endpoints.getEndpoints().size());
+        assertThrows(IllegalArgumentException.class, () -> createEndpoints(1000));
+    }
+
+    @Test
+    void requestsGoToTheFirstEndpointUntilItFails() {
+        PublisherUid2Client client = publisherClient(primary.getBaseUrl() + "," + secondary.getBaseUrl());
+
+        assertTrue(client.generateTokenResponse(TokenGenerateInput.fromEmail("test@example.com")).isSuccess());
+        assertTrue(client.generateTokenResponse(TokenGenerateInput.fromEmail("test@example.com")).isSuccess());
+        assertEquals(2, primary.getRequestCount(GENERATE));
+        assertEquals(0, secondary.getRequestCount(GENERATE));
+    }
+
+    @Test
+    void serverErrorFailsOverWithAFreshEnvelope() {
+        PublisherUid2Client client = publisherClient(primary.getBaseUrl() + "," + secondary.getBaseUrl());
+        primary.failNextRequests(100, 500, null);
+
+        assertTrue(client.generateTokenResponse(TokenGenerateInput.fromEmail("test@example.com")).isSuccess());
+        assertEquals(1, primary.getRequestCount(GENERATE));
+        assertEquals(1, secondary.getRequestCount(GENERATE));
+    }
+
+    @Test
+    void connectionErrorFailsOverAsync() throws IOException {
+        FakeOperator unreachable = new FakeOperator();
+        String unreachableUrl = unreachable.getBaseUrl();
+        unreachable.close();
+        PublisherUid2Client client = publisherClient(unreachableUrl + "," + secondary.getBaseUrl());
+
+        assertTrue(client.generateTokenResponseAsync(TokenGenerateInput.fromEmail("test@example.com")).join().isSuccess());
+        assertEquals(1, secondary.getRequestCount(GENERATE));
+    }
+
+    @Test
+    void tokenRefreshOnlyFailsOverIfItNeverReachedTheOperator() throws IOException {
+        PublisherUid2Client client = publisherClient(primary.getBaseUrl() + "," + secondary.getBaseUrl());
+        IdentityTokens identity = client.generateTokenResponse(TokenGenerateInput.fromEmail("test@example.com")).getIdentity();
+        primary.failNextRequests(1, 503, null);
+
+        assertThrows(Uid2HttpStatusException.class, () -> client.refreshToken(identity)); //the refresh token may have been used
+        assertEquals(0, secondary.getRequestCount(REFRESH));
+
+        FakeOperator unreachable = new FakeOperator();
+        String unreachableUrl = unreachable.getBaseUrl();
+        unreachable.close();
+        PublisherUid2Client failoverClient = publisherClient(unreachableUrl + "," + secondary.getBaseUrl());
+        IdentityTokens secondaryIdentity = failoverClient.generateTokenResponse(TokenGenerateInput.fromEmail("test@example.com")).getIdentity();
+        assertTrue(publisherClient(unreachableUrl + "," + secondary.getBaseUrl()).refreshTokenAsync(secondaryIdentity).join().isSuccess());
+        assertEquals(1, secondary.getRequestCount(REFRESH));
+    }
+
+    @Test
+    void clientErrorsAndExhaustedEndpointsDoNotFailOver() {
+        PublisherUid2Client client = publisherClient(primary.getBaseUrl() + "," + secondary.getBaseUrl());
+        primary.failNextRequests(1, 400, null);
+
+        assertThrows(Uid2Exception.class, () -> client.generateTokenResponse(TokenGenerateInput.fromEmail("test@example.com")));
+        assertEquals(0, secondary.getRequestCount(GENERATE));
+
+        primary.failNextRequests(100, 503, null);
+        secondary.failNextRequests(100, 503, null);
+        assertThrows(Uid2HttpStatusException.class, () -> client.generateTokenResponse(TokenGenerateInput.fromEmail("test@example.com")));
+        assertEquals(2, primary.getRequestCount(GENERATE));
+        assertEquals(1, secondary.getRequestCount(GENERATE));
+    }
+
+    @Test
+    void lowestLatencyHealthyEndpointIsSelected() {
+        OperatorEndpoints endpoints = createEndpoints(60_000, "https://a.example.com", "https://b.example.com");
+        OperatorEndpoints.Endpoint a = endpoints.getEndpoints().get(0);
+        OperatorEndpoints.Endpoint b = endpoints.getEndpoints().get(1);
+        long now = System.nanoTime();
+
+        assertSame(a, endpoints.select(now)); //no latency data, so configured order
+        b.recordSuccess(TimeUnit.MILLISECONDS.toNanos(25));
+        assertSame(b, endpoints.select(now)); //endpoints with data rank first
+        a.recordSuccess(TimeUnit.MILLISECONDS.toNanos(20));
+        assertSame(a, endpoints.select(now));
+
+        a.recordFailure(now);
+        assertFalse(a.isDown()); //a single failure only raises the score
+        assertSame(b, endpoints.select(now)); //a request failing over goes elsewhere
+        long later = now + TimeUnit.MILLISECONDS.toNanos(OperatorEndpoints.FAILOVER_WINDOW_MILLIS);
+        assertSame(b, endpoints.select(later)); //back in rotation, but its recent error rate still outweighs its lower latency
+        b.recordFailure(later);
+        assertSame(a, endpoints.select(later));
+    }
+
+    @Test
+    void endpointIsTakenOutOfRotationOnceItKeepsFailing() {
+        OperatorEndpoints endpoints = createEndpoints(60_000, "https://a.example.com", "https://b.example.com", "https://c.example.com");
+        OperatorEndpoints.Endpoint a = endpoints.getEndpoints().get(0);
+        OperatorEndpoints.Endpoint b = endpoints.getEndpoints().get(1);
+        OperatorEndpoints.Endpoint c = endpoints.getEndpoints().get(2);
+        long now = System.nanoTime();
+
+        a.recordFailure(now);
+        a.recordFailure(now);
+        assertFalse(a.isDown());
+        a.recordFailure(now);
+        assertTrue(a.isDown()); //three failures in a row
+
+        int failures = 0;
+        while (!b.isDown() && failures < 20) { //every other request failing pushes the error rate over the threshold
+            b.recordFailure(now + 1);
+            failures++;
+            if (!b.isDown()) {
+                b.recordSuccess(TimeUnit.MILLISECONDS.toNanos(20));
+            }
+        }
+        assertTrue(b.isDown());
+        assertTrue(failures > 3);
+        assertSame(c, endpoints.select(now + 1));
+
+        for (int i = 0; i < 3; i++) {
+            c.recordFailure(now + 2);
+        }
+        assertSame(a, endpoints.select(now + 2)); //all down, so the one which has been down longest
+    }
+
+    @Test
+    void downEndpointIsProbedUntilItRecovers() throws InterruptedException {
+        OperatorEndpoints endpoints = createEndpoints(50, primary.getBaseUrl(), secondary.getBaseUrl());
+        OperatorEndpoints.Endpoint first = endpoints.getEndpoints().get(0);
+        primary.failNextRequests(1, 503, null);
+        for (int i = 0; i < 3; i++) {
+            first.recordFailure();
+        }
+
+        for (int i = 0; i < 100 && first.isDown(); i++) {
+            endpoints.select();
+            Thread.sleep(20);
+        }
+        assertFalse(first.isDown());
+        assertEquals(2, primary.getRequestCount(OperatorEndpoints.HEALTHCHECK_PATH)); //the first probe failed
+    }
+
+    @Test
+    void idleEndpointIsProbedSoThatAFasterOneIsFound() throws InterruptedException {
+        OperatorEndpoints endpoints = createEndpoints(50, primary.getBaseUrl(), secondary.getBaseUrl());
+        OperatorEndpoints.Endpoint slow = endpoints.getEndpoints().get(0);
+        OperatorEndpoints.Endpoint fast = endpoints.getEndpoints().get(1);
+
+        for (int i = 0; i < 100 && endpoints.select() == slow; i++) {
+            slow.recordSuccess(TimeUnit.SECONDS.toNanos(2)); //slow, but never failing, so nothing else would move requests off it
+            Thread.sleep(20);
+        }
+        assertSame(fast, endpoints.select());
+        assertTrue(secondary.getRequestCount(OperatorEndpoints.HEALTHCHECK_PATH) > 0);
+        assertEquals(0, primary.getRequestCount(OperatorEndpoints.HEALTHCHECK_PATH)); //in use, so it has recent latency data
+    }
+
+    private static OperatorEndpoints createEndpoints(long probeIntervalMillis, String... baseUrls) {
+        return new OperatorEndpoints(Arrays.asList(baseUrls), new OkHttpClient(), Uid2ClientHelper.getHeaders(FakeOperator.CLIENT_API_KEY), probeIntervalMillis);
+    }
+
+    private static PublisherUid2Client publisherClient(String baseUrls) {
+        return new PublisherUid2Client(baseUrls, FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -478,6 +479,59 @@ class PublisherTests {
         assertTrue(identity.isDueForRefreshImpl(afterIdentityExpires));
     }
 
+    @Test
+    public void identityBinaryRoundTrip() {
+        IdentityTokens identity = IdentityTokens.fromJsonString(expectedDecryptedJsonForTokenGenerateResponse);
+
+        byte[] bytes = identity.toBytes();
+        assertTrue(bytes.length < expectedDecryptedJsonForTokenGenerateResponse.length());
+        IdentityTokens decoded = IdentityTokens.fromBytes(bytes);
+
+        Instant[] timestamps = {identity.getRefreshFrom().minusMillis(1), identity.getRefreshFrom(), identity.getRefreshFrom().plusNanos(1),
+                identity.getIdentityExpires().plusSeconds(1), identity.getRefreshExpires(), identity.getRefreshExpires().plusNanos(1)};
+        for (Instant timestamp : timestamps) {
+            assertEquals(identity.isDueForRefreshImpl(timestamp), decoded.isDueForRefreshImpl(timestamp));
+            assertEquals(identity.isRefreshableImpl(timestamp), decoded.isRefreshableImpl(timestamp));
+        }
+        assertEquals(identity.getAdvertisingToken(), decoded.getAdvertisingToken());
+        assertEquals(identity.getRefreshToken(), decoded.getRefreshToken());
+        assertEquals(identity.getRefreshResponseKey(), decoded.getRefreshResponseKey());
+        assertEquals(identity.getIdentityExpires(), decoded.getIdentityExpires());
+        assertEquals(identity.getRefreshExpires(), decoded.getRefreshExpires());
+        assertEquals(identity.getRefreshFrom(), decoded.getRefreshFrom());
+        assertArrayEquals(bytes, decoded.toBytes());
+
+        //the JSON is rebuilt from the modelled fields, so user_token is not kept
+        IdentityTokens fromDecodedJson = IdentityTokens.fromJsonString(decoded.getJsonString());
+        assertEquals(identity.getAdvertisingToken(), fromDecodedJson.getAdvertisingToken());
+        assertEquals(identity.getRefreshFrom(), fromDecodedJson.getRefreshFrom());
+        assertNull(new Gson().fromJson(decoded.getJsonString(), JsonObject.class).get("user_token"));
+    }
+
+    @Test
+    public void identityBinaryWithoutRefreshResponseKey() { //v1 sessions
+        JsonObject json = new Gson().fromJson(expectedDecryptedJsonForTokenGenerateResponse, JsonObject.class);
+        json.remove("refresh_response_key");
+        IdentityTokens decoded = IdentityTokens.fromBytes(IdentityTokens.fromJsonString(json.toString()).toBytes());
+
+        assertTrue(decoded.isRefreshableImpl(decoded.getRefreshExpires().minusSeconds(1)));
+        assertNull(decoded.getRefreshResponseKey());
+        assertNull(new Gson().fromJson(decoded.getJsonString(), JsonObject.class).get("refresh_response_key"));
+    }
+
+    @Test
+    public void invalidIdentityBinary() {
+        byte[] bytes = IdentityTokens.fromJsonString(expectedDecryptedJsonForTokenGenerateResponse).toBytes();
+
+        assertThrows(Uid2Exception.class, () -> IdentityTokens.fromBytes(new byte[0]));
+        assertThrows(Uid2Exception.class, () -> IdentityTokens.fromBytes(Arrays.copyOf(bytes, bytes.length - 1)));
+        assertThrows(Uid2Exception.class, () -> IdentityTokens.fromBytes(Arrays.copyOf(bytes, bytes.length + 1)));
+        byte[] futureVersion = bytes.clone();
+        futureVersion[0] = 2;
+        assertThrows(Uid2Exception.class, () -> IdentityTokens.fromBytes(futureVersion));
+        assertThrows(NullPointerException.class, () -> IdentityTokens.fromBytes(null));
+    }
+
     @Test
     public void invalidEmail() {
         assertThrows(IllegalArgumentException.class,
@@ -0,0 +1,228 @@
+package com.uid2.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.uid2.client.TestData.CLIENT_SECRET;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenRefreshManagerTests {
+    private FakeOperator operator;
+    private PublisherUid2Client publisherClient;
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private final TokenRefreshListener listener = new TokenRefreshListener() {
+        @Override
+        public void onRefreshed(String sessionId, IdentityTokens identity) {
+            events.add("refreshed " + sessionId);
+        }
+
+        @Override
+        public void onOptout(String sessionId) {
+            events.add("optout " + sessionId);
+        }
+
+        @Override
+        public void onExpired(String sessionId) {
+            events.add("expired " + sessionId);
+        }
+
+        @Override
+        public void onError(String sessionId, Uid2Exception e) {
+            events.add("error " + sessionId);
+        }
+    };
+
+    @BeforeEach
+    void setUp() throws IOException {
+        operator = new FakeOperator();
+        publisherClient = new PublisherUid2Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig());
+    }
+
+    @AfterEach
+    void tearDown() {
+        operator.close();
+    }
+
+    @Test
+    void concurrentRefreshesOfTheSameTokenShareOneCall() {
+        TokenRefreshManager manager = new TokenRefreshManager(publisherClient, listener);
+        IdentityTokens identity = generate("test@example.com");
+
+        List<CompletableFuture<TokenRefreshResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(manager.refresh(identity));
+        }
+        TokenRefreshResponse first = futures.get(0).join();
+        assertTrue(first.isSuccess());
+        for (CompletableFuture<TokenRefreshResponse> future : futures) {
+            assertSame(first, future.join());
+        }
+        assertSame(first, manager.refreshToken(identity)); //a tab arriving after the refresh completed gets the same result
+        assertEquals(1, operator.getRequestCount("/v2/token/refresh"));
+
+        TokenRefreshResponse next = manager.refreshToken(first.getIdentity());
+        assertNotEquals(first.getIdentity().getRefreshToken(), next.getIdentity().getRefreshToken());
+        assertEquals(2, operator.getRequestCount("/v2/token/refresh"));
+    }
+
+    @Test
+    void failedRefreshIsNotShared() {
+        TokenRefreshManager manager = new TokenRefreshManager(publisherClient, listener);
+        IdentityTokens identity = generate("test@example.com");
+        operator.failNextRequests(1, 500, null);
+
+        assertThrows(Uid2Exception.class, () -> manager.refreshToken(identity));
+        assertTrue(manager.refreshToken(identity).isSuccess());
+        assertEquals(2, operator.getRequestCount("/v2/token/refresh"));
+    }
+
+    @Test
+    void completedResultsAreDroppedWithoutRunDue() {
+        TokenRefreshManager manager = new TokenRefreshManager(publisherClient, listener);
+        IdentityTokens first = generate("a@example.com");
+        IdentityTokens second = generate("b@example.com");
+        Instant now = Instant.now();
+
+        assertTrue(manager.refresh(first, now).join().isSuccess());
+        assertTrue(manager.refresh(first, now.plusSeconds(10)).join().isSuccess());
+        assertEquals(1, operator.getRequestCount("/v2/token/refresh"));
+
+        //a refresh after the retention period sweeps out every expired result
+        assertTrue(manager.refresh(second, now.plusSeconds(40)).join().isSuccess());
+        assertThrows(CompletionException.class, () -> manager.refresh(first, now).join()); //sent again, and rejected since the token was used
+        assertEquals(3, operator.getRequestCount("/v2/token/refresh"));
+    }
+
+    @Test
+    void trackedSessionsAreRefreshedOnceDueAndSpreadAcrossTicks() throws InterruptedException {
+        TokenRefreshManager manager = new TokenRefreshManager(publisherClient, listener).withRefreshSpread(Duration.ZERO).withMaxRefreshesPerTick(2);
+        Instant now = Instant.now();
+        List<IdentityTokens> identities = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            identities.add(generate("user" + i + "@example.com"));
+            manager.track("session" + i, identities.get(i), now);
+        }
+
+        assertEquals(0, manager.runDue(now.plus(Duration.ofMinutes(10))));
+        Instant due = identities.get(0).getRefreshFrom().plusSeconds(2);
+        assertEquals(2, manager.runDue(due));
+        assertEquals(1, manager.runDue(due.plusSeconds(1)));
+        assertEquals(0, manager.runDue(due.plusSeconds(2)));
+
+        HashSet<String> received = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            received.add(events.poll(10, TimeUnit.SECONDS));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("refreshed session0", "refreshed session1", "refreshed session2")), received);
+        assertEquals(3, operator.getRequestCount("/v2/token/refresh"));
+        for (int i = 0; i < 3; i++) {
+            IdentityTokens refreshed = manager.getIdentity("session" + i);
+            assertNotEquals(identities.get(i).getRefreshToken(), refreshed.getRefreshToken());
+        }
+        assertEquals(3, manager.size());
+    }
+
+    @Test
+    void optedOutAndUntrackedSessionsAreDropped() throws InterruptedException {
+        TokenRefreshManager manager = new TokenRefreshManager(publisherClient, listener).withRefreshSpread(Duration.ZERO);
+        Instant now = Instant.now();
+        IdentityTokens optout = generate("optout@example.com");
+        IdentityTokens untracked = generate("untracked@example.com");
+        manager.track("optout", optout, now);
+        manager.track("untracked", untracked, now);
+        manager.untrack("untracked");
+        operator.withOptout(InputUtil.normalizeAndHashEmail("optout@example.com"));
+
+        assertEquals(1, manager.runDue(optout.getRefreshFrom().plusSeconds(2)));
+        assertEquals("optout optout", events.poll(10, TimeUnit.SECONDS));
+        assertNull(manager.getIdentity("optout"));
+        assertNull(manager.getIdentity("untracked"));
+        assertEquals(0, manager.size());
+    }
+
+    @Test
+    void sessionsWhoseRefreshTokenExpiredAreNotRefreshed() throws InterruptedException {
+        TokenRefreshManager manager = new TokenRefreshManager(publisherClient, listener);
+        IdentityTokens identity = generate("test@example.com");
+        manager.track("session", identity, Instant.now());
+
+        assertEquals(1, manager.runDue(identity.getRefreshExpires().plusSeconds(1)));
+        assertEquals("expired session", events.poll(10, TimeUnit.SECONDS));
+        assertEquals(0, operator.getRequestCount("/v2/token/refresh"));
+        assertEquals(0, manager.size());
+    }
+
+    @Test
+    void throwingListenerDoesNotStopOtherSessions() throws InterruptedException {
+        TokenRefreshManager manager = new TokenRefreshManager(publisherClient, new TokenRefreshListener() {
+            @Override
+            public void onRefreshed(String sessionId, IdentityTokens identity) {
+            }
+
+            @Override
+            public void onOptout(String sessionId) {
+            }
+
+            @Override
+            public void onExpired(String sessionId) {
+                events.add("expired " + sessionId);
+                throw new IllegalStateException("listener failed");
+            }
+
+            @Override
+            public void onError(String sessionId, Uid2Exception e) {
+                events.add("error " + sessionId + " " + e.getCause().getMessage());
+            }
+        });
+        IdentityTokens identity = generate("test@example.com");
+        manager.track("a", identity, Instant.now());
+        manager.track("b", identity, Instant.now());
+
+        assertEquals(2, manager.runDue(identity.getRefreshExpires().plusSeconds(1)));
+        HashSet<String> received = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            received.add(events.poll(10, TimeUnit.SECONDS));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("expired a", "error a listener failed", "expired b", "error b listener failed")), received);
+        assertEquals(0, manager.size());
+    }
+
+    @Test
+    void refreshWhichThrowsSynchronouslyIsNotLeftInFlight() throws Exception {
+        PublisherUid2Client throwingOnce = new PublisherUid2Client(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, CLIENT_SECRET, new Uid2TransportConfig()) {
+            @Override
+            public CompletableFuture<TokenRefreshResponse> refreshTokenAsync(IdentityTokens currentIdentity) {
+                if (thrown++ == 0) {
+                    throw new IllegalStateException("executor rejected the request");
+                }
+                return super.refreshTokenAsync(currentIdentity);
+            }
+
+            private int thrown;
+        };
+        TokenRefreshManager manager = new TokenRefreshManager(throwingOnce, listener);
+        IdentityTokens identity = generate("test@example.com");
+
+        CompletableFuture<TokenRefreshResponse> failed = manager.refresh(identity);
+        assertTrue(failed.isCompletedExceptionally());
+        assertTrue(manager.refresh(identity).get(10, TimeUnit.SECONDS).isSuccess());
+    }
+
+    private IdentityTokens generate(String email) {
+        return publisherClient.generateTokenResponse(TokenGenerateInput.fromEmail(email)).getIdentity();
+    }
+}
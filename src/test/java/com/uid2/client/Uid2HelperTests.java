@@ -0,0 +1,141 @@
+package com.uid2.client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Uid2HelperTests {
+    private static final String SECRET_KEY = "ioG3wKxAokmp+rERx6A4kM/13qhyolUXIu14WN16Spo=";
+    private static final String JSON = "{\"body\":{\"email_hash\":[{\"u\":\"abc\",\"p\":null,\"r\":1735689600}]},\"status\":\"success\"}";
+
+    private final Uid2Helper uid2Helper = new Uid2Helper(SECRET_KEY);
+    private final byte[] nonce = uid2Helper.createNonce();
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void decryptResponseMatchesDecrypt(boolean isBinary) throws IOException {
+        byte[] encrypted = encryptResponse(nonce, JSON);
+        byte[] body = isBinary ? encrypted : Base64.getEncoder().encode(encrypted);
+
+        String streamed = readString(uid2Helper.decryptResponse(new ByteArrayInputStream(body), body.length, isBinary, nonce));
+
+        assertEquals(JSON, streamed);
+        assertEquals(isBinary ? uid2Helper.decrypt(encrypted, nonce) : uid2Helper.decrypt(new String(body, StandardCharsets.US_ASCII), nonce), streamed);
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {-1, 0, 1, 10_000_000, Long.MAX_VALUE}) //a wrong Content-Length only changes the initial buffer size, which is capped
+    public void decryptResponseDoesNotRelyOnContentLength(long contentLength) throws IOException {
+        StringBuilder json = new StringBuilder("{\"status\":\"success\",\"body\":[");
+        for (int i = 0; i < 5000; i++) {
+            json.append(i == 0 ? "" : ",").append(i);
+        }
+        json.append("]}");
+        byte[] body = Base64.getEncoder().encode(encryptResponse(nonce, json.toString()));
+
+        InputStream decrypted = uid2Helper.decryptResponse(new ByteArrayInputStream(body), contentLength, false, nonce);
+
+        assertEquals(json.toString(), readString(decrypted));
+    }
+
+    @Test
+    public void decryptResponseRejectsWrongNonce() {
+        byte[] body = Base64.getEncoder().encode(encryptResponse(uid2Helper.createNonce(), JSON));
+
+        Uid2Exception e = assertThrows(Uid2Exception.class, () -> uid2Helper.decryptResponse(new ByteArrayInputStream(body), body.length, false, nonce));
+        assertEquals("Nonce in request does not match nonce in response", e.getMessage());
+    }
+
+    @Test
+    public void decryptResponseRejectsTamperedPayload() {
+        byte[] encrypted = encryptResponse(nonce, JSON);
+        encrypted[encrypted.length / 2] ^= 1;
+
+        assertThrows(RuntimeException.class, () -> uid2Helper.decryptResponse(new ByteArrayInputStream(encrypted), encrypted.length, true, nonce));
+    }
+
+    @Test
+    public void identityMapV3ResponseFromStream() throws IOException {
+        IdentityMapV3Input input = IdentityMapV3Input.fromEmails(Collections.singletonList("test@example.com"));
+        byte[] body = Base64.getEncoder().encode(encryptResponse(nonce, JSON));
+        EnvelopeV2 envelope = new EnvelopeV2(new byte[0], nonce);
+
+        IdentityMapV3Response response = new IdentityMapV3Helper(SECRET_KEY).createIdentityMapResponse(new ByteArrayInputStream(body), body.length, false, envelope, input);
+
+        assertTrue(response.isSuccess());
+        assertEquals("abc", response.getMappedIdentities().get("test@example.com").getCurrentRawUid());
+    }
+
+    @Test
+    public void envelopeLayoutIsUnchanged() {
+        byte[] iv = new byte[Uid2Encryption.GCM_IV_LENGTH];
+        Instant timestamp = Instant.ofEpochMilli(1_700_000_000_123L);
+        byte[] json = "{\"email_hash\":[\"abc\"]}".getBytes(StandardCharsets.UTF_8);
+
+        EnvelopeV2 envelope = uid2Helper.createEnvelopeV2(nonce, timestamp, iv, json);
+
+        ByteBuffer plaintext = ByteBuffer.allocate(8 + nonce.length + json.length);
+        plaintext.putLong(timestamp.toEpochMilli()).put(nonce).put(json);
+        byte[] encrypted = Uid2Encryption.encryptGCM(plaintext.array(), iv, Base64.getDecoder().decode(SECRET_KEY));
+        ByteBuffer expected = ByteBuffer.allocate(1 + encrypted.length).put((byte) 1).put(encrypted);
+        assertArrayEquals(expected.array(), envelope.getBinaryEnvelope());
+    }
+
+    @Test
+    public void identityMapRequestBodyMatchesGson() {
+        IdentityMapV3Input v3Input = IdentityMapV3Input.fromEmails(Arrays.asList("a@example.com", "b@example.com"))
+                .withHashedEmail("quote\" backslash\\ control\u0001\n\t")
+                .withHashedPhone("caf\u00e9 \u20ac \ud83d\ude00 \ud800 <&>");
+        assertEquals(gsonRequestBody(v3Input), decryptRequestBody(new IdentityMapV3Helper(SECRET_KEY).createEnvelopeForIdentityMapRequest(v3Input)));
+        IdentityMapV3Input empty = new IdentityMapV3Input();
+        assertEquals(gsonRequestBody(empty), decryptRequestBody(new IdentityMapV3Helper(SECRET_KEY).createEnvelopeForIdentityMapRequest(empty)));
+
+        IdentityMapInput input = IdentityMapInput.fromPhones(Arrays.asList("+12345678901", "+12345678902"));
+        assertEquals(gsonRequestBody(input), decryptRequestBody(new IdentityMapHelper(SECRET_KEY).createEnvelopeForIdentityMapRequest(input)));
+    }
+
+    //the request body as it was previously sent: Gson's output encoded as UTF-8
+    private static JsonElement gsonRequestBody(Object input) {
+        return JsonParser.parseString(new String(new Gson().toJson(input).getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+    }
+
+    private static JsonElement decryptRequestBody(EnvelopeV2 envelope) {
+        byte[] payload = Uid2Encryption.decryptGCM(envelope.getBinaryEnvelope(), 1, Base64.getDecoder().decode(SECRET_KEY));
+        return JsonParser.parseString(new String(payload, 16, payload.length - 16, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] encryptResponse(byte[] nonce, String json) {
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(8 + nonce.length + jsonBytes.length);
+        payload.putLong(Instant.now().toEpochMilli());
+        payload.put(nonce);
+        payload.put(jsonBytes);
+        return Uid2Encryption.encryptGCM(payload.array(), null, Base64.getDecoder().decode(SECRET_KEY));
+    }
+
+    private static String readString(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = stream.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
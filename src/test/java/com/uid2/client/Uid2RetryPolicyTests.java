@@ -0,0 +1,273 @@
+package com.uid2.client;
+
+import okhttp3.Call;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Uid2RetryPolicyTests {
+    private static final Instant NOW = Instant.parse("2025-01-01T00:00:00Z");
+
+    @Test
+    public void noRetriesByDefault() {
+        Uid2ClientHelper helper = createHelper(Uid2RetryPolicy.noRetries());
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(Uid2HttpStatusException.class, () -> helper.execute("/v2/identity/map", () -> {
+            attempts.incrementAndGet();
+            throw status(503, null);
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void retryableStatusIsRetriedUntilSuccess() {
+        Uid2ClientHelper helper = createHelper(fastRetries(3));
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = helper.execute("/v2/identity/map", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw status(429, null);
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        Uid2ClientHelper helper = createHelper(fastRetries(2));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(Uid2Exception.class, () -> helper.execute("/v2/identity/map", () -> {
+            attempts.incrementAndGet();
+            throw new Uid2Exception("error communicating with api endpoint", new IOException("connection reset"));
+        }));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void nonRetryableFailuresAreNotRetried() {
+        Uid2ClientHelper helper = createHelper(fastRetries(5));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(Uid2Exception.class, () -> helper.execute("/v2/identity/map", () -> {
+            attempts.incrementAndGet();
+            throw status(401, null);
+        }));
+        assertThrows(Uid2Exception.class, () -> helper.execute("/v2/identity/map", () -> {
+            attempts.incrementAndGet();
+            throw new Uid2Exception("Nonce in request does not match nonce in response");
+        }));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void singleUseRequestsAreOnlyRetriedIfNeverSent() {
+        Uid2ClientHelper helper = createHelper(fastRetries(3));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(Uid2Exception.class, () -> helper.executeSingleUse("/v2/token/refresh", () -> {
+            attempts.incrementAndGet();
+            throw new Uid2Exception("error communicating with api endpoint", new IOException("connection reset"));
+        }));
+        CompletionException e = assertThrows(CompletionException.class, () -> helper.executeSingleUseAsync("/v2/token/refresh", () -> {
+            attempts.incrementAndGet();
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(status(503, null));
+            return future;
+        }).join());
+        assertTrue(e.getCause() instanceof Uid2HttpStatusException);
+        assertEquals(2, attempts.get());
+
+        String result = helper.executeSingleUse("/v2/token/refresh", () -> {
+            if (attempts.incrementAndGet() < 4) {
+                throw new Uid2Exception("error communicating with api endpoint", new ConnectException("Connection refused"));
+            }
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(4, attempts.get());
+    }
+
+    @Test
+    public void backoffGrowsExponentiallyUpToMax() {
+        Uid2RetryPolicy policy = new Uid2RetryPolicy().withMaxAttempts(10).withJitter(0)
+                .withBackoff(Duration.ofMillis(100), Duration.ofMillis(500), 2);
+        Uid2Exception failure = status(503, null);
+
+        assertEquals(100, policy.getRetryDelayMillis(failure, 1, NOW));
+        assertEquals(200, policy.getRetryDelayMillis(failure, 2, NOW));
+        assertEquals(400, policy.getRetryDelayMillis(failure, 3, NOW));
+        assertEquals(500, policy.getRetryDelayMillis(failure, 4, NOW));
+        assertEquals(-1, policy.getRetryDelayMillis(failure, 10, NOW));
+    }
+
+    @Test
+    public void jitterReducesBackoff() {
+        Uid2RetryPolicy policy = new Uid2RetryPolicy().withMaxAttempts(2).withJitter(0.5)
+                .withBackoff(Duration.ofMillis(1000), Duration.ofMillis(1000), 2);
+
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.getRetryDelayMillis(status(503, null), 1, NOW);
+            assertTrue(delay >= 500 && delay <= 1000, "delay " + delay);
+        }
+    }
+
+    @Test
+    public void retryAfterSecondsIsHonoured() {
+        Uid2RetryPolicy policy = new Uid2RetryPolicy().withMaxAttempts(2).withJitter(0)
+                .withBackoff(Duration.ofMillis(100), Duration.ofMillis(100), 1);
+
+        assertEquals(3000, policy.getRetryDelayMillis(status(429, "3"), 1, NOW));
+    }
+
+    @Test
+    public void retryAfterHttpDateIsHonoured() {
+        Uid2RetryPolicy policy = new Uid2RetryPolicy().withMaxAttempts(2).withJitter(0)
+                .withBackoff(Duration.ofMillis(100), Duration.ofMillis(100), 1);
+        String retryAt = DateTimeFormatter.RFC_1123_DATE_TIME.format(NOW.plusSeconds(5).atOffset(ZoneOffset.UTC));
+
+        assertEquals(5000, policy.getRetryDelayMillis(status(503, retryAt), 1, NOW));
+    }
+
+    @Test
+    public void retryAfterLongerThanMaxGivesUp() {
+        Uid2RetryPolicy policy = new Uid2RetryPolicy().withMaxAttempts(2).withMaxRetryAfter(Duration.ofSeconds(10));
+
+        assertEquals(-1, policy.getRetryDelayMillis(status(503, "3600"), 1, NOW));
+    }
+
+    @Test
+    public void asyncRetriesRunFreshAttempts() {
+        Uid2ClientHelper helper = createHelper(fastRetries(3));
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = helper.executeAsync("/v3/identity/map", false, () -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            if (attempts.incrementAndGet() < 3) {
+                future.completeExceptionally(status(503, null));
+            } else {
+                future.complete("attempt " + attempts.get());
+            }
+            return future;
+        }).join();
+
+        assertEquals("attempt 3", result);
+    }
+
+    @Test
+    public void slowRequestIsHedged() throws Exception {
+        Uid2ClientHelper helper = createHelper(new Uid2RetryPolicy().withHedging(90, Duration.ofMillis(20)));
+        for (int i = 0; i < LatencyTracker.MIN_SAMPLES; i++) {
+            helper.executeAsync("/v2/key/bidstream", true, () -> CompletableFuture.completedFuture("warm up")).join();
+        }
+
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> neverCompletes = new CompletableFuture<>();
+        String result = helper.executeAsync("/v2/key/bidstream", true, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                return neverCompletes;
+            }
+            return CompletableFuture.completedFuture("hedged");
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals("hedged", result);
+        assertEquals(2, attempts.get());
+        assertTrue(neverCompletes.isCancelled());
+    }
+
+    @Test
+    public void losingHedgedRequestCancelsItsCall() throws Exception {
+        try (FakeOperator operator = new FakeOperator()) {
+            operator.withLatency(Duration.ofSeconds(30));
+            Uid2TransportConfig transportConfig = new Uid2TransportConfig().withRetryPolicy(new Uid2RetryPolicy().withHedging(90, Duration.ofMillis(20)));
+            Uid2ClientHelper helper = new Uid2ClientHelper(operator.getBaseUrl(), FakeOperator.CLIENT_API_KEY, transportConfig);
+            for (int i = 0; i < LatencyTracker.MIN_SAMPLES; i++) {
+                helper.executeAsync("/v2/token/generate", true, () -> CompletableFuture.completedFuture("warm up")).join();
+            }
+
+            AtomicInteger attempts = new AtomicInteger();
+            CompletableFuture<String> hedge = new CompletableFuture<>();
+            CompletableFuture<String> result = helper.executeAsync("/v2/token/generate", true, () -> {
+                if (attempts.incrementAndGet() == 1) {
+                    return helper.makeRequestAsync("/v2/token/generate", "slow", (body, isBinary) -> "primary");
+                }
+                return hedge;
+            });
+            List<Call> running = transportConfig.getHttpClient().dispatcher().runningCalls();
+            for (int i = 0; i < 500 && (running.isEmpty() || attempts.get() < 2); i++) {
+                Thread.sleep(10);
+                running = transportConfig.getHttpClient().dispatcher().runningCalls();
+            }
+            assertEquals(1, running.size());
+            assertEquals(2, attempts.get());
+
+            hedge.complete("hedged");
+            assertEquals("hedged", result.get(5, TimeUnit.SECONDS));
+            assertTrue(running.get(0).isCanceled());
+        }
+    }
+
+    @Test
+    public void requestsAreNotHedgedUntilEnoughLatenciesAreKnown() {
+        Uid2ClientHelper helper = createHelper(new Uid2RetryPolicy().withHedging(90, Duration.ofMillis(1)));
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<String> result = helper.executeAsync("/v2/key/bidstream", true, () -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.supplyAsync(() -> {
+                sleep(50);
+                return "ok";
+            });
+        });
+
+        assertEquals("ok", result.join());
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void latencyPercentile() {
+        LatencyTracker tracker = new LatencyTracker();
+        assertEquals(-1, tracker.getPercentileMillis(95));
+        for (int i = 1; i <= 100; i++) {
+            tracker.record(i);
+        }
+        assertEquals(95, tracker.getPercentileMillis(95));
+        assertEquals(50, tracker.getPercentileMillis(50));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Uid2RetryPolicy fastRetries(int maxAttempts) {
+        return new Uid2RetryPolicy().withMaxAttempts(maxAttempts).withBackoff(Duration.ofMillis(1), Duration.ofMillis(5), 2);
+    }
+
+    private static Uid2ClientHelper createHelper(Uid2RetryPolicy retryPolicy) {
+        return new Uid2ClientHelper("http://localhost:1", "ak", new Uid2TransportConfig().withRetryPolicy(retryPolicy));
+    }
+
+    private static Uid2HttpStatusException status(int statusCode, String retryAfter) {
+        return new Uid2HttpStatusException("Unexpected code " + statusCode, statusCode, retryAfter);
+    }
+}
@@ -0,0 +1,83 @@
+package com.uid2.client;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static com.uid2.client.TestData.CLIENT_SECRET;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Uid2TransportConfigTests {
+    @Test
+    public void defaultConfigIsSharedByAllClients() {
+        assertSame(Uid2TransportConfig.defaultConfig(), Uid2TransportConfig.defaultConfig());
+        assertSame(Uid2TransportConfig.defaultConfig().getHttpClient(), Uid2TransportConfig.defaultConfig().getHttpClient());
+    }
+
+    @Test
+    public void defaultConfigCannotBeChanged() {
+        assertThrows(IllegalStateException.class, () -> Uid2TransportConfig.defaultConfig().withMaxIdleConnections(100));
+    }
+
+    @Test
+    public void clientsWithSameConfigShareHttpClient() {
+        Uid2TransportConfig config = new Uid2TransportConfig().withMaxIdleConnections(20);
+        new BidstreamClient("ep", "ak", CLIENT_SECRET, config);
+        OkHttpClient httpClient = config.getHttpClient();
+        new SharingClient("ep", "ak", CLIENT_SECRET, config);
+        new IdentityMapV3Client("ep", "ak", CLIENT_SECRET, config);
+
+        assertSame(httpClient, config.getHttpClient());
+        assertNotSame(httpClient, Uid2TransportConfig.defaultConfig().getHttpClient());
+    }
+
+    @Test
+    public void settingsAreApplied() {
+        OkHttpClient httpClient = new Uid2TransportConfig()
+                .withConnectTimeout(Duration.ofSeconds(2))
+                .withReadTimeout(Duration.ofSeconds(3))
+                .withCallTimeout(Duration.ofSeconds(4))
+                .withHttp2(false)
+                .withMaxRequestsPerHost(32)
+                .getHttpClient();
+
+        assertEquals(2000, httpClient.connectTimeoutMillis());
+        assertEquals(3000, httpClient.readTimeoutMillis());
+        assertEquals(4000, httpClient.callTimeoutMillis());
+        assertEquals(Collections.singletonList(Protocol.HTTP_1_1), httpClient.protocols());
+        assertEquals(32, httpClient.dispatcher().getMaxRequestsPerHost());
+    }
+
+    @Test
+    public void callerSuppliedHttpClientIsUsedAsIs() {
+        OkHttpClient httpClient = new OkHttpClient();
+        assertSame(httpClient, Uid2TransportConfig.fromHttpClient(httpClient).getHttpClient());
+    }
+
+    @Test
+    public void callerSuppliedHttpClientKeepsItsConnectionPool() {
+        OkHttpClient httpClient = new OkHttpClient();
+        OkHttpClient derived = Uid2TransportConfig.fromHttpClient(httpClient).withReadTimeout(Duration.ofSeconds(1)).getHttpClient();
+
+        assertNotSame(httpClient, derived);
+        assertSame(httpClient.connectionPool(), derived.connectionPool());
+        assertEquals(1000, derived.readTimeoutMillis());
+    }
+
+    @Test
+    public void configCannotBeChangedOnceInUse() {
+        Uid2TransportConfig config = new Uid2TransportConfig();
+        new PublisherUid2Client("ep", "ak", CLIENT_SECRET, config);
+
+        assertThrows(IllegalStateException.class, () -> config.withReadTimeout(Duration.ofSeconds(1)));
+    }
+
+    @Test
+    public void invalidSettingsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new Uid2TransportConfig().withMaxIdleConnections(-1));
+        assertThrows(IllegalArgumentException.class, () -> new Uid2TransportConfig().withMaxRequestsPerHost(0));
+    }
+}